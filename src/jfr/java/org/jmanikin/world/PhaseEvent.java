@@ -0,0 +1,52 @@
+package org.jmanikin.world;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>A Flight Recorder event for a {@link Metrics.Phase} of a send. It is only built by the {@code jfr} profile, and
+ * {@link Metrics} only loads it (reflectively) when the JDK supports Flight Recorder.</p>
+ * <p>The event begins when its Phase starts and ends when it has finished, so its duration is the duration of the
+ * Phase, and thresholds apply.</p>
+ */
+@Name("org.jmanikin.Phase")
+@Label("Send Phase")
+@Category("Manikin")
+@Description("A phase of a send to a World")
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    @Label("Message Class")
+    Class<?> messageClass;
+    
+    @Label("Phase")
+    String phase;
+    
+    @Label("Depth")
+    int depth;
+    
+    static final Metrics.Emitter EMITTER = new Metrics.Emitter() {
+        @Override public Object begin() {
+            PhaseEvent event = new PhaseEvent();
+            if (!event.isEnabled()) return null;
+            
+            event.begin();
+            return event;
+        }
+        
+        @Override public void end(Object begun, Class<?> messageClass, Metrics.Phase phase, int depth) {
+            PhaseEvent event = (PhaseEvent) begun;
+            event.end();
+            
+            if (event.shouldCommit()) {
+                event.messageClass = messageClass;
+                event.phase = phase.name();
+                event.depth = depth;
+                event.commit();
+            }
+        }
+    };
+}
@@ -0,0 +1,89 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.BankCodecs;
+import org.jmanikin.world.JournalWorld;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Measures the throughput of durable Deposits that are sent by a single Thread to a JournalWorld, with a simulated
+ * storage latency of 1 ms per fsync.</p>
+ * <p>A synchronous send waits for its own fsync. Asynchronous sends are pipelined: up to {@code pipeline} sends are
+ * in flight, and the sends that have committed during an fsync share the next one.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AsyncBenchmark {
+    @Param({"1", "16", "256"})
+    public int pipeline;
+    
+    @Param({"1000"})
+    public long latencyMicros;
+    
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.Deposit deposit = new AccountModule.Deposit(1.0);
+    
+    private Path directory;
+    private JournalWorld<SimpleWorld> world;
+    private CompletableFuture<?>[] inFlight;
+    private int next = 0;
+    
+    /**
+     * A JournalWorld on (simulated) remote storage
+     */
+    static final class RemoteJournalWorld extends JournalWorld<SimpleWorld> {
+        private final long latencyNanos;
+        
+        RemoteJournalWorld(Path path, long latencyNanos) throws IOException {
+            super(path, new SimpleWorld(), BankCodecs.codecs(), Durability.BATCH, 0);
+            this.latencyNanos = latencyNanos;
+        }
+        
+        @Override protected void force() throws IOException {
+            super.force();
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        world = new RemoteJournalWorld(directory.resolve("journal.log"), latencyMicros * 1000);
+        world.send(a1, new AccountModule.Open(0.0));
+        inFlight = new CompletableFuture<?>[pipeline];
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (CompletableFuture<?> f : inFlight) if (f != null) f.join();
+        world.close();
+        
+        Files.delete(directory.resolve("journal.log"));
+        Files.delete(directory);
+    }
+    
+    @Benchmark
+    public Object sync() { return world.send(a1, deposit).value(); }
+    
+    @Benchmark
+    public Object async() {
+        CompletableFuture<?> oldest = inFlight[next];
+        if (oldest != null) oldest.join();   // bounds the number of sends in flight
+        
+        inFlight[next] = world.sendAsync(a1, deposit).toCompletableFuture();
+        next = (next + 1) % pipeline;
+        return oldest;
+    }
+}
@@ -0,0 +1,40 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.Batch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures sending a number of Messages as one atomic Batch, versus sending them one by one.</p>
+ * <p>Both benchmarks send the same number of Messages per invocation, so the cost per Message is the score divided
+ * by the size.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchBenchmark extends WorldBenchmark {
+    @Param({"1", "16", "256", "4096"})
+    public int size;
+    
+    private final CounterModule.ID[] ids = new CounterModule.ID[64];
+    private final CounterModule.Increase increase = new CounterModule.Increase();
+    private Batch batch;
+    
+    @Override
+    protected void setup() {
+        for (int i = 0; i < ids.length; i++) ids[i] = new CounterModule.ID();
+        
+        batch = new Batch();
+        for (int i = 0; i < size; i++) batch.add(ids[i % ids.length], increase);
+    }
+    
+    @Benchmark
+    public Object batch() { return fixture.send(batch); }
+    
+    @Benchmark
+    public Object oneByOne() {
+        Object eff = null;
+        for (int i = 0; i < size; i++) eff = fixture.send(ids[i % ids.length], increase);
+        return eff;
+    }
+}
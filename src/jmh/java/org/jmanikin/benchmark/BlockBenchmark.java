@@ -0,0 +1,79 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.Batch;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.BlockExecutor;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the time to send a block of Book transfers to a SimpleWorld, sequentially or with a BlockExecutor on a
+ * number of cores.</p>
+ * <p>A transfer is booked from a single hot account with probability conflict, otherwise between two random accounts
+ * out of many. All transfers from the hot account conflict with each other, so they are (re)executed in order.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BlockBenchmark {
+    @Param({"1", "4", "8", "16"})
+    public int cores;
+    
+    @Param({"0.0", "0.01", "0.1", "0.5", "1.0"})
+    public double conflict;
+    
+    static final int BLOCK = 1000;
+    static final int ACCOUNTS = 100000;
+    
+    private SimpleWorld world;
+    private ForkJoinPool pool;
+    private BlockExecutor executor;
+    private Batch batch;
+    private long blocks = 0;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        world = new SimpleWorld();
+        pool = new ForkJoinPool(cores);
+        executor = new BlockExecutor(pool);
+        
+        AccountModule.ID[] accounts = new AccountModule.ID[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = new AccountModule.ID("A" + i);
+            world.send(accounts[i], new AccountModule.Open(1000000000.0));
+        }
+        
+        SplittableRandom random = new SplittableRandom(42);
+        batch = new Batch();
+        
+        for (int i = 0; i < BLOCK; i++) {
+            int from = random.nextDouble() < conflict ? 0 : 1 + random.nextInt(ACCOUNTS - 1);
+            int to = 1 + (from + random.nextInt(ACCOUNTS - 2)) % (ACCOUNTS - 1);
+            
+            batch.add(new TransferModule.ID((long) i), new TransferModule.Book(accounts[from], accounts[to], 1.0));
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void report() {
+        if (blocks > 0) System.out.println("\naborts per block: " + (double) executor.aborts() / blocks);
+        pool.shutdown();
+    }
+    
+    @Benchmark
+    public Object sequential() { return world.send(batch); }
+    
+    @Benchmark
+    public Object parallel() {
+        blocks++;
+        return executor.send(world, batch);
+    }
+}
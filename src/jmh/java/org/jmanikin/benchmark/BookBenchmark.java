@@ -0,0 +1,39 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * <p>Measures the nested send path of a {@link TransferModule.Book}, which sends a Withdraw and a Deposit.</p>
+ * <p>Compares the ThreadLocal based LocalMessage with BoundMessage, see {@link BoundBankModule}.</p>
+ */
+public class BookBenchmark extends WorldBenchmark {
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.ID a2 = new AccountModule.ID("A2");
+    private final TransferModule.ID t1 = new TransferModule.ID(1L);
+    
+    // book back and forth, so balances stay the same
+    private final TransferModule.Book there = new TransferModule.Book(a1, a2, 10.0);
+    private final TransferModule.Book back = new TransferModule.Book(a2, a1, 10.0);
+    
+    private final BoundBankModule.Book boundThere = new BoundBankModule.Book(a1, a2, 10.0);
+    private final BoundBankModule.Book boundBack = new BoundBankModule.Book(a2, a1, 10.0);
+    
+    @Override protected void setup() {
+        fixture.send(a1, new AccountModule.Open(1000.0));
+        fixture.send(a2, new AccountModule.Open(1000.0));
+    }
+    
+    @Benchmark
+    public Object book() {
+        fixture.send(t1, there);
+        return fixture.send(t1, back);
+    }
+    
+    @Benchmark
+    public Object boundBook() {
+        fixture.send(t1, boundThere);
+        return fixture.send(t1, boundBack);
+    }
+}
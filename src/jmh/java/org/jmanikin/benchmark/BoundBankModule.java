@@ -0,0 +1,59 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.*;
+import org.jmanikin.example.bank.AccountModule.Account;
+import org.jmanikin.example.bank.AccountModule.ID;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.example.bank.TransferModule.Transfer;
+import org.jmanikin.message.BoundMessage;
+
+/**
+ * <p>The Withdraw, Deposit and Book Messages of the bank example, as BoundMessages.</p>
+ */
+public interface BoundBankModule {
+    class Deposit extends BoundMessage<ID, Account, Void> {
+        public final Double amount;
+        public Deposit(Double amount) { this.amount = amount; }
+        
+        @Override public Msg<ID, Account, Void> local() { return
+            pre(() -> amount > 0.0).
+            app(() -> new Account(obj().balance + amount)).
+            eff(() -> null).
+            pst(() -> obj().balance == old().balance + amount);
+        }
+    }
+    
+    class Withdraw extends BoundMessage<ID, Account, Void> {
+        public final Double amount;
+        public Withdraw(Double amount) { this.amount = amount; }
+        
+        @Override public Msg<ID, Account, Void> local() { return
+            pre(() -> amount > 0.0 && obj().balance >= amount).
+            app(() -> new Account(obj().balance - amount)).
+            eff(() -> null).
+            pst(() -> obj().balance == old().balance - amount);
+        }
+    }
+    
+    class Book extends BoundMessage<TransferModule.ID, Transfer, Void> {
+        public final ID from;
+        public final ID to;
+        public final Double amount;
+        
+        public Book(ID from, ID to, Double amount) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+        }
+        
+        @Override public Msg<TransferModule.ID, Transfer, Void> local() { return
+            pre(() -> amount > 0.0 && from != to).
+            app(() -> new Transfer(from, to, amount)).
+            eff(() -> {
+                        send(from, new Withdraw(amount));
+                return  send(to, new Deposit(amount));
+            }).
+            pst(() -> obj(from).balance + obj(to).balance == old(from).balance + old(to).balance);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.*;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of Book transfers that are sent by multiple Threads to the same World.</p>
+ * <p>Worlds that are not thread safe are prefixed with {@code locked:}, and are guarded by a single global lock.
+ * When accounts are shared, all Threads book between the same two accounts, otherwise each Thread has its own.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+public class ConcurrentBookBenchmark {
+    @Param({"org.jmanikin.world.StmWorld", "locked:org.jmanikin.world.SimpleWorld"})
+    public String world;
+    
+    @Param({"false", "true"})
+    public boolean shared;
+    
+    private WorldFixture<?> fixture;
+    private boolean locked;
+    
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.ID a2 = new AccountModule.ID("A2");
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        locked = world.startsWith("locked:");
+        fixture = WorldFixture.create(locked ? world.substring("locked:".length()) : world);
+        
+        send(a1, new AccountModule.Open(1000.0));
+        send(a2, new AccountModule.Open(1000.0));
+    }
+    
+    <I extends Id<O>, O, E> E send(I id, Message<I, O, E> msg) {
+        if (!locked) return fixture.send(id, msg);
+        else synchronized (this) { return fixture.send(id, msg); }
+    }
+    
+    @State(Scope.Thread)
+    public static class Accounts {
+        TransferModule.ID t1;
+        TransferModule.Book there;
+        TransferModule.Book back;
+        
+        @Setup(Level.Trial)
+        public void setup(ConcurrentBookBenchmark b) {
+            AccountModule.ID a1 = b.a1;
+            AccountModule.ID a2 = b.a2;
+            
+            if (!b.shared) {
+                long thread = Thread.currentThread().getId();
+                a1 = new AccountModule.ID("A1-" + thread);
+                a2 = new AccountModule.ID("A2-" + thread);
+                b.send(a1, new AccountModule.Open(1000.0));
+                b.send(a2, new AccountModule.Open(1000.0));
+            }
+            
+            t1 = new TransferModule.ID(Thread.currentThread().getId());
+            there = new TransferModule.Book(a1, a2, 10.0);
+            back = new TransferModule.Book(a2, a1, 10.0);
+        }
+    }
+    
+    @Benchmark
+    public Object book(Accounts a) {
+        send(a.t1, a.there);
+        return send(a.t1, a.back);
+    }
+}
@@ -0,0 +1,55 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.Contracts;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of {@link TransferModule.Book} on a SimpleWorld, at each {@link Contracts.Level}.</p>
+ * <p>SAMPLED checks 1% of all post-conditions.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ContractsBenchmark {
+    @Param({"FULL", "PRE", "SAMPLED", "OFF"})
+    public Contracts.Level level;
+    
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.ID a2 = new AccountModule.ID("A2");
+    private final TransferModule.ID t1 = new TransferModule.ID(1L);
+    
+    // book back and forth, so balances stay the same
+    private final TransferModule.Book there = new TransferModule.Book(a1, a2, 10.0);
+    private final TransferModule.Book back = new TransferModule.Book(a2, a1, 10.0);
+    
+    private Contracts contracts;
+    private SimpleWorld world;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        contracts = new Contracts(level, 0.01);
+        world = new SimpleWorld().contracts(contracts);
+        world.send(a1, new AccountModule.Open(1000.0));
+        world.send(a2, new AccountModule.Open(1000.0));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("\nskipped: " + contracts.skipped() + ", failed: " + contracts.failed());
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Object book() {
+        world.send(t1, there);
+        return world.send(t1, back).value();
+    }
+}
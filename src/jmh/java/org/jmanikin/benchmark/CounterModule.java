@@ -0,0 +1,57 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.*;
+import org.jmanikin.message.LocalMessage;
+
+public interface CounterModule {
+    class ID implements Id<Counter> {
+        @Override public Counter init() { return new Counter(0); }
+    }
+    
+    class Counter {
+        public final long count;
+        public Counter(long count) { this.count = count; }
+    }
+    
+    class Increase implements Message<ID, Counter, Void> {
+        @Override public Msg<ID, Counter, Void> msg(Environment<ID, Counter, Void> e) { return e.
+            pre(() -> true).
+            app(() -> new Counter(e.obj().count + 1)).
+            eff(() -> null).
+            pst(() -> e.obj().count == e.old().count + 1);
+        }
+    }
+    
+    class LocalIncrease implements LocalMessage<ID, Counter, Void> {
+        @Override public Msg<ID, Counter, Void> local() { return
+            pre(() -> true).
+            app(() -> new Counter(obj().count + 1)).
+            eff(() -> null).
+            pst(() -> obj().count == old().count + 1);
+        }
+    }
+    
+    class FailingIncrease implements Message<ID, Counter, Void> {
+        @Override public Msg<ID, Counter, Void> msg(Environment<ID, Counter, Void> e) { return e.
+            pre(() -> true).
+            app(() -> new Counter(e.obj().count + 1)).
+            eff(() -> null).
+            pst(() -> e.obj().count == e.old().count);
+        }
+    }
+    
+    class IncreaseAll implements Message<ID, Counter, Void> {
+        public final ID[] others;
+        public IncreaseAll(ID[] others) { this.others = others; }
+        
+        @Override public Msg<ID, Counter, Void> msg(Environment<ID, Counter, Void> e) { return e.
+            pre(() -> true).
+            app(() -> new Counter(e.obj().count + 1)).
+            eff(() -> {
+                for (ID other : others) e.send(other, new Increase());
+                return null;
+            }).
+            pst(() -> e.obj().count == e.old().count + 1);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.BankCodecs;
+import org.jmanikin.world.JournalWorld;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of durable commits (Deposits) that are sent by multiple Threads to a JournalWorld.</p>
+ * <p>With COMMIT durability each send pays for its own fsync, with BATCH durability concurrent sends share an fsync
+ * (group commit), and with INTERVAL durability fsyncs are taken out of the send path altogether.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+public class JournalBenchmark {
+    @Param({"COMMIT", "BATCH", "INTERVAL"})
+    public JournalWorld.Durability durability;
+    
+    @Param({"10"})
+    public long intervalMillis;
+    
+    private Path directory;
+    private JournalWorld<SimpleWorld> world;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        world = new JournalWorld<>(directory.resolve("journal.log"), new SimpleWorld(), BankCodecs.codecs(),
+            durability, intervalMillis);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        world.close();
+        Path journal = directory.resolve("journal.log");
+        System.out.println("\njournal: " + Files.size(journal) + " bytes");
+        Files.delete(journal);
+        Files.delete(directory);
+    }
+    
+    @State(Scope.Thread)
+    public static class Account {
+        AccountModule.ID id;
+        AccountModule.Deposit deposit = new AccountModule.Deposit(1.0);
+        
+        @Setup(Level.Trial)
+        public void setup() { id = new AccountModule.ID("A-" + Thread.currentThread().getId()); }
+    }
+    
+    @Benchmark
+    public Object commit(Account a) { return world.send(a.id, a.deposit).value(); }
+}
@@ -0,0 +1,33 @@
+package org.jmanikin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * <p>Measures obj and old lookups of present and absent Objects, in a World that holds size Objects.</p>
+ */
+public class LookupBenchmark extends WorldBenchmark {
+    @Param({"1", "100000"})
+    public int size;
+    
+    private final CounterModule.Increase increase = new CounterModule.Increase();
+    private final CounterModule.ID absent = new CounterModule.ID();
+    private CounterModule.ID present;
+    
+    @Override protected void setup() {
+        for (int i = 0; i < size; i++) {
+            present = new CounterModule.ID();
+            fixture.send(present, increase);
+            fixture.send(present, increase);
+        }
+    }
+    
+    @Benchmark
+    public Object objPresent() { return fixture.obj(present); }
+    
+    @Benchmark
+    public Object oldPresent() { return fixture.old(present); }
+    
+    @Benchmark
+    public Object objAbsent() { return fixture.obj(absent); }
+}
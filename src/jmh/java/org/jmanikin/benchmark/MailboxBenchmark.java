@@ -0,0 +1,116 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.*;
+import org.jmanikin.world.MailboxWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput and latency of Increases that are sent by multiple Threads to Counters, of which the Ids
+ * are drawn from a Zipfian distribution, so that a few Counters are hot.</p>
+ * <p>Worlds prefixed with {@code mailbox:} are decorated by a {@link MailboxWorld}. Worlds prefixed with
+ * {@code locked:} are guarded by a single global lock.</p>
+ * <p>A synchronous send waits for the Increase, while an asynchronous send keeps up to 64 Increases per Thread in
+ * flight.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+public class MailboxBenchmark {
+    @Param({"mailbox:org.jmanikin.world.StmWorld", "locked:org.jmanikin.world.SimpleWorld"})
+    public String world;
+    
+    @Param({"1000000"})
+    public int ids;
+    
+    @Param({"0.99"})
+    public double skew;
+    
+    private WorldFixture<?> fixture;
+    private boolean locked;
+    
+    private CounterModule.ID[] counters;
+    private double[] cdf;
+    
+    private final CounterModule.Increase increase = new CounterModule.Increase();
+    
+    @Setup(Level.Trial)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        locked = world.startsWith("locked:");
+        String className = world.substring(world.indexOf(':') + 1);
+        fixture = WorldFixture.create(className);
+        if (!locked) fixture = new WorldFixture<>(new MailboxWorld(fixture.world()));
+        
+        counters = new CounterModule.ID[ids];
+        for (int i = 0; i < ids; i++) counters[i] = new CounterModule.ID();
+        
+        // the Zipfian cumulative distribution: P(rank k) ~ 1 / k^skew
+        cdf = new double[ids];
+        double sum = 0.0;
+        for (int i = 0; i < ids; i++) cdf[i] = sum += 1.0 / Math.pow(i + 1, skew);
+        for (int i = 0; i < ids; i++) cdf[i] /= sum;
+    }
+    
+    <I extends Id<O>, O, E> E send(I id, Message<I, O, E> msg) {
+        if (!locked) return fixture.send(id, msg);
+        else synchronized (this) { return fixture.send(id, msg); }
+    }
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    CompletableFuture<?> sendAsync(CounterModule.ID id, CounterModule.Increase msg) {
+        World w = fixture.world();
+        if (!locked) return w.sendAsync(id, msg).toCompletableFuture();
+        else synchronized (this) { return w.sendAsync(id, msg).toCompletableFuture(); }
+    }
+    
+    @State(Scope.Thread)
+    public static class Load {
+        private static final int SAMPLES = 1 << 16;
+        private static final int PIPELINE = 64;
+        
+        final CounterModule.ID[] sample = new CounterModule.ID[SAMPLES];
+        int next = 0;
+        
+        final CompletableFuture<?>[] inFlight = new CompletableFuture<?>[PIPELINE];
+        
+        @Setup(Level.Trial)
+        public void setup(MailboxBenchmark b) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            
+            for (int i = 0; i < SAMPLES; i++) {
+                int rank = Arrays.binarySearch(b.cdf, random.nextDouble());
+                sample[i] = b.counters[Math.min(rank < 0 ? -rank - 1 : rank, b.ids - 1)];
+            }
+        }
+        
+        CounterModule.ID next() { return sample[next++ & (SAMPLES - 1)]; }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() { for (CompletableFuture<?> f : inFlight) if (f != null) f.join(); }
+    }
+    
+    @Benchmark
+    public Object increase(Load load) { return send(load.next(), increase); }
+    
+    /**
+     * Pipelines up to 64 Increases per Thread, and measures the time to put an Increase in its mailbox
+     */
+    @Benchmark
+    public Object increaseAsync(Load load) {
+        int slot = load.next & (Load.PIPELINE - 1);
+        CompletableFuture<?> oldest = load.inFlight[slot];
+        if (oldest != null) oldest.join();   // bounds the number of sends in flight
+        
+        load.inFlight[slot] = sendAsync(load.next(), increase);
+        return oldest;
+    }
+}
@@ -0,0 +1,63 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.Metrics;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of {@link TransferModule.Book} on a SimpleWorld, with and without a {@link Metrics}
+ * registry that times 1% or all of the sends.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MetricsBenchmark {
+    @Param({"off", "0.01", "1.0"})
+    public String sampleRate;
+    
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.ID a2 = new AccountModule.ID("A2");
+    private final TransferModule.ID t1 = new TransferModule.ID(1L);
+    
+    // book back and forth, so balances stay the same
+    private final TransferModule.Book there = new TransferModule.Book(a1, a2, 10.0);
+    private final TransferModule.Book back = new TransferModule.Book(a2, a1, 10.0);
+    
+    private Metrics metrics;
+    private SimpleWorld world;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        metrics = sampleRate.equals("off") ? null : new Metrics(Double.parseDouble(sampleRate));
+        world = new SimpleWorld().metrics(metrics);
+        world.send(a1, new AccountModule.Open(1000.0));
+        world.send(a2, new AccountModule.Open(1000.0));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (metrics != null) {
+            Metrics.Stats stats = metrics.stats(TransferModule.Book.class);
+            
+            System.out.println();
+            for (Metrics.Phase phase : Metrics.Phase.values()) {
+                Metrics.Histogram h = stats.histogram(phase);
+                System.out.println(phase + ": p50 " + h.percentile(0.5) + " ns, p99 " + h.percentile(0.99) + " ns");
+            }
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public Object book() {
+        world.send(t1, there);
+        return world.send(t1, back).value();
+    }
+}
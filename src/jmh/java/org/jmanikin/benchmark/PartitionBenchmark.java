@@ -0,0 +1,119 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.Id;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.BankCodecs;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.PartitionedWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures Book transfers on a PartitionedWorld, with one Partition process per branch of accounts.</p>
+ * <p>The latency of a local transfer (between accounts of the branch of the transfer) is compared with a remote one
+ * (between accounts of two other branches), whose nested sends are forwarded to other Partitions, and which requires
+ * a two-phase commit. The aggregate throughput is measured with multiple Threads, that book between accounts of the
+ * same branch with probability LOCALITY.</p>
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PartitionBenchmark {
+    @Param({"2", "4"})
+    public int partitions;
+    
+    static final int ACCOUNTS = 64;
+    static final double LOCALITY = 0.9;
+    
+    private PartitionedWorld world;
+    private AccountModule.ID[][] accounts;
+    private TransferModule.ID[] transfers;
+    
+    /**
+     * Routes an account Id ("branch-account") and a transfer Id to the Partition of their branch
+     */
+    public static class BranchConfig implements PartitionedWorld.Config {
+        @Override public Codecs codecs() { return BankCodecs.codecs(); }
+        
+        @Override public int route(Id<?> id) {
+            if (id instanceof AccountModule.ID) {
+                String account = ((AccountModule.ID) id).id;
+                return Integer.parseInt(account.substring(0, account.indexOf('-')));
+            }
+            else return ((TransferModule.ID) id).id.intValue();
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        world = PartitionedWorld.launch(partitions, BranchConfig.class, "-Xmx512m");
+        accounts = new AccountModule.ID[partitions][ACCOUNTS];
+        transfers = new TransferModule.ID[partitions];
+        
+        for (int b = 0; b < partitions; b++) {
+            transfers[b] = new TransferModule.ID((long) b);
+            
+            for (int a = 0; a < ACCOUNTS; a++) {
+                accounts[b][a] = new AccountModule.ID(b + "-" + a);
+                world.send(accounts[b][a], new AccountModule.Open(1000000000.0));
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        long cross = world.crossPartitionSends();
+        System.out.println("\ncross-partition fraction: " + (double) cross / (cross + world.localSends()));
+        world.close();
+    }
+    
+    @State(Scope.Thread)
+    public static class Transfers {
+        final SplittableRandom random = new SplittableRandom();
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Object local(Transfers t) {
+        int from = t.random.nextInt(ACCOUNTS);
+        int to = (from + 1 + t.random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        
+        return world.send(transfers[0], new TransferModule.Book(accounts[0][from], accounts[0][to], 1.0));
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Object remote(Transfers t) {
+        int from = t.random.nextInt(ACCOUNTS);
+        int to = t.random.nextInt(ACCOUNTS);
+        int other = partitions > 2 ? 2 : 0;   // with 2 Partitions, only the withdrawal is remote
+        
+        return world.send(transfers[0], new TransferModule.Book(accounts[1][from], accounts[other][to], 1.0));
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public Object aggregate(Transfers t) {
+        int fromBranch = t.random.nextInt(partitions);
+        int toBranch = fromBranch;
+        
+        if (t.random.nextDouble() >= LOCALITY) {
+            toBranch = (fromBranch + 1 + t.random.nextInt(partitions - 1)) % partitions;
+        }
+        
+        int from = t.random.nextInt(ACCOUNTS);
+        int to = fromBranch == toBranch ?
+            (from + 1 + t.random.nextInt(ACCOUNTS - 1)) % ACCOUNTS : t.random.nextInt(ACCOUNTS);
+        
+        return world.send(transfers[fromBranch],
+            new TransferModule.Book(accounts[fromBranch][from], accounts[toBranch][to], 1.0));
+    }
+}
@@ -0,0 +1,29 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * <p>Measures the rollback path, when a post-condition fails or a nested send fails.</p>
+ */
+public class RollbackBenchmark extends WorldBenchmark {
+    private final CounterModule.ID id = new CounterModule.ID();
+    private final CounterModule.FailingIncrease failingIncrease = new CounterModule.FailingIncrease();
+    
+    private final AccountModule.ID a1 = new AccountModule.ID("A1");
+    private final AccountModule.ID a2 = new AccountModule.ID("A2");
+    private final TransferModule.ID t1 = new TransferModule.ID(1L);
+    private final TransferModule.Book overdraw = new TransferModule.Book(a1, a2, 100.0);
+    
+    @Override protected void setup() {
+        fixture.send(a1, new AccountModule.Open(10.0));
+        fixture.send(a2, new AccountModule.Open(10.0));
+    }
+    
+    @Benchmark
+    public Object postConditionFailed() { return fixture.fail(id, failingIncrease); }
+    
+    @Benchmark
+    public Object nestedPreConditionFailed() { return fixture.fail(t1, overdraw); }
+}
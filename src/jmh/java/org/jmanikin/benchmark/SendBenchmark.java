@@ -0,0 +1,18 @@
+package org.jmanikin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * <p>Measures a single send of a plain Message versus a LocalMessage.</p>
+ */
+public class SendBenchmark extends WorldBenchmark {
+    private final CounterModule.ID id = new CounterModule.ID();
+    private final CounterModule.Increase increase = new CounterModule.Increase();
+    private final CounterModule.LocalIncrease localIncrease = new CounterModule.LocalIncrease();
+    
+    @Benchmark
+    public Object message() { return fixture.send(id, increase); }
+    
+    @Benchmark
+    public Object localMessage() { return fixture.send(id, localIncrease); }
+}
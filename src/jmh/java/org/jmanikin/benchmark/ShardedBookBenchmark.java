@@ -0,0 +1,94 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.Id;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.ShardedWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of Book transfers on a ShardedWorld, with one shard per branch of accounts.</p>
+ * <p>A transfer is booked between two accounts of the same branch with probability locality,
+ * otherwise between accounts of different branches (which requires a two-phase commit).</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+public class ShardedBookBenchmark {
+    @Param({"4"})
+    public int shards;
+    
+    @Param({"1.0", "0.9", "0.5", "0.0"})
+    public double locality;
+    
+    static final int ACCOUNTS = 64;
+    
+    private ShardedWorld world;
+    private BranchID[][] accounts;
+    
+    /**
+     * An account Id that is routed to the shard of its branch
+     */
+    static class BranchID extends AccountModule.ID {
+        final int branch;
+        BranchID(int branch, int account) { super(branch + "-" + account); this.branch = branch; }
+    }
+    
+    static int route(Id<?> id) {
+        if (id instanceof BranchID) return ((BranchID) id).branch;
+        else return ((TransferModule.ID) id).id.intValue();
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        world = new ShardedWorld(shards, ShardedBookBenchmark::route);
+        accounts = new BranchID[shards][ACCOUNTS];
+        
+        for (int b = 0; b < shards; b++) {
+            for (int a = 0; a < ACCOUNTS; a++) {
+                accounts[b][a] = new BranchID(b, a);
+                world.send(accounts[b][a], new AccountModule.Open(1000000.0));
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void report() {
+        System.out.println("\ncross-shard fraction: " + world.crossShardFraction());
+    }
+    
+    @State(Scope.Thread)
+    public static class Transfers {
+        final SplittableRandom random = new SplittableRandom();
+        TransferModule.ID[] ids;
+        
+        @Setup(Level.Trial)
+        public void setup(ShardedBookBenchmark b) {
+            // one transfer Id per branch, so that a transfer is routed to the branch of its from account
+            ids = new TransferModule.ID[b.shards];
+            for (int i = 0; i < b.shards; i++) ids[i] = new TransferModule.ID((long) i);
+        }
+    }
+    
+    @Benchmark
+    public Object book(Transfers t) {
+        int fromBranch = t.random.nextInt(shards);
+        int toBranch = fromBranch;
+        
+        if (shards > 1 && t.random.nextDouble() >= locality) {
+            toBranch = (fromBranch + 1 + t.random.nextInt(shards - 1)) % shards;
+        }
+        
+        int from = t.random.nextInt(ACCOUNTS);
+        int to = fromBranch == toBranch ? (from + 1 + t.random.nextInt(ACCOUNTS - 1)) % ACCOUNTS : t.random.nextInt(ACCOUNTS);
+        
+        return world.send(t.ids[fromBranch], new TransferModule.Book(accounts[fromBranch][from], accounts[toBranch][to], 1.0));
+    }
+}
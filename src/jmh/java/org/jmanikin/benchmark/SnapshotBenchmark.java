@@ -0,0 +1,97 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.View;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.SharedWorld;
+import org.jmanikin.world.SimpleWorld;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures the throughput of a single Thread that books transfers between accounts, alone and together with 8
+ * Threads that sum the balances of all accounts (a reporting query).</p>
+ * <p>With {@code shared}, the readers query a snapshot of a {@link SharedWorld}, so they never block the writer.
+ * With {@code locked}, a SimpleWorld is guarded by a single global lock, so the readers stop the writer while they
+ * query.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SnapshotBenchmark {
+    @Param({"shared", "locked"})
+    public String world;
+    
+    @Param({"1000"})
+    public int accounts;
+    
+    private SharedWorld shared;
+    private SimpleWorld locked;
+    private AccountModule.ID[] ids;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        ids = new AccountModule.ID[accounts];
+        for (int i = 0; i < accounts; i++) ids[i] = new AccountModule.ID("A" + i);
+        
+        if (world.equals("shared")) {
+            shared = new SharedWorld();
+            for (AccountModule.ID id : ids) shared.send(id, new AccountModule.Open(1000.0));
+        }
+        else {
+            locked = new SimpleWorld();
+            for (AccountModule.ID id : ids) locked.send(id, new AccountModule.Open(1000.0));
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Writer {
+        final TransferModule.ID t1 = new TransferModule.ID(1L);
+        final SplittableRandom random = new SplittableRandom(42);
+    }
+    
+    private Object book(Writer w) {
+        AccountModule.ID from = ids[w.random.nextInt(accounts)];
+        AccountModule.ID to = ids[w.random.nextInt(accounts)];
+        if (from == to) return null;
+        
+        TransferModule.Book book = new TransferModule.Book(from, to, 1.0);
+        
+        if (shared != null) return shared.send(w.t1, book).value();
+        else synchronized (this) { return locked.send(w.t1, book).value(); }
+    }
+    
+    private double sum() {
+        double sum = 0.0;
+        
+        if (shared != null) {
+            View snapshot = shared.snapshot();
+            for (AccountModule.ID id : ids) sum += snapshot.<AccountModule.Account>obj(id).balance;
+        }
+        else synchronized (this) {
+            for (AccountModule.ID id : ids) sum += locked.obj(id).value().balance;
+        }
+        
+        return sum;
+    }
+    
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(1)
+    public Object writeAlone(Writer w) { return book(w); }
+    
+    @Benchmark
+    @Group("readers")
+    @GroupThreads(1)
+    public Object write(Writer w) { return book(w); }
+    
+    @Benchmark
+    @Group("readers")
+    @GroupThreads(8)
+    public double read() { return sum(); }
+}
@@ -0,0 +1,30 @@
+package org.jmanikin.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Measures successful sends that write to a number of other Objects via nested sends.</p>
+ * <p>The cost of making such a send atomic (e.g. by keeping an undo log) should be proportional to the number of
+ * writes.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UndoBenchmark extends WorldBenchmark {
+    @Param({"0", "1", "16", "256"})
+    public int writes;
+    
+    private final CounterModule.ID id = new CounterModule.ID();
+    private CounterModule.IncreaseAll increaseAll;
+    
+    @Override
+    protected void setup() {
+        CounterModule.ID[] others = new CounterModule.ID[writes];
+        for (int i = 0; i < writes; i++) others[i] = new CounterModule.ID();
+        increaseAll = new CounterModule.IncreaseAll(others);
+    }
+    
+    @Benchmark
+    public Object nestedWrites() { return fixture.send(id, increaseAll); }
+}
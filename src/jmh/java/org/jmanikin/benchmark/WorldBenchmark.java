@@ -0,0 +1,33 @@
+package org.jmanikin.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Base class of all World benchmarks.</p>
+ * <p>Other World implementations can be plugged in with {@code -p world=<class name>}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public abstract class WorldBenchmark {
+    @Param({"org.jmanikin.world.SimpleWorld", "org.jmanikin.world.PersistentWorld"})
+    public String world;
+    
+    protected WorldFixture<?> fixture;
+    
+    @Setup(Level.Trial)
+    public void setupWorld() {
+        fixture = WorldFixture.create(world);
+        setup();
+    }
+    
+    /**
+     * Prepares the World before the benchmark runs
+     */
+    protected void setup() { }
+}
@@ -0,0 +1,57 @@
+package org.jmanikin.benchmark;
+
+import org.jmanikin.core.*;
+
+import java.util.List;
+
+/**
+ * <p>A WorldFixture threads a World of any type W through a benchmark.</p>
+ * <p>Mutable Worlds return themselves on each send, immutable Worlds return a new World that replaces the old one.</p>
+ *
+ * @param <W> the World type
+ */
+public final class WorldFixture<W extends World<W>> {
+    private W world;
+    
+    public WorldFixture(W world) { this.world = world; }
+    
+    /**
+     * Returns a WorldFixture for a pristine World, given the name of a World class with a no-arg constructor
+     *
+     * @param className the World class name
+     * @return the WorldFixture
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static WorldFixture<?> create(String className) {
+        try { return new WorldFixture((World) Class.forName(className).getConstructor().newInstance()); }
+        catch (ReflectiveOperationException e) { throw new IllegalArgumentException("Cannot create " + className, e); }
+    }
+    
+    public W world() { return world; }
+    
+    public <O> O obj(Id<? extends O> id) { return world.obj(id).value(); }
+    public <O> O old(Id<? extends O> id) { return world.old(id).value(); }
+    
+    public <I extends Id<O>, O, E> E send(I id, Message<I, O, E> msg) {
+        Value<W, E> result = world.send(id, msg);
+        world = result.world();
+        return result.value();
+    }
+    
+    public List<Object> send(Batch batch) {
+        Value<W, List<Object>> result = world.send(batch);
+        world = result.world();
+        return result.value();
+    }
+    
+    /**
+     * Sends a Message that is expected to fail
+     *
+     * @return the exception that caused the failure
+     */
+    public <I extends Id<O>, O, E> RuntimeException fail(I id, Message<I, O, E> msg) {
+        try { send(id, msg); }
+        catch (RuntimeException e) { return e; }
+        throw new IllegalStateException("Message should have failed");
+    }
+}
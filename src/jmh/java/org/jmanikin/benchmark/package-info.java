@@ -0,0 +1,4 @@
+/**
+ * Provides JMH benchmarks that are generic over World implementations
+ */
+package org.jmanikin.benchmark;
@@ -0,0 +1,57 @@
+package org.jmanikin.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <p>A Codec writes values of type T to a binary representation, and reads them back.</p>
+ *
+ * <p>Example implementation usage:</p>
+ *
+ * <pre>{@code
+ * Codec<Account> codec = Codec.of(
+ *      (account, out) -> out.writeDouble(account.balance),
+ *      in -> new Account(in.readDouble())
+ * );
+ * }</pre>
+ *
+ * @param <T> the value type
+ */
+public interface Codec<T> {
+    /**
+     * Writes a value
+     *
+     * @param value the value to write
+     * @param out   the output to write to
+     * @throws IOException when writing fails
+     */
+    void write(T value, DataOutput out) throws IOException;
+    
+    /**
+     * Reads a value
+     *
+     * @param in the input to read from
+     * @return the value that has been read
+     * @throws IOException when reading fails
+     */
+    T read(DataInput in) throws IOException;
+    
+    /**
+     * Returns a Codec, given a Writer and a Reader
+     *
+     * @param writer the Writer
+     * @param reader the Reader
+     * @param <T>    the value type
+     * @return the Codec
+     */
+    static <T> Codec<T> of(Writer<T> writer, Reader<T> reader) {
+        return new Codec<T>() {
+            @Override public void write(T value, DataOutput out) throws IOException { writer.write(value, out); }
+            @Override public T read(DataInput in) throws IOException { return reader.read(in); }
+        };
+    }
+    
+    interface Writer<T> { void write(T value, DataOutput out) throws IOException; }
+    interface Reader<T> { T read(DataInput in) throws IOException; }
+}
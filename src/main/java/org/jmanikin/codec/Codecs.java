@@ -0,0 +1,126 @@
+package org.jmanikin.codec;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * <p>Codecs is a registry of Codecs, that writes and reads values of any registered class.</p>
+ * <p>Each value is prefixed with the tag of its class, which is determined by the order of registration.
+ * So values can only be read back by Codecs that have been registered in the same order.</p>
+ * <p>Only when {@link #allowJavaSerialization()} has been called, values of unregistered classes that are
+ * Serializable fall back to (much less compact) Java serialization. Don't allow it for untrusted input: reading a
+ * serialized value can run arbitrary code of any class on the class path.</p>
+ *
+ * <p>Codecs should be fully registered before they are used, after which they can be shared between Threads.</p>
+ */
+public final class Codecs {
+    private static final int NULL = 0;
+    private static final int SERIALIZED = 1;
+    
+    private final HashMap<Class<?>, Integer> tags = new HashMap<>();
+    private final ArrayList<Codec<Object>> codecs = new ArrayList<>();
+    private boolean serialization = false;
+    
+    public Codecs() {
+        codecs.add(null);   // NULL
+        codecs.add(null);   // SERIALIZED
+    }
+    
+    /**
+     * Allows values of unregistered Serializable classes to be written and read with Java serialization
+     *
+     * @return these Codecs
+     */
+    public Codecs allowJavaSerialization() { serialization = true; return this; }
+    
+    /**
+     * Returns whether Java serialization is allowed
+     *
+     * @return true if Java serialization is allowed
+     */
+    public boolean allowsJavaSerialization() { return serialization; }
+    
+    /**
+     * Registers a Codec for (exactly) the given class
+     *
+     * @param type  the class
+     * @param codec the Codec
+     * @param <T>   the value type
+     * @return these Codecs
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Codecs register(Class<T> type, Codec<? super T> codec) {
+        if (tags.containsKey(type)) throw new IllegalArgumentException("Codec already registered for " + type);
+        
+        tags.put(type, codecs.size());
+        codecs.add((Codec<Object>) codec);
+        return this;
+    }
+    
+    /**
+     * Writes a value, prefixed with the tag of its class
+     *
+     * @param value the value to write
+     * @param out   the output to write to
+     * @throws IOException when writing fails, or when there is no Codec for the value
+     */
+    public void write(Object value, DataOutput out) throws IOException {
+        if (value == null) writeTag(NULL, out);
+        else {
+            Integer tag = tags.get(value.getClass());
+            
+            if (tag != null) { writeTag(tag, out); codecs.get(tag).write(value, out); }
+            else if (serialization && value instanceof Serializable) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) { oos.writeObject(value); }
+                
+                writeTag(SERIALIZED, out);
+                out.writeInt(bytes.size());
+                out.write(bytes.toByteArray());
+            }
+            else throw new NotSerializableException("No Codec registered for " + value.getClass().getName());
+        }
+    }
+    
+    /**
+     * Reads a value that has been written by {@link #write(Object, DataOutput)}
+     *
+     * @param in the input to read from
+     * @return the value that has been read
+     * @throws IOException when reading fails, or when a serialized value is read and Java serialization is not allowed
+     */
+    public Object read(DataInput in) throws IOException {
+        int tag = readTag(in);
+        
+        if (tag == NULL) return null;
+        else if (tag == SERIALIZED) {
+            if (!serialization) throw new StreamCorruptedException("Java serialization is not allowed");
+            
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return ois.readObject();
+            }
+            catch (ClassNotFoundException e) { throw new InvalidClassException(e.getMessage()); }
+        }
+        else if (tag < codecs.size()) return codecs.get(tag).read(in);
+        else throw new StreamCorruptedException("Unknown tag " + tag);
+    }
+    
+    // tags are written as variable length integers: 1 byte for the first 127 registered classes
+    private static void writeTag(int tag, DataOutput out) throws IOException {
+        while ((tag & ~0x7F) != 0) { out.writeByte((tag & 0x7F) | 0x80); tag >>>= 7; }
+        out.writeByte(tag);
+    }
+    
+    private static int readTag(DataInput in) throws IOException {
+        int tag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            tag |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return tag;
+        }
+    }
+}
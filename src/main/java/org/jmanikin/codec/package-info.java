@@ -0,0 +1,4 @@
+/**
+ * Provides binary Codecs for Ids, Objects and Messages
+ */
+package org.jmanikin.codec;
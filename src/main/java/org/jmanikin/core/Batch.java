@@ -0,0 +1,103 @@
+package org.jmanikin.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A Batch is a sequence of Id/Message pairs that is sent to a World as one atomic unit: either all Messages
+ * commit, or the World is unchanged.</p>
+ * <p>Worlds can amortize their per-send overhead over all the Messages of a Batch. See {@link World#send(Batch)}.</p>
+ * <p>A Batch should not be modified after it has been sent, but it can be sent multiple times.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * Value<W, List<Object>> effects = world.send(new Batch().
+ *      add(a1, new Withdraw(30.0)).
+ *      add(a2, new Deposit(30.0)));
+ * }</pre>
+ */
+public final class Batch {
+    /**
+     * The Id that the default implementation of {@link World#send(Batch)} sends a Batch to
+     */
+    public static final BatchId ID = new BatchId();
+    
+    private final ArrayList<Id<?>> ids = new ArrayList<>();
+    private final ArrayList<Message<?, ?, ?>> msgs = new ArrayList<>();
+    
+    /**
+     * Appends an Id/Message pair
+     *
+     * @param id  the Object identifier to send the Message to
+     * @param msg the message to send to the Object
+     * @param <I> the Id Type
+     * @param <O> the Object Type
+     * @param <E> the Effect Type
+     * @return this Batch
+     */
+    public <I extends Id<O>, O, E> Batch add(I id, Message<I, O, E> msg) {
+        ids.add(id);
+        msgs.add(msg);
+        return this;
+    }
+    
+    /**
+     * Returns the number of Id/Message pairs
+     *
+     * @return the size
+     */
+    public int size() { return ids.size(); }
+    
+    /**
+     * Returns the i-th Id
+     *
+     * @param i the index
+     * @return the Id
+     */
+    @SuppressWarnings("unchecked")
+    public Id<Object> id(int i) { return (Id<Object>) ids.get(i); }
+    
+    /**
+     * Returns the i-th Message
+     *
+     * @param i the index
+     * @return the Message
+     */
+    @SuppressWarnings("unchecked")
+    public Message<Id<Object>, Object, Object> msg(int i) { return (Message<Id<Object>, Object, Object>) msgs.get(i); }
+    
+    /**
+     * Returns the effects of a Batch, in order
+     *
+     * @param effects the effects
+     * @return the effects as an (unmodifiable) List
+     */
+    public static List<Object> effects(Object... effects) { return Collections.unmodifiableList(Arrays.asList(effects)); }
+    
+    /**
+     * Returns a Message that sends all pairs of this Batch as nested sends
+     *
+     * @return the Message
+     */
+    Message<BatchId, Object, List<Object>> message() { return e -> e.
+        pre(() -> true).
+        app(e::obj).
+        eff(() -> {
+            Object[] effects = new Object[size()];
+            for (int i = 0; i < effects.length; i++) effects[i] = e.send(id(i), msg(i));
+            return effects(effects);
+        }).
+        pst(() -> true);
+    }
+    
+    /**
+     * The Id of the (stateless) Object that Batches are sent to
+     */
+    public static final class BatchId implements Id<Object> {
+        private BatchId() { }
+        @Override public Object init() { return null; }
+    }
+}
@@ -8,7 +8,7 @@ package org.jmanikin.core;
  * @param <O> the Object Type
  * @param <E> the Effect Type
  */
-public interface Environment<I extends Id<O>, O, E> extends PreCondition<I, O, E> {
+public interface Environment<I extends Id<O>, O, E> extends PreCondition<I, O, E>, View {
     /**
      * Returns the Object identifier that's in scope
      *
@@ -48,6 +48,20 @@ public interface Environment<I extends Id<O>, O, E> extends PreCondition<I, O, E
      */
     <O2> O2 old(Id<? extends O2> id);
     
+    /**
+     * Returns an immutable View of all (old) Objects, as they are at this point of the send. Later writes by this send
+     * or by other sends are not visible in the View.
+     *
+     * <p>The default implementation throws an UnsupportedOperationException. Worlds that are backed by versioned or
+     * persistent storage should override it, and take a snapshot in constant time.</p>
+     *
+     * @return the View
+     * @throws UnsupportedOperationException when the World doesn't support snapshots
+     */
+    default View snapshot() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support snapshots");
+    }
+    
     /**
      * Sends a Message to Object O, given an Object identifier
      *
@@ -0,0 +1,26 @@
+package org.jmanikin.core;
+
+/**
+ * <p>A LongId is an Id that is identified by its class and a primitive long key, so that a World can store its
+ * Object without boxing the key, and without a node object per entry.</p>
+ * <p>Two LongIds of the same class with the same key identify the same Object. Because other Worlds still compare
+ * Ids with equals, a LongId should implement equals and hashCode consistently with its key.</p>
+ *
+ * @param <O> the Object type
+ */
+public interface LongId<O> extends Id<O> {
+    /**
+     * Returns the key of this Id
+     *
+     * @return the key
+     */
+    long key();
+    
+    /**
+     * Returns the LongId of the same class with another key, so that a World can recreate its Ids from their keys
+     *
+     * @param key the key
+     * @return the LongId
+     */
+    LongId<O> withKey(long key);
+}
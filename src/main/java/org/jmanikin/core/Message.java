@@ -28,4 +28,12 @@ public interface Message<I extends Id<O>, O, E> {
      * @return the Msg
      */
     Msg<I, O, E> msg(Environment<I, O, E> env);
+    
+    /**
+     * Is called by the World when a send of this Message with the given Environment has finished (successfully or
+     * not), so that the Message can release anything it has bound to the Environment
+     *
+     * @param env the Environment of the send
+     */
+    default void release(Environment<I, O, E> env) { }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package org.jmanikin.core;
 
+import java.util.List;
+
 /**
  * <p>A Value correlates a value V with a World W that produced value V.</p>
  *
@@ -31,5 +33,7 @@ public interface Value<W extends World<W>, V> extends World<W> {
         @Override public <I extends Id<O>, O, E> Value<W, E> send(I id, Message<I, O, E> msg) {
             return world.send(id, msg);
         }
+        @Override public Value<W, List<Object>> send(Batch batch) { return world.send(batch); }
+        @Override public View snapshot() { return world.snapshot(); }
     }
 }
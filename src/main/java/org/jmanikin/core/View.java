@@ -0,0 +1,25 @@
+package org.jmanikin.core;
+
+/**
+ * <p>A View is a read-only scope of (old) Objects.</p>
+ * <p>A snapshot of a World or Environment is an immutable View, that can be shared between multiple Threads.</p>
+ */
+public interface View {
+    /**
+     * Returns the current Object O, given its id
+     *
+     * @param id  the Object identifier
+     * @param <O> the Object type
+     * @return the current Object O
+     */
+    <O> O obj(Id<? extends O> id);
+    
+    /**
+     * Returns the old Object O, given its id
+     *
+     * @param id  the Object identifier
+     * @param <O> the Object type
+     * @return the old Object O
+     */
+    <O> O old(Id<? extends O> id);
+}
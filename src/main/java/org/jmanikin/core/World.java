@@ -1,5 +1,9 @@
 package org.jmanikin.core;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
  * <p>A World is a 'memory' for (old) Objects and the entry point for sending Messages to Objects.</p>
  * <p>But specific Worlds can do much more than that. They could:</p>
@@ -46,6 +50,73 @@ public interface World<W extends World<W>> {
      */
     <I extends Id<O>, O, E> Value<W, E> send(I id, Message<I, O, E> msg);
     
+    /**
+     * Returns the effects of all Messages of a Batch, in order, after sending them as one atomic unit.
+     * Either all Messages commit, or the World is unchanged.
+     *
+     * <p>The default implementation sends a single Message to {@link Batch#ID}, that sends all Messages as nested
+     * sends. It is therefore only atomic when a failing Message rolls back all of its nested sends.
+     * Worlds should override it, to amortize their per-send overhead.</p>
+     *
+     * @param batch the Batch to send
+     * @return the effects of the Batch, wrapped in a Value
+     */
+    default Value<W, List<Object>> send(Batch batch) { return send(Batch.ID, batch.message()); }
+    
+    /**
+     * Sends a Message without waiting for its (durable) commit, so that many independent sends can be pipelined.
+     * The returned stage completes with the effect Value when the send has committed, or exceptionally when it fails.
+     *
+     * <p>The default implementation adapts synchronous Worlds: it sends the Message, and returns a completed stage.
+     * Worlds that are backed by I/O should override it, to complete the stage when the I/O has completed.</p>
+     *
+     * @param id  the Object identifier to send the Message to
+     * @param msg the message to send to the Object
+     * @param <I> the Id Type
+     * @param <O> the Object Type
+     * @param <E> the Effect Type
+     * @return the stage of the effect of the Message send, wrapped in a Value
+     */
+    default <I extends Id<O>, O, E> CompletionStage<Value<W, E>> sendAsync(I id, Message<I, O, E> msg) {
+        CompletableFuture<Value<W, E>> result = new CompletableFuture<>();
+        
+        try { result.complete(send(id, msg)); }
+        catch (RuntimeException e) { result.completeExceptionally(e); }
+        
+        return result;
+    }
+    
+    /**
+     * Sends all Messages of a Batch as one atomic unit, without waiting for its (durable) commit.
+     *
+     * <p>The default implementation adapts synchronous Worlds: it sends the Batch, and returns a completed stage.</p>
+     *
+     * @param batch the Batch to send
+     * @return the stage of the effects of the Batch, wrapped in a Value
+     */
+    default CompletionStage<Value<W, List<Object>>> sendAsync(Batch batch) {
+        CompletableFuture<Value<W, List<Object>>> result = new CompletableFuture<>();
+        
+        try { result.complete(send(batch)); }
+        catch (RuntimeException e) { result.completeExceptionally(e); }
+        
+        return result;
+    }
+    
+    /**
+     * Returns an immutable View of the current state of all (old) Objects. Sends that commit later are not visible in
+     * the View, so it can be read by many Threads while this World keeps sending.
+     *
+     * <p>The default implementation throws an UnsupportedOperationException. Worlds that are backed by versioned or
+     * persistent storage should override it, and take a snapshot in constant time.</p>
+     *
+     * @return the View
+     * @throws UnsupportedOperationException when the World doesn't support snapshots
+     */
+    default View snapshot() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support snapshots");
+    }
+    
     /**
      * Returns a pristine new World of type W
      *
@@ -0,0 +1,32 @@
+package org.jmanikin.core;
+
+/**
+ * <p>A WorldProvider creates the Worlds of a World implementation. Providers are discovered with
+ * {@link java.util.ServiceLoader}, so a World implementation is registered by listing its provider in
+ * {@code META-INF/services/org.jmanikin.core.WorldProvider}.</p>
+ * <p>See {@link org.jmanikin.world.Worlds} for the registry of all providers.</p>
+ *
+ * @param <W> The concrete World type
+ */
+public interface WorldProvider<W extends World<W>> {
+    /**
+     * Returns the (unique) name of the World implementation
+     *
+     * @return the name
+     */
+    String name();
+    
+    /**
+     * Returns the class of the World implementation
+     *
+     * @return the World class
+     */
+    Class<W> type();
+    
+    /**
+     * Returns a new, empty World
+     *
+     * @return the World
+     */
+    W create();
+}
@@ -0,0 +1,94 @@
+package org.jmanikin.example;
+
+import org.jmanikin.core.*;
+import org.jmanikin.world.SimpleWorld;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+import java.util.function.LongFunction;
+
+/**
+ * <p>Compares the memory per Object and the lookup throughput of a SimpleWorld, for boxed Ids that are kept in a
+ * HashMap and for {@link LongId}s that are kept in a primitive hash map.</p>
+ * <p>Measure each kind in a separate run, so that the heap is not shared:</p>
+ * <pre>
+ * java -Xmx4g NumericIds boxed 10000000
+ * java -Xmx4g NumericIds long 10000000
+ * </pre>
+ */
+public class NumericIds {
+    static class Account {
+        public final double balance;
+        
+        public Account(double balance) {
+            this.balance = balance;
+        }
+    }
+    
+    static class BoxedId implements Id<Account> {
+        public final Long id;
+        
+        public BoxedId(Long id) { this.id = id; }
+        public Account init() { return new Account(0.0); }
+        @Override public boolean equals(Object o) { return o instanceof BoxedId && id.equals(((BoxedId) o).id); }
+        @Override public int hashCode() { return id.hashCode(); }
+    }
+    
+    static class NumericId implements LongId<Account> {
+        public final long id;
+        
+        public NumericId(long id) { this.id = id; }
+        public Account init() { return new Account(0.0); }
+        public long key() { return id; }
+        public NumericId withKey(long key) { return new NumericId(key); }
+        @Override public boolean equals(Object o) { return o instanceof NumericId && id == ((NumericId) o).id; }
+        @Override public int hashCode() { return Long.hashCode(id); }
+    }
+    
+    static class Open<I extends Id<Account>> implements Message<I, Account, Void> {
+        public Msg<I, Account, Void> msg(Environment<I, Account, Void> e) {
+            return e.
+                pre(() -> true).
+                app(() -> new Account(100.0)).
+                eff(() -> null).
+                pst(() -> e.obj().balance == 100.0);
+        }
+    }
+    
+    public static void main(String[] args) {
+        String kind = args.length > 0 ? args[0] : "both";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        
+        if (!kind.equals("long")) run("boxed", n, BoxedId::new);
+        if (!kind.equals("boxed")) run("long", n, NumericId::new);
+    }
+    
+    static <I extends Id<Account>> void run(String kind, int n, LongFunction<I> id) {
+        long heap0 = heap();
+        SimpleWorld world = new SimpleWorld();
+        Open<I> open = new Open<>();
+        
+        for (int i = 0; i < n; i++) world.send(id.apply(i), open);
+        
+        long heap1 = heap();
+        System.out.println(kind + ": " + (heap1 - heap0) / n + " bytes per Object (obj and old state included)");
+        
+        SplittableRandom random = new SplittableRandom(42);
+        double sum = 0.0;
+        
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < 10000000; i++) sum += world.obj(id.apply(random.nextInt(n))).value().balance;
+            long t1 = System.nanoTime();
+            
+            System.out.println(kind + ": " + (long) (10000000 / ((t1 - t0) / 1e9)) + " lookups/s");
+        }
+        
+        if (sum != 100.0 * 5 * 10000000) throw new IllegalStateException("Wrong balance");
+    }
+    
+    static long heap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,92 @@
+package org.jmanikin.example;
+
+import org.jmanikin.core.*;
+import org.jmanikin.world.Retention;
+import org.jmanikin.world.SimpleWorld;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * <p>Compares the memory per Object of a SimpleWorld for every {@link Retention.Mode}. Every Object is opened and
+ * then deposited to, in Batches of 1000 sends, so that its old state is a separate Object.</p>
+ * <p>Measure each Mode in a separate run, so that the heap is not shared:</p>
+ * <pre>
+ * java -Xmx4g OldRetention ALWAYS 10000000
+ * java -Xmx4g OldRetention LAST 10000000 16
+ * </pre>
+ */
+public class OldRetention {
+    static class Account {
+        public final double balance;
+        
+        public Account(double balance) {
+            this.balance = balance;
+        }
+    }
+    
+    static class AccountId implements LongId<Account> {
+        public final long id;
+        
+        public AccountId(long id) { this.id = id; }
+        public Account init() { return new Account(0.0); }
+        public long key() { return id; }
+        public AccountId withKey(long key) { return new AccountId(key); }
+        @Override public boolean equals(Object o) { return o instanceof AccountId && id == ((AccountId) o).id; }
+        @Override public int hashCode() { return Long.hashCode(id); }
+    }
+    
+    static class Deposit implements Message<AccountId, Account, Void> {
+        public final double amount;
+        
+        public Deposit(double amount) { this.amount = amount; }
+        
+        public Msg<AccountId, Account, Void> msg(Environment<AccountId, Account, Void> e) {
+            return e.
+                pre(() -> amount > 0.0).
+                app(() -> new Account(e.obj().balance + amount)).
+                eff(() -> null).
+                pst(() -> e.obj().balance == e.old().balance + amount);
+        }
+    }
+    
+    public static void main(String[] args) {
+        Retention.Mode mode = args.length > 0 ? Retention.Mode.valueOf(args[0]) : null;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int sends = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        
+        for (Retention.Mode m : Retention.Mode.values()) {
+            if (mode == null || mode == m) run(new Retention(m, sends), n);
+        }
+    }
+    
+    static void run(Retention retention, int n) {
+        long heap0 = heap();
+        SimpleWorld world = new SimpleWorld().retention(retention);
+        Deposit open = new Deposit(100.0);
+        Deposit deposit = new Deposit(10.0);
+        
+        long t0 = System.nanoTime();
+        
+        for (Deposit d : new Deposit[]{open, deposit}) {
+            for (int i = 0; i < n; i += 1000) {
+                Batch batch = new Batch();
+                for (int j = i; j < Math.min(n, i + 1000); j++) batch.add(new AccountId(j), d);
+                world.send(batch);
+            }
+        }
+        
+        long t1 = System.nanoTime();
+        long heap1 = heap();
+        
+        if (world.obj(new AccountId(n - 1)).value().balance != 110.0) throw new IllegalStateException("Wrong balance");
+        
+        String name = retention.mode() + (retention.mode() == Retention.Mode.LAST ? "(" + retention.sends() + ")" : "");
+        System.out.println(name + ": " + (heap1 - heap0) / n + " bytes per Object, " +
+            (long) (2L * n / ((t1 - t0) / 1e9)) + " sends/s");
+    }
+    
+    static long heap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -1,8 +1,14 @@
 package org.jmanikin.example;
 
 import org.jmanikin.core.*;
+import org.jmanikin.message.LocalMessage;
+import org.jmanikin.message.Plan;
+import org.jmanikin.message.PlannedMessage;
+import org.jmanikin.world.PersistentWorld;
+import org.jmanikin.world.Recorder;
 import org.jmanikin.world.SimpleWorld;
 
+import java.lang.management.ManagementFactory;
 import java.util.function.Supplier;
 
 public class Performance {
@@ -30,29 +36,80 @@ public class Performance {
         }
     }
     
+    static class LocalIncrease implements LocalMessage<ID, Counter, Void> {
+        public Msg<ID, Counter, Void> local() {
+            return
+                pre(() -> true).
+                app(() -> new Counter(obj().count + 1)).
+                eff(() -> null).
+                pst(() -> obj().count == old().count + 1);
+        }
+    }
+    
+    static class PlannedIncrease implements PlannedMessage<PlannedIncrease, ID, Counter, Void> {
+        public Plan<PlannedIncrease, ID, Counter, Void> plan(Plan.Builder<PlannedIncrease, ID, Counter, Void> p) {
+            return p.
+                pre((m, e) -> true).
+                app((m, e) -> new Counter(e.obj().count + 1)).
+                eff((m, e) -> null).
+                pst((m, e) -> e.obj().count == e.old().count + 1);
+        }
+    }
+    
     public static void main(String[] args) {
-        time(() -> {
-            SimpleWorld world = new SimpleWorld();
-            ID id = new ID();
-            Increase msg = new Increase();
-            
-            int x = 100000000;
-            
-            for (int i = 0; i < x; i++) {
-                world = world.send(id, msg).world();
-                if ((i % (x / 10)) == 0) {
-                    System.out.println("i: " + i);
-                }
+        System.out.println("SimpleWorld");
+        time(() -> run(new SimpleWorld()));
+        
+        System.out.println("SimpleWorld (LocalMessage)");
+        time(() -> run(new SimpleWorld(), new LocalIncrease()));
+        
+        System.out.println("SimpleWorld (PlannedMessage)");
+        time(() -> run(new SimpleWorld(), new PlannedIncrease()));
+        
+        System.out.println("SimpleWorld (recording)");
+        Recorder recorder = new Recorder(1 << 16, r -> { });
+        time(() -> run(new SimpleWorld().recorder(recorder)));
+        recorder.close();
+        System.out.println("recorded: " + recorder.recorded() + ", dropped: " + recorder.dropped());
+        
+        System.out.println("PersistentWorld");
+        time(() -> run(new PersistentWorld()));
+    }
+    
+    static <W extends World<W>> Void run(W world) { return run(world, new Increase()); }
+    
+    static <W extends World<W>> Void run(W world, Message<ID, Counter, Void> msg) {
+        ID id = new ID();
+        
+        int x = 100000000;
+        
+        for (int i = 0; i < x; i++) {
+            world = world.send(id, msg).world();
+            if ((i % (x / 10)) == 0) {
+                System.out.println("i: " + i);
             }
-            
-            return null;
-        });
+        }
+        
+        return null;
     }
     
     static void time(Supplier<Void> block) {
+        long a0 = allocated();
         double t0 = (double) System.currentTimeMillis();
         block.get();
         double t1 = (double) System.currentTimeMillis();
+        long a1 = allocated();
         System.out.println("elapsed time: " + (t1 - t0) + " ms");
+        if (a0 >= 0) System.out.println("allocated: " + (a1 - a0) / 100000000 + " bytes per send");
+    }
+    
+    /**
+     * Returns the number of bytes allocated by the current Thread, or -1 when that cannot be measured
+     */
+    static long allocated() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return -1;
+        
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 }
@@ -0,0 +1,27 @@
+package org.jmanikin.example;
+
+import org.jmanikin.core.*;
+import org.jmanikin.test.TestModule;
+
+/**
+ * <p>Measures the class initialization of a World, and the time to its first send, in a fresh JVM:</p>
+ * <pre>
+ * java Startup org.jmanikin.world.SimpleWorld
+ * </pre>
+ */
+public class Startup {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void main(String[] args) throws Exception {
+        String name = args.length > 0 ? args[0] : "org.jmanikin.world.SimpleWorld";
+        
+        long t0 = System.nanoTime();
+        Class<?> type = Class.forName(name);   // initializes the class
+        long t1 = System.nanoTime();
+        World world = (World) type.getConstructor().newInstance();
+        world.send(new TestModule.CId(1), new TestModule.SetMember(1));
+        long t2 = System.nanoTime();
+        
+        System.out.println(type.getSimpleName() + ": class init " + (t1 - t0) / 1000 + " us, first send " +
+            (t2 - t0) / 1000 + " us");
+    }
+}
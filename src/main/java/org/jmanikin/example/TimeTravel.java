@@ -0,0 +1,74 @@
+package org.jmanikin.example;
+
+import org.jmanikin.core.*;
+import org.jmanikin.world.SimpleWorld;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * <p>Measures the memory per retained version of a SimpleWorld with a History, and the latency of reading an Object
+ * as of a random retained version. Every version deposits to a random account. Twice as many versions as the horizon
+ * are sent, so that half of them have been compacted. The memory is compared with a SimpleWorld without History.</p>
+ * <pre>
+ * java -Xmx4g TimeTravel 1000000 1000000
+ * </pre>
+ */
+public class TimeTravel {
+    static final int READS = 10000000;
+    
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        long horizon = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+        
+        long without = run(accounts, horizon, 0);
+        long with = run(accounts, horizon, horizon);
+        
+        System.out.println("History: " + (with - without) / horizon + " bytes per retained version");
+    }
+    
+    static long run(int accounts, long horizon, long history) {
+        SimpleWorld world = new SimpleWorld().history(history);
+        OldRetention.AccountId[] ids = new OldRetention.AccountId[accounts];
+        OldRetention.Deposit deposit = new OldRetention.Deposit(10.0);
+        
+        for (int i = 0; i < accounts; i++) ids[i] = new OldRetention.AccountId(i);
+        
+        for (int i = 0; i < accounts; i += 1000) {
+            Batch batch = new Batch();
+            for (int j = i; j < Math.min(accounts, i + 1000); j++) batch.add(ids[j], deposit);
+            world.send(batch);
+        }
+        
+        SplittableRandom random = new SplittableRandom(42);
+        
+        long t0 = System.nanoTime();
+        for (long i = 0; i < 2 * horizon; i++) world.send(ids[random.nextInt(accounts)], deposit);
+        long t1 = System.nanoTime();
+        
+        long heap = heap();   // in the steady state, with horizon retained versions
+        
+        long version = world.version();
+        long oldest = version - history;
+        double sum = 0;
+        
+        long t2 = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            long v = oldest + random.nextLong(history + 1);
+            sum += world.at(v).<OldRetention.Account>obj(ids[random.nextInt(accounts)]).balance;
+        }
+        long t3 = System.nanoTime();
+        
+        if (sum <= 0) throw new IllegalStateException("Wrong balance");
+        
+        System.out.println("history " + history + ": " + (long) (2 * horizon / ((t1 - t0) / 1e9)) + " sends/s, " +
+            (t3 - t2) / READS + " ns per read as of a random version");
+        
+        return heap;
+    }
+    
+    static long heap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
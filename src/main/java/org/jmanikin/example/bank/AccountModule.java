@@ -8,6 +8,9 @@ public interface AccountModule {
         public final String id;
         public ID(String id) { this.id = id; }
         @Override public Account init() { return new Account(0.0); }
+        
+        @Override public boolean equals(Object o) { return o instanceof ID && id.equals(((ID) o).id); }
+        @Override public int hashCode() { return id.hashCode(); }
     }
     
     class Account {
@@ -25,7 +28,7 @@ public interface AccountModule {
             pre(() -> initial >= 0.0).
             app(() -> new Account(initial)).
             eff(() -> null).
-            pst(() -> obj().balance == initial);
+            pst(() -> obj().balance.equals(initial));
         }
     }
     
@@ -0,0 +1,63 @@
+package org.jmanikin.example.bank;
+
+import org.jmanikin.codec.Codec;
+import org.jmanikin.codec.Codecs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact Codecs for the Ids, Objects and Messages of the bank example
+ */
+public class BankCodecs {
+    public static final Codec<AccountModule.ID> ACCOUNT_ID = Codec.of(
+        (id, out) -> out.writeUTF(id.id),
+        in -> new AccountModule.ID(in.readUTF())
+    );
+    
+    public static final Codec<TransferModule.ID> TRANSFER_ID = Codec.of(
+        (id, out) -> out.writeLong(id.id),
+        in -> new TransferModule.ID(in.readLong())
+    );
+    
+    public static final Codec<AccountModule.Account> ACCOUNT = Codec.of(
+        (a, out) -> out.writeDouble(a.balance),
+        in -> new AccountModule.Account(in.readDouble())
+    );
+    
+    public static final Codec<TransferModule.Transfer> TRANSFER = Codec.of(
+        (t, out) -> { writeAccount(t.from, out); writeAccount(t.to, out); out.writeDouble(t.amount); },
+        in -> new TransferModule.Transfer(readAccount(in), readAccount(in), in.readDouble())
+    );
+    
+    public static Codecs codecs() {
+        return new Codecs().
+            register(AccountModule.ID.class, ACCOUNT_ID).
+            register(AccountModule.Account.class, ACCOUNT).
+            register(AccountModule.Open.class, Codec.of(
+                (m, out) -> out.writeDouble(m.initial),
+                in -> new AccountModule.Open(in.readDouble()))).
+            register(AccountModule.Deposit.class, Codec.of(
+                (m, out) -> out.writeDouble(m.amount),
+                in -> new AccountModule.Deposit(in.readDouble()))).
+            register(AccountModule.Withdraw.class, Codec.of(
+                (m, out) -> out.writeDouble(m.amount),
+                in -> new AccountModule.Withdraw(in.readDouble()))).
+            register(TransferModule.ID.class, TRANSFER_ID).
+            register(TransferModule.Transfer.class, TRANSFER).
+            register(TransferModule.Book.class, Codec.of(
+                (m, out) -> { writeAccount(m.from, out); writeAccount(m.to, out); out.writeDouble(m.amount); },
+                in -> new TransferModule.Book(readAccount(in), readAccount(in), in.readDouble())));
+    }
+    
+    // a pristine Transfer has no accounts
+    private static void writeAccount(AccountModule.ID id, DataOutput out) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) ACCOUNT_ID.write(id, out);
+    }
+    
+    private static AccountModule.ID readAccount(DataInput in) throws IOException {
+        return in.readBoolean() ? ACCOUNT_ID.read(in) : null;
+    }
+}
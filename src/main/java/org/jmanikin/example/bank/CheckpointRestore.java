@@ -0,0 +1,68 @@
+package org.jmanikin.example.bank;
+
+import org.jmanikin.world.SimpleWorld;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>Checkpoints a SimpleWorld with many Accounts, and measures the time to the first send after a restore.</p>
+ * <p>To measure the resident memory of a fresh process, checkpoint and restore in separate runs:</p>
+ * <pre>
+ * CheckpointRestore checkpoint 10000000 accounts.snapshot
+ * CheckpointRestore restore accounts.snapshot
+ * </pre>
+ */
+public class CheckpointRestore {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("checkpoint")) checkpoint(Integer.parseInt(args[1]), Paths.get(args[2]));
+        else if (args.length == 2 && args[0].equals("restore")) restore(Paths.get(args[1]));
+        else {
+            Path path = Files.createTempFile("accounts", ".snapshot");
+            checkpoint(args.length > 0 ? Integer.parseInt(args[0]) : 1000000, path);
+            restore(path);
+            Files.delete(path);
+        }
+    }
+    
+    static void checkpoint(int accounts, Path path) throws IOException {
+        SimpleWorld world = new SimpleWorld();
+        for (int i = 0; i < accounts; i++) world.send(new AccountModule.ID("A" + i), new AccountModule.Open(100.0));
+        
+        long t0 = System.nanoTime();
+        world.checkpoint(path, BankCodecs.codecs());
+        long t1 = System.nanoTime();
+        
+        System.out.println("checkpoint of " + accounts + " accounts: " + (t1 - t0) / 1000000 + " ms, " +
+            Files.size(path) / (1 << 20) + " MB");
+    }
+    
+    static void restore(Path path) throws IOException {
+        long t0 = System.nanoTime();
+        SimpleWorld world = SimpleWorld.restore(path, BankCodecs.codecs());
+        world.send(new TransferModule.ID(1L),
+            new TransferModule.Book(new AccountModule.ID("A0"), new AccountModule.ID("A1"), 10.0));
+        long t1 = System.nanoTime();
+        
+        System.out.println("time to first send: " + (t1 - t0) / 1000 + " us");
+        System.out.println("A1: " + world.obj(new AccountModule.ID("A1")).value().balance);   // 110.0
+        
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.println("heap after restore: " + heap / (1 << 20) + " MB, resident: " + resident());
+    }
+    
+    // the resident set size of this process, on Linux
+    static String resident() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) return line.substring("VmRSS:".length()).trim();
+            }
+        }
+        catch (IOException ignored) { }
+        return "unknown";
+    }
+}
@@ -0,0 +1,32 @@
+package org.jmanikin.example.bank;
+
+import org.jmanikin.world.JournalWorld;
+import org.jmanikin.world.SimpleWorld;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class JournalTransfer {
+    public static void main(String[] args) throws IOException {
+        Path journal = Files.createTempFile("bank", ".log");
+        AccountModule.ID a1 = new AccountModule.ID("A1");
+        AccountModule.ID a2 = new AccountModule.ID("A2");
+        TransferModule.ID t1 = new TransferModule.ID(1L);
+        
+        try (JournalWorld<SimpleWorld> world = new JournalWorld<>(journal, new SimpleWorld(), BankCodecs.codecs())) {
+            world.
+                send(a1, new AccountModule.Open(50.0)).
+                send(a2, new AccountModule.Open(80.0)).
+                send(t1, new TransferModule.Book(a1, a2, 30.0));
+        }
+        
+        // restart: the journal is replayed into a new World
+        try (JournalWorld<SimpleWorld> world = new JournalWorld<>(journal, new SimpleWorld(), BankCodecs.codecs())) {
+            System.out.println(world.obj(a1).value().balance); // 20.0
+            System.out.println(world.obj(a2).value().balance); // 110.0
+        }
+        
+        Files.delete(journal);
+    }
+}
@@ -0,0 +1,100 @@
+package org.jmanikin.example.bank;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.jmanikin.core.World;
+import org.jmanikin.world.OffHeapWorld;
+import org.jmanikin.world.SimpleWorld;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Compares the heap size and GC pauses of a SimpleWorld and an OffHeapWorld that hold many Accounts, under a
+ * steady load of random transfers.</p>
+ * <p>Measure each World in a separate run, so that the heap is not shared:</p>
+ * <pre>
+ * java -Xmx5g OffHeapAccounts simple 20000000 5000000
+ * java -Xmx5g OffHeapAccounts offheap 20000000 5000000
+ * </pre>
+ */
+public class OffHeapAccounts {
+    public static void main(String[] args) {
+        String kind = args.length > 0 ? args[0] : "offheap";
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int transfers = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        
+        if (kind.equals("simple")) run(new SimpleWorld(), accounts, transfers);
+        else {
+            OffHeapWorld world = new OffHeapWorld(BankCodecs.codecs()).
+                register(AccountModule.ID.class, BankCodecs.ACCOUNT).
+                register(TransferModule.ID.class, BankCodecs.TRANSFER);
+            
+            run(world, accounts, transfers);
+            System.out.println("off-heap: " + world.bytes() / (1 << 20) + " MB");
+        }
+    }
+    
+    static <W extends World<W>> void run(W world, int accounts, int transfers) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < accounts; i++) world = world.send(new AccountModule.ID("A" + i), new AccountModule.Open(1000.0)).world();
+        long t1 = System.nanoTime();
+        
+        System.out.println("opened " + accounts + " accounts: " + (t1 - t0) / 1000000 + " ms");
+        System.out.println("heap after GC: " + heap() / (1 << 20) + " MB");
+        
+        AtomicLong maxPause = new AtomicLong();
+        listen(maxPause);
+        long gcCount0 = gcCount(), gcTime0 = gcTime();
+        
+        SplittableRandom random = new SplittableRandom(42);
+        long t2 = System.nanoTime();
+        
+        for (int i = 0; i < transfers; i++) {
+            AccountModule.ID from = new AccountModule.ID("A" + random.nextInt(accounts));
+            AccountModule.ID to = new AccountModule.ID("A" + random.nextInt(accounts));
+            
+            if (!from.equals(to)) {
+                world = world.send(new TransferModule.ID((long) (i & 1023)), new TransferModule.Book(from, to, 1.0)).world();
+            }
+        }
+        long t3 = System.nanoTime();
+        
+        System.out.println(transfers + " transfers: " + (long) (transfers / ((t3 - t2) / 1e9)) + " transfers/s");
+        System.out.println("GCs: " + (gcCount() - gcCount0) + ", GC time: " + (gcTime() - gcTime0) + " ms, max pause: " +
+            maxPause.get() + " ms");
+        System.out.println("heap after GC: " + heap() / (1 << 20) + " MB");
+    }
+    
+    // records the longest GC pause, as reported by the GC notifications of HotSpot
+    static void listen(AtomicLong maxPause) {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    
+                    if (!info.getGcAction().contains("concurrent") && !info.getGcName().contains("Cycles")) {
+                        maxPause.accumulateAndGet(info.getGcInfo().getDuration(), Math::max);
+                    }
+                }
+            }, null, null);
+        }
+    }
+    
+    static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+    
+    static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+    
+    static long heap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
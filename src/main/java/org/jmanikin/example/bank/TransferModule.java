@@ -4,7 +4,7 @@ import org.jmanikin.core.*;
 import org.jmanikin.message.LocalMessage;
 
 public interface TransferModule {
-    class ID implements Id<Transfer> {
+    class ID implements LongId<Transfer> {
         public final Long id;
         public ID(Long id) {
             this.id = id;
@@ -12,6 +12,18 @@ public interface TransferModule {
         @Override public Transfer init() {
             return new Transfer(null, null, 0.0);
         }
+        @Override public long key() {
+            return id;
+        }
+        @Override public ID withKey(long key) {
+            return new ID(key);
+        }
+        @Override public boolean equals(Object o) {
+            return o instanceof ID && id.equals(((ID) o).id);
+        }
+        @Override public int hashCode() {
+            return id.hashCode();
+        }
     }
     
     class Transfer {
@@ -0,0 +1,78 @@
+package org.jmanikin.message;
+
+import org.jmanikin.core.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * <p>A BoundMessage binds itself to the Environment it is sent with: just like a LocalMessage, a BoundMessage IS A
+ * Environment, but without the need for a ThreadLocal variable.</p>
+ * <p>Because the Environment is bound to the BoundMessage itself, the stages are built directly on the Environment:
+ * the suppliers are not wrapped, and nested sends don't need to restore anything.</p>
+ * <p>A BoundMessage is bound to one send at a time, and released when that send has finished, so it can be sent again
+ * without any allocation. When a BoundMessage is (re)sent while it is still bound (such as a nested send of the same
+ * instance, or a concurrent send), a (shallow) clone of the BoundMessage is bound instead. So BoundMessages should be
+ * immutable, just like all other Messages.</p>
+ *
+ * <p>Example implementation usage:</p>
+ *
+ * <pre>{@code
+ * protected Msg<I, O, E> local() { return
+ *      pre(() -> ...).
+ *      app(() -> ...).
+ *      eff(() -> ...).
+ *      pst(() -> ...);
+ * }
+ * }</pre>
+ *
+ * @param <I> the Id Type
+ * @param <O> the Object Type
+ * @param <E> the Effect Type
+ */
+public abstract class BoundMessage<I extends Id<O>, O, E>
+    implements Message<I, O, E>, Environment<I, O, E>, Cloneable {
+    
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<BoundMessage> BOUND =
+        AtomicIntegerFieldUpdater.newUpdater(BoundMessage.class, "bound");
+    
+    private volatile int bound = 0;
+    private Environment<I, O, E> env;
+    
+    /**
+     * Returns the Msg that has been build.
+     *
+     * @return the Msg that has been build
+     */
+    protected abstract Msg<I, O, E> local();
+    
+    @Override public final Msg<I, O, E> msg(Environment<I, O, E> e) {
+        BoundMessage<I, O, E> m = BOUND.compareAndSet(this, 0, 1) ? this : copy();
+        m.env = e;
+        return m.local();
+    }
+    
+    @Override public final void release(Environment<I, O, E> e) {
+        if (env == e) {   // otherwise a clone has been bound to the send
+            env = null;
+            bound = 0;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private BoundMessage<I, O, E> copy() {
+        try { return (BoundMessage<I, O, E>) clone(); }
+        catch (CloneNotSupportedException e) { throw new IllegalStateException(e); }
+    }
+    
+    @Override public final I self() { return env.self(); }
+    @Override public final O obj() { return env.obj(); }
+    @Override public final O old() { return env.old(); }
+    @Override public final <O2> O2 obj(Id<? extends O2> id) { return env.obj(id); }
+    @Override public final <O2> O2 old(Id<? extends O2> id) { return env.old(id); }
+    @Override public final View snapshot() { return env.snapshot(); }
+    @Override public final Apply<I, O, E> pre(Supplier<Boolean> pre) { return env.pre(pre); }
+    @Override public final <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+        return env.send(id, msg);
+    }
+}
@@ -46,7 +46,7 @@ public interface LocalMessage<I extends Id<O>, O, E>
         return local();
     }
     
-    //@Override default Environment<I, O, E> snapshot() { return env().snapshot(); }
+    @Override default View snapshot() { return env().snapshot(); }
     @Override default I self() { return env().self(); }
     @Override default O obj() { return env().obj(); }
     @Override default O old() { return env().old(); }
@@ -77,7 +77,7 @@ public interface LocalMessage<I extends Id<O>, O, E>
             this.env = env;
         }
         
-        //@Override public Environment<I, O, E> snapshot() { return new LocalEnvironment<I, O, E>(env.snapshot()); }
+        @Override public View snapshot() { return env.snapshot(); }
         
         @Override public I self() { return env.self(); }
         @Override public O obj() { return env.obj(); }
@@ -0,0 +1,101 @@
+package org.jmanikin.message;
+
+import org.jmanikin.core.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>A Plan holds the pre, app, eff and pst stages of a {@link PlannedMessage} class. Each stage is a function of the
+ * Message and the Environment it is sent with, so a Plan is built only once per Message class, and is shared by all
+ * its sends.</p>
+ * <p>Worlds can run a Plan directly, without building a Msg per send. Other Worlds build a Msg from the Plan.</p>
+ *
+ * @param <M> the PlannedMessage Type
+ * @param <I> the Id Type
+ * @param <O> the Object Type
+ * @param <E> the Effect Type
+ */
+public final class Plan<M, I extends Id<O>, O, E> {
+    // a Plan can only be built by a Message of its class, so the ClassValue holds a slot that the first send fills
+    private static final ClassValue<AtomicReference<Plan<?, ?, ?, ?>>> plans =
+        new ClassValue<AtomicReference<Plan<?, ?, ?, ?>>>() {
+            @Override protected AtomicReference<Plan<?, ?, ?, ?>> computeValue(Class<?> type) {
+                return new AtomicReference<>();
+            }
+        };
+    
+    private final Stage<M, I, O, E, Boolean> pre;
+    private final Stage<M, I, O, E, O> app;
+    private final Stage<M, I, O, E, E> eff;
+    private final Stage<M, I, O, E, Boolean> pst;
+    
+    private Plan(Builder<M, I, O, E> b, Stage<M, I, O, E, Boolean> pst) {
+        this.pre = b.pre; this.app = b.app; this.eff = b.eff; this.pst = pst;
+    }
+    
+    /**
+     * A stage of a Plan
+     *
+     * @param <R> the result Type of the stage
+     */
+    @FunctionalInterface
+    public interface Stage<M, I extends Id<O>, O, E, R> {
+        R apply(M msg, Environment<I, O, E> env);
+    }
+    
+    /**
+     * Returns the (cached) Plan of a PlannedMessage class
+     *
+     * @param message a PlannedMessage of the class
+     * @return the Plan
+     */
+    @SuppressWarnings("unchecked")
+    public static <M extends PlannedMessage<M, I, O, E>, I extends Id<O>, O, E> Plan<M, I, O, E> of(M message) {
+        AtomicReference<Plan<?, ?, ?, ?>> slot = plans.get(message.getClass());
+        Plan<?, ?, ?, ?> plan = slot.get();
+        
+        if (plan == null) {   // racing builds are equivalent, but only the first one is kept
+            slot.compareAndSet(null, message.plan(new Builder<>()));
+            plan = slot.get();
+        }
+        return (Plan<M, I, O, E>) plan;
+    }
+    
+    public boolean pre(M msg, Environment<I, O, E> env) { return pre.apply(msg, env); }
+    public O app(M msg, Environment<I, O, E> env) { return app.apply(msg, env); }
+    public E eff(M msg, Environment<I, O, E> env) { return eff.apply(msg, env); }
+    public boolean pst(M msg, Environment<I, O, E> env) { return pst.apply(msg, env); }
+    
+    /**
+     * Builds a Msg that runs this Plan, for Worlds that don't run Plans directly
+     *
+     * @param msg the Message
+     * @param env the Environment
+     * @return the Msg
+     */
+    public Msg<I, O, E> msg(M msg, Environment<I, O, E> env) { return env.
+        pre(() -> pre.apply(msg, env)).
+        app(() -> app.apply(msg, env)).
+        eff(() -> eff.apply(msg, env)).
+        pst(() -> pst.apply(msg, env));
+    }
+    
+    /**
+     * Builds a Plan, in the same order as a Msg
+     */
+    public static final class Builder<M, I extends Id<O>, O, E> {
+        private Stage<M, I, O, E, Boolean> pre;
+        private Stage<M, I, O, E, O> app;
+        private Stage<M, I, O, E, E> eff;
+        
+        Builder() { }
+        
+        public Builder<M, I, O, E> pre(Stage<M, I, O, E, Boolean> pre) { this.pre = pre; return this; }
+        public Builder<M, I, O, E> app(Stage<M, I, O, E, O> app) { this.app = app; return this; }
+        public Builder<M, I, O, E> eff(Stage<M, I, O, E, E> eff) { this.eff = eff; return this; }
+        public Plan<M, I, O, E> pst(Stage<M, I, O, E, Boolean> pst) {
+            if (pre == null || app == null || eff == null) throw new IllegalStateException("Incomplete Plan");
+            return new Plan<>(this, pst);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.jmanikin.message;
+
+import org.jmanikin.core.*;
+
+/**
+ * <p>A PlannedMessage defines its stages once per class, as a {@link Plan} of functions that take the Message and
+ * the Environment as parameters. The Plan is built on the first send of the class, and then cached.</p>
+ * <p>So, unlike a plain Message or a LocalMessage, a send doesn't capture fresh suppliers: Worlds that run Plans
+ * directly (such as {@link org.jmanikin.world.SimpleWorld}) don't allocate anything for the stages of a send.</p>
+ *
+ * <p>Example implementation usage:</p>
+ *
+ * <pre>{@code
+ * public Plan<M, I, O, E> plan(Plan.Builder<M, I, O, E> p) { return p.
+ *      pre((m, e) -> ...).
+ *      app((m, e) -> ...).
+ *      eff((m, e) -> ...).
+ *      pst((m, e) -> ...);
+ * }
+ * }</pre>
+ *
+ * <p>The stages should only refer to their parameters (and constants): a stage that captures anything else, is
+ * shared by all Messages of the class anyway.</p>
+ *
+ * @param <M> the PlannedMessage Type itself
+ * @param <I> the Id Type
+ * @param <O> the Object Type
+ * @param <E> the Effect Type
+ */
+public interface PlannedMessage<M extends PlannedMessage<M, I, O, E>, I extends Id<O>, O, E> extends Message<I, O, E> {
+    /**
+     * Returns the Plan of this Message class, that has been built
+     *
+     * @param plan the Plan Builder
+     * @return the Plan
+     */
+    Plan<M, I, O, E> plan(Plan.Builder<M, I, O, E> plan);
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    default Msg<I, O, E> msg(Environment<I, O, E> env) { return Plan.of((M) this).msg((M) this, env); }
+}
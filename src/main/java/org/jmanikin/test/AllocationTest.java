@@ -0,0 +1,152 @@
+package org.jmanikin.test;
+
+import org.jmanikin.core.*;
+import org.jmanikin.message.Plan;
+import org.jmanikin.world.SimpleWorld;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * <p>Checks that a World doesn't allocate in the steady state, when its Messages don't allocate either.</p>
+ * <p>Requires a JVM that supports {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.</p>
+ */
+public class AllocationTest implements TestModule, ConformanceResult {
+    static final int WARMUP = 200000;
+    static final int SENDS = 100000;
+    
+    public static <W extends World<W>> boolean check(W world) {
+        List<WorldConformanceError<W>> errors = new AllocationTest().checkAllocation(world);
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) { check(new SimpleWorld(true)); }
+    
+    /**
+     * A Message that doesn't allocate: its suppliers are build once, and it flips between two preallocated Objects.
+     */
+    static class Flip implements CMsg<Void> {
+        private final CObject zero = new CObject(0);
+        private final CObject one = new CObject(1);
+        private Environment<CId, CObject, Void> e;
+        
+        private final Supplier<Boolean> pre = () -> e.obj().member == 0 || e.obj().member == 1;
+        private final Supplier<CObject> app = () -> e.obj() == zero ? one : zero;
+        private final Supplier<Void> eff = () -> null;
+        private final Supplier<Boolean> pst = () -> e.obj() != e.old();
+        
+        @Override public Msg<CId, CObject, Void> msg(Environment<CId, CObject, Void> e) {
+            this.e = e;
+            return e.pre(pre).app(app).eff(eff).pst(pst);
+        }
+    }
+    
+    /**
+     * A Message that doesn't allocate, and that sends a Flip to another Object.
+     */
+    static class SendFlip implements CMsg<Void> {
+        private final CId other;
+        private final Flip flip = new Flip();
+        private final Flip nested = new Flip();
+        private Environment<CId, CObject, Void> e;
+        
+        private final Supplier<Boolean> pre;
+        private final Supplier<CObject> app;
+        private final Supplier<Void> eff;
+        private final Supplier<Boolean> pst;
+        
+        SendFlip(CId other) {
+            this.other = other;
+            this.pre = () -> flip.pre.get();
+            this.app = () -> flip.app.get();
+            this.eff = () -> e.send(other, nested);
+            this.pst = () -> flip.pst.get() && e.obj(other) != e.old(other);
+        }
+        
+        @Override public Msg<CId, CObject, Void> msg(Environment<CId, CObject, Void> e) {
+            this.e = e;
+            flip.e = e;
+            return e.pre(pre).app(app).eff(eff).pst(pst);
+        }
+    }
+    
+    /**
+     * A stateless Message that doesn't allocate, without any effort: its Plan is build once per class.
+     */
+    static class PlannedFlip implements PMsg<PlannedFlip, Void> {
+        static final CObject zero = new CObject(0);
+        static final CObject one = new CObject(1);
+        
+        @Override
+        public Plan<PlannedFlip, CId, CObject, Void> plan(Plan.Builder<PlannedFlip, CId, CObject, Void> p) { return p.
+            pre((m, e) -> e.obj().member == 0 || e.obj().member == 1).
+            app((m, e) -> e.obj() == zero ? one : zero).
+            eff((m, e) -> null).
+            pst((m, e) -> e.obj() != e.old());
+        }
+    }
+    
+    /**
+     * A BoundMessage that doesn't allocate: it is released after each send, so it is rebound instead of cloned.
+     */
+    static class BoundFlip extends BMsg<Void> {
+        static final CObject zero = new CObject(0);
+        static final CObject one = new CObject(1);
+        
+        private final Supplier<Boolean> pre = () -> obj().member == 0 || obj().member == 1;
+        private final Supplier<CObject> app = () -> obj() == zero ? one : zero;
+        private final Supplier<Void> eff = () -> null;
+        private final Supplier<Boolean> pst = () -> obj() != old();
+        
+        @Override protected Msg<CId, CObject, Void> local() { return pre(pre).app(app).eff(eff).pst(pst); }
+    }
+    
+    <W extends World<W>> List<WorldConformanceError<W>> checkAllocation(W world) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("WARNING: allocation cannot be measured on this JVM");
+            return Collections.emptyList();
+        }
+        
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        
+        CId a = new CId(1);
+        CId b = new CId(2);
+        Flip flip = new Flip();
+        SendFlip sendFlip = new SendFlip(b);
+        PlannedFlip plannedFlip = new PlannedFlip();
+        BoundFlip boundFlip = new BoundFlip();
+        CId c = new CId(3);
+        CId d = new CId(4);
+        
+        List<WorldConformanceError<W>> result = new ArrayList<>();
+        
+        try {
+            for (int i = 0; i < WARMUP; i++) world = send(world, a, flip, sendFlip, c, plannedFlip, d, boundFlip);
+            
+            long before = bean.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < SENDS; i++) world = send(world, a, flip, sendFlip, c, plannedFlip, d, boundFlip);
+            long allocated = bean.getThreadAllocatedBytes(thread) - before;
+            
+            // allow for incidental allocation (e.g. by the JIT or the probe), but not for a single allocation per send
+            if (allocated >= SENDS) error("allocated " + allocated + " bytes in " + (5 * SENDS) + " sends");
+        }
+        catch (Exception e) {
+            result.add(new WorldConformanceError<>(e, new AllocationProblem(), world));
+        }
+        return result;
+    }
+    
+    static <W extends World<W>> W send(W world, CId a, Flip flip, SendFlip sendFlip, CId c, PlannedFlip plannedFlip,
+                                       CId d, BoundFlip boundFlip) {
+        return world.send(a, flip).send(a, sendFlip).send(c, plannedFlip).send(d, boundFlip).world();
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
@@ -0,0 +1,164 @@
+package org.jmanikin.test;
+
+import org.jmanikin.core.*;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.BlockExecutor;
+import org.jmanikin.world.Retention;
+import org.jmanikin.world.SimpleWorld;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>Checks that a BlockExecutor sends Batches with the same result as a sequential SimpleWorld: the same effects,
+ * (old) Objects, versions and failures, for any rate of conflicts between the Messages of a Batch.</p>
+ */
+public class BlockTest implements TestModule, ConformanceResult {
+    static final int BLOCKS = 50;
+    static final int MESSAGES = 200;
+    
+    public static boolean check(BlockExecutor executor, SimpleWorld world) {
+        List<WorldConformanceError<SimpleWorld>> errors = new ArrayList<>();
+        
+        for (int accounts : new int[]{2, 16, 1000}) {
+            errors.addAll(new BlockTest().checkBook(executor, world.init(), world.init(), accounts));
+        }
+        for (int objects : new int[]{2, 16, 1000}) {
+            errors.addAll(new BlockTest().checkReplay(executor, world.init(), world.init(), objects));
+        }
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        
+        check(new BlockExecutor(pool), new SimpleWorld());
+        check(new BlockExecutor(pool), new SimpleWorld().history(8).retention(new Retention(Retention.Mode.LAST, 3)));
+        check(new BlockExecutor(new ForkJoinPool(1)), new SimpleWorld());
+        
+        pool.shutdown();
+    }
+    
+    /**
+     * Books random Transfers between a number of accounts, so fewer accounts conflict more
+     */
+    List<WorldConformanceError<SimpleWorld>> checkBook(BlockExecutor executor, SimpleWorld parallel,
+                                                        SimpleWorld sequential, int accounts) {
+        try {
+            SplittableRandom random = new SplittableRandom(accounts);
+            AccountModule.ID[] ids = new AccountModule.ID[accounts];
+            
+            for (int i = 0; i < accounts; i++) {
+                ids[i] = new AccountModule.ID("A" + i);
+                parallel.send(ids[i], new AccountModule.Open(1000000.0));
+                sequential.send(ids[i], new AccountModule.Open(1000000.0));
+            }
+            
+            for (int b = 0; b < BLOCKS; b++) {
+                Batch batch = new Batch();
+                
+                for (int m = 0; m < MESSAGES; m++) {
+                    int from = random.nextInt(accounts);
+                    int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                    long transfer = random.nextInt(accounts * 4);   // some Transfers are booked more than once
+                    
+                    batch.add(new TransferModule.ID(transfer),
+                        new TransferModule.Book(ids[from], ids[to], (double) (1 + random.nextInt(100))));
+                }
+                
+                compare(executor.send(parallel, batch).value(), sequential.send(batch).value());
+                
+                for (AccountModule.ID id : ids) {
+                    AccountModule.Account p = parallel.obj(id).value(), s = sequential.obj(id).value();
+                    AccountModule.Account op = parallel.old(id).value(), os = sequential.old(id).value();
+                    
+                    if (!p.balance.equals(s.balance)) error("balance of " + id.id + " should be " + s.balance);
+                    if (!op.balance.equals(os.balance)) error("old balance of " + id.id + " should be " + os.balance);
+                }
+                
+                if (parallel.version() != sequential.version()) error("version should be " + sequential.version());
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new BlockProblem(), parallel));
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Sends random blocks of Messages with nested sends, (caught) nested failures and failing Messages
+     */
+    List<WorldConformanceError<SimpleWorld>> checkReplay(BlockExecutor executor, SimpleWorld parallel,
+                                                          SimpleWorld sequential, int objects) {
+        try {
+            SplittableRandom random = new SplittableRandom(objects);
+            CId[] ids = new CId[objects];
+            for (int i = 0; i < objects; i++) ids[i] = new CId(i);
+            
+            for (int b = 0; b < BLOCKS; b++) {
+                Batch batch = new Batch();
+                boolean fail = random.nextInt(5) == 0;
+                
+                for (int m = 0; m < MESSAGES; m++) {
+                    CId a = ids[random.nextInt(objects)];
+                    CId c = ids[(a.id + 1 + random.nextInt(objects - 1)) % objects];
+                    CId d = ids[(c.id + 1) % objects == a.id ? (c.id + 2) % objects : (c.id + 1) % objects];
+                    int member = b * MESSAGES + m;
+                    
+                    switch (random.nextInt(6)) {
+                        case 0: batch.add(a, new SetMember(member)); break;
+                        case 1: batch.add(a, new IncMember()); break;
+                        case 2: batch.add(a, new SendSwap(member, c)); break;
+                        case 3: batch.add(a, new PlannedSendSetMember(member, a)); break;   // to self
+                        case 4: batch.add(a, objects > 2 ? new CatchSwap(member, c, d) : new Swap(member)); break;
+                        default: batch.add(a, new LocalSetMember(member));
+                    }
+                }
+                if (fail) batch.add(ids[0], new SendThenFail(-1, ids[1]));
+                
+                List<Object> p = null, s = null;
+                RuntimeException pf = null, sf = null;
+                
+                try { p = executor.send(parallel, batch).value(); } catch (RuntimeException e) { pf = e; }
+                try { s = sequential.send(batch).value(); } catch (RuntimeException e) { sf = e; }
+                
+                if (sf != null) {
+                    if (pf == null || pf.getClass() != sf.getClass() || !pf.getMessage().equals(sf.getMessage())) {
+                        error("block should fail with " + sf);
+                    }
+                }
+                else if (pf != null) throw pf;
+                else compare(p, s);
+                
+                for (CId id : ids) {
+                    if (parallel.obj(id).value().member != sequential.obj(id).value().member) {
+                        error("obj(" + id.id + ") should be " + sequential.obj(id).value().member);
+                    }
+                    if (parallel.old(id).value().member != sequential.old(id).value().member) {
+                        error("old(" + id.id + ") should be " + sequential.old(id).value().member);
+                    }
+                }
+                
+                if (parallel.version() != sequential.version()) error("version should be " + sequential.version());
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new BlockProblem(), parallel));
+        }
+        return Collections.emptyList();
+    }
+    
+    void compare(List<Object> parallel, List<Object> sequential) {
+        if (!Arrays.deepEquals(parallel.toArray(), sequential.toArray())) error("effects should be " + sequential);
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
@@ -0,0 +1,96 @@
+package org.jmanikin.test;
+
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.world.SimpleWorld;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Checks that a SimpleWorld can be checkpointed to (and restored from) the Snapshot file it has been restored from,
+ * and that a failed checkpoint leaves the previous Snapshot intact.</p>
+ */
+public class CheckpointTest implements TestModule, ConformanceResult {
+    static final int OBJECTS = 100;
+    
+    public static boolean check(boolean reuse) throws IOException {
+        List<WorldConformanceError<SimpleWorld>> errors = new ArrayList<>();
+        
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path path = dir.resolve("world.snapshot");
+        
+        try {
+            errors.addAll(new CheckpointTest().checkSamePath(path, reuse));
+            errors.addAll(new CheckpointTest().checkFailure(path, reuse));
+        }
+        finally {
+            Files.deleteIfExists(path);
+            Files.delete(dir);   // also checks that no temporary files are left behind
+        }
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) throws IOException {
+        check(false);
+        check(true);
+    }
+    
+    // restore, send, checkpoint to the same path, and restore again
+    List<WorldConformanceError<SimpleWorld>> checkSamePath(Path path, boolean reuse) {
+        SimpleWorld world = new SimpleWorld(reuse);
+        
+        try {
+            for (int i = 0; i < OBJECTS; i++) world.send(new CId(i), new SetMember(i));
+            world.checkpoint(path, TestCodecs.codecs());
+            
+            world = SimpleWorld.restore(path, TestCodecs.codecs(), reuse);
+            world.send(new CId(0), new SetMember(-1));
+            world.send(new CId(OBJECTS), new SetMember(OBJECTS));
+            world.checkpoint(path, TestCodecs.codecs());
+            
+            // the restored World still reads its own (replaced) Snapshot
+            if (world.obj(new CId(1)).value().member != 1) error("obj(1) should still be 1");
+            
+            SimpleWorld restored = SimpleWorld.restore(path, TestCodecs.codecs(), reuse);
+            
+            if (restored.obj(new CId(0)).value().member != -1) error("obj(0) should be -1");
+            for (int i = 1; i <= OBJECTS; i++) {
+                if (restored.obj(new CId(i)).value().member != i) error("obj(" + i + ") should be " + i);
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new CheckpointProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    // a checkpoint that cannot encode its Objects fails, and leaves the previous Snapshot intact
+    List<WorldConformanceError<SimpleWorld>> checkFailure(Path path, boolean reuse) {
+        SimpleWorld world = new SimpleWorld(reuse);
+        
+        try {
+            world.send(new CId(1), new SetMember(1));
+            world.checkpoint(path, TestCodecs.codecs());
+            world.send(new CId(1), new SetMember(2));
+            
+            try { world.checkpoint(path, new Codecs()); error("checkpoint without Codecs should fail"); }
+            catch (IOException e) { }
+            
+            SimpleWorld restored = SimpleWorld.restore(path, TestCodecs.codecs(), reuse);
+            if (restored.obj(new CId(1)).value().member != 1) error("obj(1) should be 1");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new CheckpointProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
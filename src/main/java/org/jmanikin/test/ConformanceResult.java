@@ -11,7 +11,7 @@ public interface ConformanceResult {
         public WorldConformanceError(Exception exception, ConformanceErrorType errorType, W world) {
             this.exception = exception; this.errorType = errorType ; this.world = world;
         }
-    
+        
         @Override public String toString() {
           return "WorldConformanceError(" + errorType + ", " + exception + ", " + world + ")";
         }
@@ -41,4 +41,36 @@ public interface ConformanceResult {
     final class DeterminismProblem extends ConformanceErrorType {
         @Override public String reason() { return "Determinism issue"; }
     }
+    
+    final class AllocationProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Allocation issue"; }
+    }
+    
+    final class BatchProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Batch issue"; }
+    }
+    
+    final class LinearizabilityProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Linearizability issue"; }
+    }
+    
+    final class SnapshotProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Snapshot issue"; }
+    }
+    
+    final class HistoryProblem extends ConformanceErrorType {
+        @Override public String reason() { return "History issue"; }
+    }
+    
+    final class BlockProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Block issue"; }
+    }
+    
+    final class PartitionProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Partition issue"; }
+    }
+    
+    final class CheckpointProblem extends ConformanceErrorType {
+        @Override public String reason() { return "Checkpoint issue"; }
+    }
 }
@@ -0,0 +1,158 @@
+package org.jmanikin.test;
+
+import org.jmanikin.core.*;
+import org.jmanikin.world.Retention;
+import org.jmanikin.world.SimpleWorld;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * <p>Checks that a SimpleWorld with a History reads all retained versions as if they were replayed, and that it
+ * rejects versions beyond its horizon.</p>
+ */
+public class HistoryTest implements TestModule, ConformanceResult {
+    static final int VERSIONS = 2000;
+    static final int OBJECTS = 16;
+    
+    public static boolean check(SimpleWorld world) {
+        List<WorldConformanceError<SimpleWorld>> errors = new ArrayList<>();
+        
+        if (world.history() >= 4) errors.addAll(new HistoryTest().checkVersions(world.init()));
+        errors.addAll(new HistoryTest().checkHorizon(world.init()));
+        errors.addAll(new HistoryTest().checkReplay(world.init()));
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) {
+        check(new SimpleWorld().history(4));
+        check(new SimpleWorld(true).history(64));
+        check(new SimpleWorld().history(1).retention(new Retention(Retention.Mode.SEND)));
+        check(new SimpleWorld().history(16).retention(new Retention(Retention.Mode.LAST, 3)));
+        check(new SimpleWorld().history(16).retention(new Retention(Retention.Mode.BATCH)));
+    }
+    
+    List<WorldConformanceError<SimpleWorld>> checkVersions(SimpleWorld world) {
+        try {
+            CId a = new CId(1);
+            CId b = new CId(2);
+            long v = world.version();
+            
+            world.send(a, new SetMember(1));   // v + 1
+            world.send(a, new SetMember(2));   // v + 2
+            world.send(b, new SetMember(5));   // v + 3
+            
+            try { world.send(b, new SendThenFail(7, a)); }
+            catch (Exception e) { if (world.version() != v + 3) error("a failing send should not be a version"); }
+            
+            world.send(new Batch().add(a, new SetMember(3)).add(b, new SetMember(6)).add(a, new SetMember(4)));
+            
+            if (world.version() != v + 4) error("version should be " + (v + 4));
+            if (world.at(v + 4).<CObject>obj(a).member != 4) error("obj(a) should be 4 at v + 4");
+            if (world.at(v + 3).<CObject>obj(a).member != 2) error("obj(a) should be 2 at v + 3");
+            if (world.at(v + 3).<CObject>obj(b).member != 5) error("obj(b) should be 5 at v + 3");
+            if (world.at(v + 4).<CObject>old(b).member != 5) error("old(b) should be 5 at v + 4");
+            
+            if (world.at(v).<CObject>obj(a).member != 0) error("obj(a) should be 0 at v");
+            if (world.at(v + 1).<CObject>obj(b).member != 0) error("obj(b) should be 0 at v + 1");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new HistoryProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    // versions beyond the horizon, or in the future, are rejected
+    List<WorldConformanceError<SimpleWorld>> checkHorizon(SimpleWorld world) {
+        try {
+            CId a = new CId(1);
+            for (long i = 0; i <= world.history(); i++) world.send(a, new SetMember((int) i));
+            
+            long v = world.version();
+            
+            if (!rejects(world, v - world.history() - 1)) error("version beyond the horizon should be rejected");
+            if (!rejects(world, v + 1)) error("future version should be rejected");
+            if (rejects(world, v - world.history())) error("oldest version should be retained");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new HistoryProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    private static boolean rejects(SimpleWorld world, long version) {
+        try { world.at(version); return false; }
+        catch (IllegalArgumentException e) { return true; }
+    }
+    
+    /**
+     * Sends random Messages, and compares every retained version with the (obj and old) states that have been recorded
+     * after each send.
+     */
+    List<WorldConformanceError<SimpleWorld>> checkReplay(SimpleWorld world) {
+        try {
+            SplittableRandom random = new SplittableRandom(42);
+            CId[] ids = new CId[OBJECTS];
+            for (int i = 0; i < OBJECTS; i++) ids[i] = new CId(i);
+            
+            List<int[]> states = new ArrayList<>();   // per version
+            List<int[]> olds = new ArrayList<>();
+            long base = world.version();
+            states.add(new int[OBJECTS]);
+            olds.add(new int[OBJECTS]);
+            
+            for (int s = 0; s < VERSIONS; s++) {
+                CId a = ids[random.nextInt(OBJECTS)];
+                CId b = ids[random.nextInt(OBJECTS)];
+                
+                switch (random.nextInt(4)) {
+                    case 0: world.send(a, new SetMember(s)); break;
+                    case 1: world.send(a, new SendSetMember(s, b)); break;
+                    case 2: world.send(new Batch().add(a, new SetMember(s)).add(b, new IncMember())); break;
+                    default:
+                        try { world.send(a, new SendThenFail(s, b)); }
+                        catch (Exception e) { continue; }   // not a version
+                }
+                
+                int[] state = new int[OBJECTS];
+                int[] old = new int[OBJECTS];
+                
+                for (int i = 0; i < OBJECTS; i++) {
+                    state[i] = world.obj(ids[i]).value().member;
+                    old[i] = world.old(ids[i]).value().member;
+                }
+                states.add(state);
+                olds.add(old);
+                
+                long oldest = Math.max(base, world.version() - world.history());
+                
+                for (long v = oldest; v <= world.version(); v++) {
+                    View view = world.at(v);
+                    
+                    for (int i = 0; i < OBJECTS; i++) {
+                        int expected = states.get((int) (v - base))[i];
+                        int actual = view.<CObject>obj(ids[i]).member;
+                        if (actual != expected) error("obj(" + i + ") should be " + expected + " at version " + v);
+                        
+                        int expectedOld = olds.get((int) (v - base))[i];
+                        int actualOld = view.<CObject>old(ids[i]).member;
+                        if (actualOld != expectedOld) {
+                            error("old(" + i + ") should be " + expectedOld + " at version " + v);
+                        }
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new HistoryProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
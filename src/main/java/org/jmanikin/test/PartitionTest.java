@@ -0,0 +1,242 @@
+package org.jmanikin.test;
+
+import org.jmanikin.codec.Codec;
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.*;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.BankCodecs;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.message.LocalMessage;
+import org.jmanikin.world.PartitionedWorld;
+import org.jmanikin.world.SimpleWorld;
+
+import java.io.DataInput;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * <p>Checks that a PartitionedWorld (with Partitions in other processes) sends Messages with the same result as a
+ * SimpleWorld: the same effects, (old) Objects and failures, also when nested sends on other Partitions are rolled
+ * back. Concurrent sends should neither deadlock, nor lose or duplicate any money.</p>
+ */
+public class PartitionTest implements ConformanceResult {
+    static final int ACCOUNTS = 16;
+    static final int SENDS = 500;
+    static final int THREADS = 4;
+    
+    public static boolean check(PartitionedWorld world) {
+        List<WorldConformanceError<PartitionedWorld>> errors = new ArrayList<>();
+        
+        errors.addAll(new PartitionTest().checkBook(world.init(), new SimpleWorld()));
+        errors.addAll(new PartitionTest().checkRollback(world.init(), new SimpleWorld()));
+        errors.addAll(new PartitionTest().checkConcurrent(world.init()));
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        for (int partitions : new int[]{1, 3}) {
+            try (PartitionedWorld world = PartitionedWorld.launch(partitions, Config.class)) { check(world); }
+        }
+    }
+    
+    /**
+     * The Codecs of the bank example, and of the Messages (and effects) of this test
+     */
+    public static class Config implements PartitionedWorld.Config {
+        @Override public Codecs codecs() {
+            return BankCodecs.codecs().
+                register(DepositThenFail.class, Codec.of(
+                    (m, out) -> BankCodecs.ACCOUNT_ID.write(m.other, out),
+                    in -> new DepositThenFail(BankCodecs.ACCOUNT_ID.read(in)))).
+                register(CatchFailure.class, Codec.of(
+                    (m, out) -> { BankCodecs.ACCOUNT_ID.write(m.b, out); BankCodecs.ACCOUNT_ID.write(m.c, out); },
+                    in -> new CatchFailure(BankCodecs.ACCOUNT_ID.read(in), BankCodecs.ACCOUNT_ID.read(in)))).
+                register(Integer.class, Codec.of((i, out) -> out.writeInt(i), DataInput::readInt));
+        }
+    }
+    
+    /**
+     * Deposits to another account, and then fails
+     */
+    public static class DepositThenFail implements LocalMessage<AccountModule.ID, AccountModule.Account, Void> {
+        public final AccountModule.ID other;
+        public DepositThenFail(AccountModule.ID other) { this.other = other; }
+        
+        @Override public Msg<AccountModule.ID, AccountModule.Account, Void> local() { return
+            pre(() -> true).
+            app(() -> new AccountModule.Account(obj().balance + 1.0)).
+            eff(() -> {
+                send(other, new AccountModule.Deposit(1.0));
+                throw new IllegalStateException("Deposit to " + other.id + " failed");
+            }).
+            pst(() -> true);
+        }
+    }
+    
+    /**
+     * Deposits to b, and catches the failure of c (that deposits to this account), so that only b is deposited to
+     */
+    public static class CatchFailure implements LocalMessage<AccountModule.ID, AccountModule.Account, Integer> {
+        public final AccountModule.ID b;
+        public final AccountModule.ID c;
+        public CatchFailure(AccountModule.ID b, AccountModule.ID c) { this.b = b; this.c = c; }
+        
+        @Override public Msg<AccountModule.ID, AccountModule.Account, Integer> local() { return
+            pre(() -> true).
+            app(() -> new AccountModule.Account(obj().balance + 1.0)).
+            eff(() -> {
+                send(b, new AccountModule.Deposit(1.0));
+                try { send(c, new DepositThenFail(self())); return 0; }
+                catch (IllegalStateException e) { return 1; }
+            }).
+            pst(() -> true);
+        }
+    }
+    
+    static AccountModule.ID[] accounts(World<?> world, World<?> reference) {
+        AccountModule.ID[] ids = new AccountModule.ID[ACCOUNTS];
+        
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ids[i] = new AccountModule.ID("A" + i);
+            world.send(ids[i], new AccountModule.Open(1000.0));
+            if (reference != null) reference.send(ids[i], new AccountModule.Open(1000.0));
+        }
+        return ids;
+    }
+    
+    /**
+     * Books random Transfers (and Batches of them), some of which fail because of an insufficient balance
+     */
+    List<WorldConformanceError<PartitionedWorld>> checkBook(PartitionedWorld world, SimpleWorld reference) {
+        try {
+            SplittableRandom random = new SplittableRandom(42);
+            AccountModule.ID[] ids = accounts(world, reference);
+            long cross = world.crossPartitionSends();
+            
+            for (int i = 0; i < SENDS; i++) {
+                Batch batch = new Batch();
+                
+                for (int m = random.nextInt(4) == 0 ? 3 : 1; m > 0; m--) {
+                    int from = random.nextInt(ACCOUNTS);
+                    int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                    
+                    batch.add(new TransferModule.ID((long) random.nextInt(ACCOUNTS)),
+                        new TransferModule.Book(ids[from], ids[to], (double) (1 + random.nextInt(400))));
+                }
+                compare(() -> world.send(batch).value(), () -> reference.send(batch).value());
+                compare(world, reference, ids);
+            }
+            
+            if (world.partitions() > 1 && world.crossPartitionSends() == cross) {
+                error("some sends should be cross-partition");
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new PartitionProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Sends Messages that fail after a nested send, and that catch such failures
+     */
+    List<WorldConformanceError<PartitionedWorld>> checkRollback(PartitionedWorld world, SimpleWorld reference) {
+        try {
+            SplittableRandom random = new SplittableRandom(7);
+            AccountModule.ID[] ids = accounts(world, reference);
+            
+            for (int i = 0; i < SENDS / 10; i++) {
+                AccountModule.ID a = ids[random.nextInt(ACCOUNTS)];
+                AccountModule.ID b = ids[random.nextInt(ACCOUNTS)];
+                AccountModule.ID c = ids[random.nextInt(ACCOUNTS)];
+                
+                compare(() -> world.send(a, new DepositThenFail(b)).value(),
+                    () -> reference.send(a, new DepositThenFail(b)).value());
+                compare(() -> world.send(a, new CatchFailure(b, c)).value(),
+                    () -> reference.send(a, new CatchFailure(b, c)).value());
+                compare(world, reference, ids);
+            }
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new PartitionProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Books random Transfers from multiple Threads, which should neither deadlock, nor change the total balance
+     */
+    List<WorldConformanceError<PartitionedWorld>> checkConcurrent(PartitionedWorld world) {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        
+        try {
+            AccountModule.ID[] ids = accounts(world, null);
+            List<Future<?>> futures = new ArrayList<>();
+            
+            for (int t = 0; t < THREADS; t++) {
+                SplittableRandom random = new SplittableRandom(t);
+                
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < SENDS; i++) {
+                        int from = random.nextInt(ACCOUNTS);
+                        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                        Message<TransferModule.ID, TransferModule.Transfer, Void> book =
+                            new TransferModule.Book(ids[from], ids[to], (double) (1 + random.nextInt(400)));
+                        
+                        try { world.send(new TransferModule.ID((long) random.nextInt(ACCOUNTS)), book); }
+                        catch (RuntimeException e) { if (!"Pre-condition failed".equals(e.getMessage())) throw e; }
+                    }
+                }));
+            }
+            
+            for (Future<?> future : futures) {
+                try { future.get(60, TimeUnit.SECONDS); }
+                catch (TimeoutException e) { error("concurrent sends should not deadlock"); }
+            }
+            
+            double total = 0.0;
+            for (AccountModule.ID id : ids) total += world.<AccountModule.Account>obj(id).value().balance;
+            
+            if (total != 1000.0 * ACCOUNTS) error("total balance should be " + 1000.0 * ACCOUNTS + ", not " + total);
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new PartitionProblem(), world));
+        }
+        finally { executor.shutdownNow(); }
+        
+        return Collections.emptyList();
+    }
+    
+    void compare(Callable<Object> partitioned, Callable<Object> reference) throws Exception {
+        Object p = null, r = null;
+        RuntimeException pf = null, rf = null;
+        
+        try { p = partitioned.call(); } catch (RuntimeException e) { pf = e; }
+        try { r = reference.call(); } catch (RuntimeException e) { rf = e; }
+        
+        if (rf != null) {
+            if (pf == null || pf.getClass() != rf.getClass() || !Objects.equals(pf.getMessage(), rf.getMessage())) {
+                error("send should fail with " + rf + ", not " + pf);
+            }
+        }
+        else if (pf != null) throw pf;
+        else if (!Objects.equals(p, r)) error("effect should be " + r + ", not " + p);
+    }
+    
+    void compare(PartitionedWorld world, SimpleWorld reference, AccountModule.ID[] ids) {
+        for (AccountModule.ID id : ids) {
+            AccountModule.Account p = world.<AccountModule.Account>obj(id).value();
+            AccountModule.Account r = reference.<AccountModule.Account>obj(id).value();
+            AccountModule.Account op = world.<AccountModule.Account>old(id).value();
+            AccountModule.Account or = reference.<AccountModule.Account>old(id).value();
+            
+            if (!p.balance.equals(r.balance)) error("balance of " + id.id + " should be " + r.balance);
+            if (!op.balance.equals(or.balance)) error("old balance of " + id.id + " should be " + or.balance);
+        }
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
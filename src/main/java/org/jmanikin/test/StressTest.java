@@ -0,0 +1,374 @@
+package org.jmanikin.test;
+
+import org.jmanikin.core.*;
+import org.jmanikin.example.bank.AccountModule;
+import org.jmanikin.example.bank.TransferModule;
+import org.jmanikin.world.MailboxWorld;
+import org.jmanikin.world.ShardedWorld;
+import org.jmanikin.world.SharedWorld;
+import org.jmanikin.world.SimpleWorld;
+import org.jmanikin.world.StmWorld;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * <p>Stresses a (thread safe) World with random interleavings of TestModule and bank Messages from many Threads,
+ * including nested sends and failing post-conditions. It checks the outcome against a serial execution on a
+ * SimpleWorld, and reports the throughput and tail latency per number of Threads.</p>
+ *
+ * <p>Every write of a TestModule Message writes a unique member, and returns the member it has overwritten. So the
+ * history of every Object can be reconstructed, and with it an order of all sends (that also respects the order of
+ * sends per Thread). The World is linearizable when such an order exists, when no send reads a write that has been
+ * rolled back or that has been overwritten, when no send reads a write of a send that started after it has returned,
+ * and when the same sends in that order have the same effects and final state on a SimpleWorld. Bank transfers
+ * commute (there are sufficient funds), so only their final balances are checked.</p>
+ *
+ * <p>Threads share the World that is passed, so immutable Worlds only pass with a single Thread.</p>
+ */
+public class StressTest implements TestModule, ConformanceResult {
+    static final double FUNDS = 1e9;
+    
+    private final int operations;
+    private final int objects;
+    private final int accounts;
+    private final long seed;
+    
+    /**
+     * Creates a StressTest
+     *
+     * @param operations the number of sends per Thread
+     * @param objects    the number of TestModule Objects (fewer Objects means more contention)
+     * @param accounts   the number of bank Accounts
+     * @param seed       the seed of the random interleavings
+     */
+    public StressTest(int operations, int objects, int accounts, long seed) {
+        if (objects < 3 || accounts < 2) throw new IllegalArgumentException("At least 3 Objects and 2 Accounts");
+        
+        this.operations = operations;
+        this.objects = objects;
+        this.accounts = accounts;
+        this.seed = seed;
+    }
+    
+    /**
+     * Stresses a World with 1, 2, 4 and 8 Threads, and prints a Report per number of Threads
+     *
+     * @param world the World
+     * @param <W>   the World type
+     * @return whether no violations have been found
+     */
+    public static <W extends World<W>> boolean check(W world) {
+        boolean ok = true;
+        
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            Report<W> report = new StressTest(20000, 64, 32, 42).run(world.init(), threads);
+            
+            System.out.println(world.getClass().getSimpleName() + ": " + report);
+            for (Object error : report.errors) { System.err.println("ERROR: " + error); }
+            
+            ok &= report.errors.isEmpty();
+        }
+        return ok;
+    }
+    
+    public static void main(String[] args) {
+        check(new StmWorld());
+        check(new ShardedWorld());
+        check(new SharedWorld());
+        check(new MailboxWorld<>(new StmWorld()));
+    }
+    
+    /**
+     * The throughput, latency and violations of a stress run
+     *
+     * @param <W> the World type
+     */
+    public static final class Report<W extends World<W>> {
+        public final int threads;
+        public final long sends;
+        public final double throughput;   // sends per second
+        public final long[] latencies;    // sorted, in nanoseconds
+        public final List<WorldConformanceError<W>> errors;
+        
+        Report(int threads, long sends, double throughput, long[] latencies, List<WorldConformanceError<W>> errors) {
+            this.threads = threads;
+            this.sends = sends;
+            this.throughput = throughput;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+        
+        /**
+         * Returns the latency at a percentile
+         *
+         * @param percentile the percentile in [0, 1], e.g. 0.99
+         * @return the latency in nanoseconds
+         */
+        public long percentile(double percentile) {
+            if (latencies.length == 0) return 0;
+            return latencies[(int) Math.min(latencies.length - 1, Math.ceil(percentile * latencies.length))];
+        }
+        
+        @Override public String toString() {
+            return threads + " threads, " + (long) throughput + " sends/s, latency p50 " + percentile(0.5) / 1000 +
+                " us, p99 " + percentile(0.99) / 1000 + " us, p99.9 " + percentile(0.999) / 1000 + " us, max " +
+                percentile(1.0) / 1000 + " us, " + errors.size() + " violations";
+        }
+    }
+    
+    /**
+     * A send, and what it has observed
+     */
+    static final class Op {
+        final int thread;
+        final Id<Object> id;
+        final Message<Id<Object>, Object, Object> msg;
+        final int[] objs;      // the TestModule Objects that are written (if committed), in effect order
+        final int[] written;   // and the members that are written
+        
+        Object effect;
+        boolean failed;
+        long start, end;
+        int predecessors;   // that have not been replayed yet
+        final List<Op> next = new ArrayList<>(2);
+        
+        @SuppressWarnings("unchecked")
+        <I extends Id<O>, O, E> Op(int thread, I id, Message<I, O, E> msg, int[] objs, int[] written) {
+            this.thread = thread;
+            this.id = (Id<Object>) id;
+            this.msg = (Message<Id<Object>, Object, Object>) (Message<?, ?, ?>) msg;
+            this.objs = objs;
+            this.written = written;
+        }
+        
+        // the members that have been overwritten, as returned by the effect
+        int[] read() { return effect instanceof Integer ? new int[]{(Integer) effect} : (int[]) effect; }
+        
+        @Override public String toString() { return msg.getClass().getSimpleName() + " to " + id + " by " + thread; }
+    }
+    
+    /**
+     * Stresses a World with a number of Threads
+     *
+     * @param world   the World, that is shared by all Threads
+     * @param threads the number of Threads
+     * @param <W>     the World type
+     * @return the Report
+     */
+    public <W extends World<W>> Report<W> run(W world, int threads) {
+        CId[] ids = new CId[objects];
+        for (int i = 0; i < objects; i++) ids[i] = new CId(i);
+        
+        AccountModule.ID[] accountIds = new AccountModule.ID[accounts];
+        for (int i = 0; i < accounts; i++) accountIds[i] = new AccountModule.ID("A" + i);
+        
+        List<Op> setup = new ArrayList<>();
+        for (AccountModule.ID a : accountIds) setup.add(new Op(-1, a, new AccountModule.Open(FUNDS), null, null));
+        
+        Op[][] ops = new Op[threads][];
+        for (int t = 0; t < threads; t++) ops[t] = generate(t, ids, accountIds);
+        
+        List<WorldConformanceError<W>> errors = new ArrayList<>();
+        
+        for (Op op : setup) world = world.send(op.id, op.msg).world();
+        
+        // run
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        Object[] last = new Object[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            W shared = world;
+            
+            workers[t] = new Thread(() -> {
+                W w = shared;
+                
+                try { barrier.await(); }
+                catch (Exception e) { throw new IllegalStateException(e); }
+                
+                for (Op op : ops[thread]) {
+                    op.start = System.nanoTime();
+                    try {
+                        Value<W, Object> v = w.send(op.id, op.msg);
+                        op.effect = v.value();
+                        w = v.world();
+                    }
+                    catch (RuntimeException e) { op.failed = true; }
+                    op.end = System.nanoTime();
+                }
+                last[thread] = w;
+            }, "stress-" + t);
+            
+            workers[t].start();
+        }
+        
+        long t0, t1;
+        
+        try {
+            barrier.await();
+            t0 = System.nanoTime();
+            for (Thread worker : workers) worker.join();
+            t1 = System.nanoTime();
+        }
+        catch (Exception e) { throw new IllegalStateException(e); }
+        
+        @SuppressWarnings("unchecked")
+        W result = (W) last[0];
+        
+        long[] latencies = new long[threads * operations];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < operations; i++) latencies[t * operations + i] = ops[t][i].end - ops[t][i].start;
+        }
+        Arrays.sort(latencies);
+        
+        try { verify(setup, ops, ids, accountIds, result); }
+        catch (Exception e) { errors.add(new WorldConformanceError<>(e, new LinearizabilityProblem(), result)); }
+        
+        return new Report<>(threads, latencies.length, latencies.length / ((t1 - t0) / 1e9), latencies, errors);
+    }
+    
+    private Op[] generate(int thread, CId[] ids, AccountModule.ID[] accountIds) {
+        SplittableRandom random = new SplittableRandom(seed + thread);
+        Op[] ops = new Op[operations];
+        
+        for (int i = 0; i < operations; i++) {
+            int member = thread * operations + i + 1;   // unique per write
+            int a = random.nextInt(objects);
+            int b = (a + 1 + random.nextInt(objects - 1)) % objects;
+            int c = (b + 1 + random.nextInt(objects - 2)) % objects;
+            if (c == a) c = (c + 1) % objects;   // c != b, and now also c != a (only a can be skipped over twice)
+            if (c == b) c = (c + 1) % objects;
+            
+            int kind = random.nextInt(20);
+            
+            if (kind < 7) ops[i] = new Op(thread, ids[a], new Swap(member), new int[]{a}, new int[]{member});
+            else if (kind < 11) {
+                SendSwap swap = new SendSwap(member, ids[b]);
+                ops[i] = new Op(thread, ids[a], swap, new int[]{a, b}, new int[]{member, member});
+            }
+            else if (kind < 13) ops[i] = new Op(thread, ids[a], new SendSwapThenFail(member, ids[b]), null, null);
+            else if (kind < 15) {
+                CatchSwap swap = new CatchSwap(member, ids[b], ids[c]);
+                ops[i] = new Op(thread, ids[a], swap, new int[]{a}, new int[]{member});
+            }
+            else {
+                int from = random.nextInt(accounts);
+                int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                double amount = 1 + random.nextInt(100);
+                
+                TransferModule.Book book = new TransferModule.Book(accountIds[from], accountIds[to], amount);
+                ops[i] = new Op(thread, new TransferModule.ID((long) member), book, null, null);
+            }
+        }
+        return ops;
+    }
+    
+    private <W extends World<W>> void verify(List<Op> setup, Op[][] ops, CId[] ids, AccountModule.ID[] accountIds,
+                                             W world) {
+        // the write of every member, per Object
+        List<HashMap<Integer, Op>> writers = new ArrayList<>();
+        for (int i = 0; i < objects; i++) writers.add(new HashMap<>());
+        
+        for (Op[] thread : ops) {
+            for (Op op : thread) {
+                if (op.failed || op.objs == null) continue;
+                for (int j = 0; j < op.objs.length; j++) writers.get(op.objs[j]).put(op.written[j], op);
+            }
+        }
+        
+        // the history of every Object: an edge from the send that has written a member to the send that overwrites it
+        boolean[] initial = new boolean[objects];
+        List<HashMap<Integer, Op>> overwritten = new ArrayList<>();
+        for (int i = 0; i < objects; i++) overwritten.add(new HashMap<>());
+        
+        for (Op[] thread : ops) {
+            for (Op op : thread) {
+                if (op.failed || op.objs == null) continue;
+                int[] read = op.read();
+                
+                for (int j = 0; j < op.objs.length; j++) {
+                    int obj = op.objs[j];
+                    
+                    if (read[j] == 0) {
+                        if (initial[obj]) error(op + " overwrites the initial member of " + obj + " again");
+                        initial[obj] = true;
+                    }
+                    else {
+                        Op writer = writers.get(obj).get(read[j]);
+                        String member = "member " + read[j] + " of " + obj;
+                        
+                        if (writer == null) error(op + " reads " + member + ", that has not been committed");
+                        else if (overwritten.get(obj).put(read[j], op) != null) {
+                            error(op + " overwrites " + member + " again");
+                        }
+                        else if (op.end < writer.start) error(op + " reads " + member + ", that is written later");
+                        else if (writer != op) edge(writer, op);
+                    }
+                }
+            }
+        }
+        
+        // the order of sends per Thread
+        for (Op[] thread : ops) for (int i = 1; i < thread.length; i++) edge(thread[i - 1], thread[i]);
+        
+        // replay all sends in topological order
+        SimpleWorld reference = new SimpleWorld();
+        for (Op op : setup) reference.send(op.id, op.msg);
+        
+        ArrayDeque<Op> ready = new ArrayDeque<>();
+        int total = 0;
+        
+        for (Op[] thread : ops) {
+            total += thread.length;
+            for (Op op : thread) if (op.predecessors == 0) ready.add(op);
+        }
+        
+        int replayed = 0;
+        
+        while (!ready.isEmpty()) {
+            Op op = ready.poll();
+            Object effect = null;
+            boolean failed = false;
+            
+            try { effect = reference.send(op.id, op.msg).value(); }
+            catch (RuntimeException e) { failed = true; }
+            
+            if (failed != op.failed) error(op + " has " + outcome(op.failed) + ", but should have " + outcome(failed));
+            else if (!failed && !Objects.deepEquals(effect, op.effect)) error(op + " has an unexpected effect");
+            
+            replayed++;
+            for (Op n : op.next) if (--n.predecessors == 0) ready.add(n);
+        }
+        
+        if (replayed != total) error("the sends cannot be ordered: " + (total - replayed) + " sends are in a cycle");
+        
+        // compare the final states
+        for (int i = 0; i < objects; i++) {
+            int member = world.obj(ids[i]).value().member;
+            int expected = reference.obj(ids[i]).value().member;
+            if (member != expected) error("member of " + i + " should be " + expected + ", but is " + member);
+        }
+        for (AccountModule.ID a : accountIds) {
+            Double balance = world.obj(a).value().balance;
+            Double expected = reference.obj(a).value().balance;
+            if (!expected.equals(balance)) error("balance of " + a.id + " should be " + expected + ", not " + balance);
+        }
+    }
+    
+    private static String outcome(boolean failed) { return failed ? "failed" : "committed"; }
+    
+    private static void edge(Op from, Op to) {
+        from.next.add(to);
+        to.predecessors++;
+    }
+    
+    void error(String error) { throw new RuntimeException(error); }
+}
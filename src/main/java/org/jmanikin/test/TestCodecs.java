@@ -0,0 +1,91 @@
+package org.jmanikin.test;
+
+import org.jmanikin.codec.Codec;
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.test.TestModule.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Codecs for the Ids, Objects and Messages of the {@link TestModule}
+ */
+public class TestCodecs {
+    public static final Codec<CId> ID = Codec.of(
+        (id, out) -> out.writeInt(id.id),
+        in -> new CId(in.readInt())
+    );
+    
+    public static final Codec<CObject> OBJECT = Codec.of(
+        (o, out) -> out.writeInt(o.member),
+        in -> new CObject(in.readInt())
+    );
+    
+    public static Codecs codecs() {
+        return new Codecs().
+            register(CId.class, ID).
+            register(CObject.class, OBJECT).
+            register(CopyId.class, Codec.of((m, out) -> { }, in -> new CopyId())).
+            register(LocalCopyId.class, Codec.of((m, out) -> { }, in -> new LocalCopyId())).
+            register(BoundCopyId.class, Codec.of((m, out) -> { }, in -> new BoundCopyId())).
+            register(PlannedCopyId.class, Codec.of((m, out) -> { }, in -> new PlannedCopyId())).
+            register(IncMember.class, Codec.of((m, out) -> { }, in -> new IncMember())).
+            register(ThrowPstException.class, Codec.of((m, out) -> { }, in -> new ThrowPstException())).
+            register(SetMember.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new SetMember(in.readInt()))).
+            register(Swap.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new Swap(in.readInt()))).
+            register(LocalSetMember.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new LocalSetMember(in.readInt()))).
+            register(BoundSetMember.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new BoundSetMember(in.readInt()))).
+            register(PlannedSetMember.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new PlannedSetMember(in.readInt()))).
+            register(SnapshotSetMember.class, Codec.of(
+                (m, out) -> out.writeInt(m.member),
+                in -> new SnapshotSetMember(in.readInt()))).
+            register(SendSwap.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new SendSwap(in.readInt(), readId(in)))).
+            register(SendSwapThenFail.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new SendSwapThenFail(in.readInt(), readId(in)))).
+            register(CatchSwap.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.failing, out); writeId(m.other, out); },
+                in -> new CatchSwap(in.readInt(), readId(in), readId(in)))).
+            register(SendSetMember.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new SendSetMember(in.readInt(), readId(in)))).
+            register(LocalSendSetMember.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new LocalSendSetMember(in.readInt(), readId(in)))).
+            register(BoundSendSetMember.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new BoundSendSetMember(in.readInt(), readId(in)))).
+            register(PlannedSendSetMember.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new PlannedSendSetMember(in.readInt(), readId(in)))).
+            register(SendThenFail.class, Codec.of(
+                (m, out) -> { out.writeInt(m.member); writeId(m.other, out); },
+                in -> new SendThenFail(in.readInt(), readId(in)))).
+            register(CatchNestedFailure.class, Codec.of(
+                (m, out) -> { writeId(m.failing, out); writeId(m.other, out); },
+                in -> new CatchNestedFailure(readId(in), readId(in))));
+    }
+    
+    // the pre-conditions of some Messages allow for a null Id
+    private static void writeId(CId id, DataOutput out) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) ID.write(id, out);
+    }
+    
+    private static CId readId(DataInput in) throws IOException {
+        return in.readBoolean() ? ID.read(in) : null;
+    }
+}
@@ -1,7 +1,10 @@
 package org.jmanikin.test;
 
 import org.jmanikin.core.*;
+import org.jmanikin.message.BoundMessage;
 import org.jmanikin.message.LocalMessage;
+import org.jmanikin.message.Plan;
+import org.jmanikin.message.PlannedMessage;
 
 public interface TestModule {
     class CId implements Id<CObject> {
@@ -17,6 +20,8 @@ public interface TestModule {
     
     interface CMsg<E> extends Message<CId, CObject, E> { }
     interface LMsg<E> extends LocalMessage<CId, CObject, E> { }
+    abstract class BMsg<E> extends BoundMessage<CId, CObject, E> { }
+    interface PMsg<M extends PMsg<M, E>, E> extends PlannedMessage<M, CId, CObject, E> { }
     
     class CopyId implements CMsg<Void> {
         @Override public Msg<CId, CObject, Void> msg(Environment<CId, CObject, Void> e) { return e.
@@ -36,6 +41,26 @@ public interface TestModule {
         }
     }
     
+    class BoundCopyId extends BMsg<Void> {
+        @Override public Msg<CId, CObject, Void> local() { return
+            pre(() -> true).
+                app(() -> new CObject(self().id)).
+                eff(() -> null).
+                pst(() -> obj().member == self().id);
+        }
+    }
+    
+    class PlannedCopyId implements PMsg<PlannedCopyId, Void> {
+        @Override
+        public Plan<PlannedCopyId, CId, CObject, Void> plan(
+            Plan.Builder<PlannedCopyId, CId, CObject, Void> p) { return p.
+            pre((m, e) -> true).
+            app((m, e) -> new CObject(e.self().id)).
+            eff((m, e) -> null).
+            pst((m, e) -> e.obj().member == e.self().id);
+        }
+    }
+    
     class SetMember implements CMsg<Integer> {
         public final int member;
         public SetMember(int member) { this.member = member; }
@@ -48,6 +73,90 @@ public interface TestModule {
         }
     }
     
+    class IncMember implements CMsg<Integer> {
+        @Override public Msg<CId, CObject, Integer> msg(Environment<CId, CObject, Integer> e) { return e.
+            pre(() -> true).
+            app(() -> new CObject(e.obj().member + 1)).
+            eff(() -> e.obj().member).
+            pst(() -> e.obj().member == e.old().member + 1);
+        }
+    }
+    
+    /**
+     * Sets the member, and returns the previous member
+     */
+    class Swap implements CMsg<Integer> {
+        public final int member;
+        public Swap(int member) { this.member = member; }
+        
+        @Override public Msg<CId, CObject, Integer> msg(Environment<CId, CObject, Integer> e) { return e.
+            pre(() -> true).
+            app(() -> new CObject(member)).
+            eff(() -> e.old().member).
+            pst(() -> e.obj().member == member);
+        }
+    }
+    
+    /**
+     * Sets the member of itself and of another Object (with a nested Swap), and returns both previous members
+     */
+    class SendSwap implements CMsg<int[]> {
+        public final int member;
+        public final CId other;
+        
+        public SendSwap(int member, CId other) { this.member = member; this.other = other; }
+        
+        @Override public Msg<CId, CObject, int[]> msg(Environment<CId, CObject, int[]> e) { return e.
+            pre(() -> other != e.self()).
+            app(() -> new CObject(member)).
+            eff(() -> new int[]{e.old().member, e.send(other, new Swap(member))}).
+            pst(() -> e.obj().member == member && e.obj(other).member == member);
+        }
+    }
+    
+    /**
+     * Sets the member of itself and of another Object, and then fails its post-condition
+     */
+    class SendSwapThenFail implements CMsg<int[]> {
+        public final int member;
+        public final CId other;
+        
+        public SendSwapThenFail(int member, CId other) { this.member = member; this.other = other; }
+        
+        @Override public Msg<CId, CObject, int[]> msg(Environment<CId, CObject, int[]> e) { return e.
+            pre(() -> other != e.self()).
+            app(() -> new CObject(member)).
+            eff(() -> new int[]{e.old().member, e.send(other, new Swap(member))}).
+            pst(() -> false);
+        }
+    }
+    
+    /**
+     * Sets the member, catches a nested SendSwapThenFail, and returns the previous member
+     */
+    class CatchSwap implements CMsg<Integer> {
+        public final int member;
+        public final CId failing;
+        public final CId other;
+        
+        public CatchSwap(int member, CId failing, CId other) {
+            this.member = member;
+            this.failing = failing;
+            this.other = other;
+        }
+        
+        @Override public Msg<CId, CObject, Integer> msg(Environment<CId, CObject, Integer> e) { return e.
+            pre(() -> failing != other).
+            app(() -> new CObject(member)).
+            eff(() -> {
+                try { e.send(failing, new SendSwapThenFail(-member, other)); }
+                catch (RuntimeException ex) { /* the nested send should have been rolled back */ }
+                return e.old().member;
+            }).
+            pst(() -> e.obj().member == member);
+        }
+    }
+    
     class LocalSetMember implements LMsg<Integer> {
         public final int member;
         public LocalSetMember(int member) { this.member = member; }
@@ -60,6 +169,18 @@ public interface TestModule {
         }
     }
     
+    class BoundSetMember extends BMsg<Integer> {
+        public final int member;
+        public BoundSetMember(int member) { this.member = member; }
+        
+        @Override public Msg<CId, CObject, Integer> local() { return
+            pre(() -> true).
+                app(() -> new CObject(member)).
+                eff(() -> member).
+                pst(() -> obj().member == member);
+        }
+    }
+    
     class SendSetMember implements CMsg<Integer> {
         public final int member;
         public final CId other;
@@ -74,6 +195,21 @@ public interface TestModule {
         }
     }
     
+    /**
+     * Sets the member of itself, and returns a snapshot that is taken after that
+     */
+    class SnapshotSetMember implements CMsg<View> {
+        public final int member;
+        public SnapshotSetMember(int member) { this.member = member; }
+        
+        @Override public Msg<CId, CObject, View> msg(Environment<CId, CObject, View> e) { return e.
+            pre(() -> true).
+            app(() -> new CObject(member)).
+            eff(e::snapshot).
+            pst(() -> e.obj().member == member);
+        }
+    }
+    
     class LocalSendSetMember implements LMsg<Integer> {
         public final int member;
         public final CId other;
@@ -88,6 +224,50 @@ public interface TestModule {
         }
     }
     
+    class BoundSendSetMember extends BMsg<Integer> {
+        public final int member;
+        public final CId other;
+        
+        public BoundSendSetMember(int member, CId other) { this.member = member; this.other = other; }
+        
+        @Override public Msg<CId, CObject, Integer> local() { return
+            pre(() -> other != null).
+            app(() -> new CObject(member)).
+            eff(() -> send(other, new BoundSetMember(member))).
+            pst(() -> obj(other).member == obj().member);
+        }
+    }
+    
+    class PlannedSetMember implements PMsg<PlannedSetMember, Integer> {
+        public final int member;
+        public PlannedSetMember(int member) { this.member = member; }
+        
+        @Override
+        public Plan<PlannedSetMember, CId, CObject, Integer> plan(
+            Plan.Builder<PlannedSetMember, CId, CObject, Integer> p) { return p.
+            pre((m, e) -> true).
+            app((m, e) -> new CObject(m.member)).
+            eff((m, e) -> m.member).
+            pst((m, e) -> e.obj().member == m.member);
+        }
+    }
+    
+    class PlannedSendSetMember implements PMsg<PlannedSendSetMember, Integer> {
+        public final int member;
+        public final CId other;
+        
+        public PlannedSendSetMember(int member, CId other) { this.member = member; this.other = other; }
+        
+        @Override
+        public Plan<PlannedSendSetMember, CId, CObject, Integer> plan(
+            Plan.Builder<PlannedSendSetMember, CId, CObject, Integer> p) { return p.
+            pre((m, e) -> m.other != null).
+            app((m, e) -> new CObject(m.member)).
+            eff((m, e) -> e.send(m.other, new PlannedSetMember(m.member))).
+            pst((m, e) -> e.obj(m.other).member == e.obj().member);
+        }
+    }
+    
     class ThrowPstException implements LMsg<Void> {
         public ThrowPstException() { }
         
@@ -98,4 +278,36 @@ public interface TestModule {
                 pst(() -> false);
         }
     }
+    
+    class SendThenFail implements LMsg<Void> {
+        public final int member;
+        public final CId other;
+        
+        public SendThenFail(int member, CId other) { this.member = member; this.other = other; }
+        
+        @Override public Msg<CId, CObject, Void> local() { return
+            pre(() -> true).
+                app(() -> new CObject(member)).
+                eff(() -> { send(other, new SetMember(member)); return null; }).
+                pst(() -> false);
+        }
+    }
+    
+    class CatchNestedFailure implements LMsg<Void> {
+        public final CId failing;
+        public final CId other;
+        
+        public CatchNestedFailure(CId failing, CId other) { this.failing = failing; this.other = other; }
+        
+        @Override public Msg<CId, CObject, Void> local() { return
+            pre(() -> true).
+                app(() -> new CObject(1)).
+                eff(() -> {
+                    try { send(failing, new SendThenFail(9, other)); }
+                    catch (RuntimeException e) { /* the nested send should have been rolled back */ }
+                    return null;
+                }).
+                pst(() -> obj().member == 1);
+        }
+    }
 }
@@ -1,8 +1,20 @@
 package org.jmanikin.test;
 
 import org.jmanikin.core.World;
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.world.JournalWorld;
+import org.jmanikin.world.MailboxWorld;
+import org.jmanikin.world.OffHeapWorld;
+import org.jmanikin.world.PersistentWorld;
+import org.jmanikin.world.Retention;
+import org.jmanikin.world.ShardedWorld;
+import org.jmanikin.world.SharedWorld;
 import org.jmanikin.world.SimpleWorld;
+import org.jmanikin.world.StmWorld;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 public class WorldConformanceTest {
@@ -14,7 +26,46 @@ public class WorldConformanceTest {
         return errors.isEmpty();
     }
     
-    public static void main(String[] args) { check(new SimpleWorld()); }
+    public static <W extends World<W>> boolean check(W world, Retention retention) {
+        List<ConformanceResult.WorldConformanceError<W>> errors = new WorldConformanceText<W>().check(world, retention);
+        
+        for (Object error : errors) { System.err.println("ERROR: " + error); }
+        
+        return errors.isEmpty();
+    }
+    
+    public static void main(String[] args) throws IOException {
+        check(new SimpleWorld());
+        check(new SimpleWorld(true));
+        check(new SimpleWorld().history(8));
+        
+        for (Retention.Mode mode : Retention.Mode.values()) {
+            for (int sends = 1; sends <= 3; sends++) {
+                Retention retention = new Retention(mode, sends);
+                check(new SimpleWorld().retention(retention), retention);
+                check(new SimpleWorld(true).retention(retention), retention);
+            }
+        }
+        
+        check(new PersistentWorld());
+        check(new StmWorld());
+        check(new ShardedWorld());
+        check(new ShardedWorld(4, id -> ((TestModule.CId) id).id));
+        check(new SharedWorld());
+        check(new MailboxWorld<>(new StmWorld()));
+        check(new MailboxWorld<>(new ShardedWorld()));
+        check(new MailboxWorld<>(new SharedWorld()));
+        check(new OffHeapWorld(TestCodecs.codecs()).register(TestModule.CId.class, TestCodecs.OBJECT));
+        
+        Path journal = Files.createTempFile("journal", ".log");
+        journal.toFile().deleteOnExit();
+        
+        for (JournalWorld.Durability durability : JournalWorld.Durability.values()) {
+            try (JournalWorld<SimpleWorld> world = new JournalWorld<>(journal, new SimpleWorld(), TestCodecs.codecs(), durability, 10)) {
+                check(world);
+            }
+        }
+    }
     
     static class WorldConformanceText<W extends World<W>> implements WorldTest<W> {}
 }
@@ -1,22 +1,31 @@
 package org.jmanikin.test;
 
 import org.jmanikin.core.*;
+import org.jmanikin.world.Retention;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 public interface WorldTest<W extends World<W>> extends TestModule, ConformanceResult {
     
     /* TODO: Add more conformance tests! */
-    default List<WorldConformanceError<W>> check(W w) {
+    default List<WorldConformanceError<W>> check(W w) { return check(w, new Retention()); }
+    
+    default List<WorldConformanceError<W>> check(W w, Retention retention) {
         List<WorldConformanceError<W>> result = new ArrayList<>();
         
         result.addAll(checkObj(w.init()));
-        result.addAll(checkOld(w.init()));
+        result.addAll(checkOld(w.init(), retention));
         result.addAll(checkDeterminism(w.init()));
         result.addAll(checkSend(w.init()));
+        result.addAll(checkSendAsync(w.init()));
         result.addAll(checkRollback(w.init()));
-    
+        result.addAll(checkNestedRollback(w.init()));
+        result.addAll(checkBatch(w.init()));
+        result.addAll(checkSnapshot(w.init()));
+        
         return result;
     }
     
@@ -26,14 +35,20 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
         try {
             CId a = new CId(1);
             CId b = new CId(2);
+            CId c = new CId(3);
+            CId d = new CId(4);
             
             world = world.
                 send(a, new CopyId()).
                 send(b, new LocalCopyId()).
+                send(c, new BoundCopyId()).
+                send(d, new PlannedCopyId()).
                 world();
             
             if (world.obj(a).value().member != 1) error("obj(a).value.member should be 1");
             if (world.obj(b).value().member != 2) error("obj(b).value.member should be 2");
+            if (world.obj(c).value().member != 3) error("obj(c).value.member should be 3");
+            if (world.obj(d).value().member != 4) error("obj(d).value.member should be 4");
         }
         catch (Exception e) {
             return Collections.singletonList(new WorldConformanceError<W>(e, new ObjProblem(), world));
@@ -41,27 +56,59 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
         return Collections.emptyList();
     }
     
-    default List<WorldConformanceError<W>> checkOld(W world) {
+    default List<WorldConformanceError<W>> checkOld(W world) { return checkOld(world, new Retention()); }
+    
+    default List<WorldConformanceError<W>> checkOld(W world, Retention retention) {
         try {
             CId a = new CId(1);
             CId b = new CId(2);
+            Retention.Mode mode = retention.mode();
             
             world = world.
                 send(a, new SetMember(10)).
                 send(a, new SetMember(20)).
                 world();
             
-            if (world.old(a).value().member != 10)  error("old(a).value.member should be 10");
+            if (mode == Retention.Mode.SEND) {
+                if (world.old(a).value().member != 20) error("old(a).value.member should be 20 after the send");
+            }
+            else if (world.old(a).value().member != 10)  error("old(a).value.member should be 10");
             if (world.obj(a).value().member != 20)  error("obj(a).value.member should be 20");
-    
-    
-            world = world.
-                send(b, new SetMember(100)).
-                send(b, new SetMember(200)).
-                world();
-    
-            if (world.old(b).value().member != 100) error("old(b).value.member should be 100");
-            if (world.obj(b).value().member != 200) error("obj(b).value.member should be 200");
+            
+            // old states are retained within a send, whatever the Retention
+            world = world.send(a, new IncMember()).world();
+            if (world.obj(a).value().member != 21)  error("obj(a).value.member should be 21");
+            
+            if (mode == Retention.Mode.ALWAYS) {
+                world = world.
+                    send(b, new SetMember(100)).
+                    send(b, new SetMember(200)).
+                    world();
+                
+                if (world.old(b).value().member != 100) error("old(b).value.member should be 100");
+                if (world.obj(b).value().member != 200) error("obj(b).value.member should be 200");
+            }
+            else if (mode == Retention.Mode.BATCH) {
+                world = world.send(new Batch().
+                    add(b, new SetMember(100)).
+                    add(b, new SetMember(200))).
+                    world();
+                
+                if (world.old(a).value().member != 21)  error("old(a).value.member should be 21 after the next batch");
+                if (world.old(b).value().member != 100) error("old(b).value.member should be 100 in the latest batch");
+                
+                world = world.send(a, new SetMember(30)).world();
+                if (world.old(b).value().member != 200) error("old(b).value.member should be 200 after the next send");
+            }
+            else if (mode == Retention.Mode.LAST) {
+                // the IncMember send to a is retained, together with the sends to b
+                for (int i = 1; i < retention.sends(); i++) world = world.send(b, new SetMember(100 + i)).world();
+                
+                if (world.old(a).value().member != 20)  error("old(a).value.member should be 20 within the last sends");
+                
+                world = world.send(new Batch().add(b, new SetMember(300))).world();
+                if (world.old(a).value().member != 21)  error("old(a).value.member should be 21 after the last sends");
+            }
         }
         catch (Exception e) {
             return Collections.singletonList(new WorldConformanceError<W>(e, new OldProblem(), world));
@@ -76,7 +123,9 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
         try {
              world.
                 send(a, new SendSetMember(10, b)).
-                send(b, new LocalSendSetMember(20, a));
+                send(b, new LocalSendSetMember(20, a)).
+                send(a, new BoundSendSetMember(30, b)).
+                send(b, new PlannedSendSetMember(40, a));
         }
         catch (Exception e) {
             return Collections.singletonList(new WorldConformanceError<>(e, new SendProblem(), world));
@@ -84,6 +133,75 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
         return Collections.emptyList();
     }
     
+    default List<WorldConformanceError<W>> checkSendAsync(W world) {
+        try {
+            CId a = new CId(1);
+            CId b = new CId(2);
+            
+            Value<W, Integer> set = world.sendAsync(a, new SetMember(10)).toCompletableFuture().join();
+            world = set.world();
+            
+            if (set.value() != 10) error("async effect should be 10");
+            if (world.obj(a).value().member != 10) error("obj(a).value.member should be 10");
+            
+            Value<W, Integer> nested = world.sendAsync(a, new SendSetMember(20, b)).toCompletableFuture().join();
+            world = nested.world();
+            
+            if (nested.value() != 20) error("nested effect should be 20");
+            if (world.obj(b).value().member != 20) error("obj(b).value.member should be 20");
+            
+            boolean failed = false;
+            
+            try { world.sendAsync(b, new SendThenFail(30, a)).toCompletableFuture().join(); }
+            catch (CompletionException e) { failed = true; }
+            
+            if (!failed) error("async send should fail");
+            if (world.obj(a).value().member != 20) error("obj(a).value.member should be 20 after rollback");
+            if (world.obj(b).value().member != 20) error("obj(b).value.member should be 20 after rollback");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new SendProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Checks that snapshots are immutable, when they are supported
+     */
+    default List<WorldConformanceError<W>> checkSnapshot(W world) {
+        try {
+            CId a = new CId(1);
+            View snapshot;
+            
+            try {
+                world = world.send(a, new SetMember(10)).world();
+                snapshot = world.snapshot();
+            }
+            catch (UnsupportedOperationException e) { return Collections.emptyList(); }
+            
+            world = world.send(a, new SetMember(20)).world();
+            
+            if (snapshot.<CObject>obj(a).member != 10) error("snapshot.obj(a).member should be 10");
+            if (snapshot.<CObject>old(a).member != 0) error("snapshot.old(a).member should be 0");
+            if (world.obj(a).value().member != 20) error("obj(a).value.member should be 20");
+            
+            Value<W, View> env;
+            
+            try { env = world.send(a, new SnapshotSetMember(30)); }
+            catch (UnsupportedOperationException e) { return Collections.emptyList(); }   // only World snapshots
+            
+            world = env.world().send(a, new SetMember(40)).world();
+            
+            if (env.value().<CObject>obj(a).member != 30) error("env snapshot.obj(a).member should be 30");
+            if (env.value().<CObject>old(a).member != 20) error("env snapshot.old(a).member should be 20");
+            if (world.obj(a).value().member != 40) error("obj(a).value.member should be 40");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new SnapshotProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
     default List<WorldConformanceError<W>> checkDeterminism(W world) {
         CId a = new CId(1);
         CId b = new CId(2);
@@ -98,7 +216,7 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
                     send(c, new SetMember(20)).
                     send(d, new LocalSetMember(200)).
                     world();
-        
+                
                 if (world.obj(a).value().member != 1)   error("obj(a).value.member should be 1");
                 if (world.obj(b).value().member != 2)   error("obj(b).value.member should be 2");
                 if (world.obj(c).value().member != 20)  error("obj(c).value.member should be 20");
@@ -118,7 +236,7 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
             
             try { world.send(a, new ThrowPstException()); }
             catch (Exception e) { if (world.obj(a).value().member != 0) error("obj(a).value.member should be 0"); }
-    
+            
             try { world.send(b, new ThrowPstException()); }
             catch (Exception e) { if (world.obj(a).value().member != 0) error("obj(b).value.member should be 0"); }
         }
@@ -127,4 +245,73 @@ public interface WorldTest<W extends World<W>> extends TestModule, ConformanceRe
         }
         return Collections.emptyList();
     }
-}
\ No newline at end of file
+    
+    default List<WorldConformanceError<W>> checkNestedRollback(W world) {
+        try {
+            CId a = new CId(1);
+            CId b = new CId(2);
+            CId c = new CId(3);
+            
+            world = world.send(b, new SetMember(5)).world();
+            
+            int oldB = world.old(b).value().member;
+            boolean failed = false;
+            
+            try { world.send(a, new SendThenFail(7, b)); }
+            catch (RuntimeException e) { failed = true; }
+            
+            if (!failed) error("send should fail");
+            if (world.obj(a).value().member != 0) error("obj(a).value.member should be 0");
+            if (world.obj(b).value().member != 5) error("obj(b).value.member should be 5 after nested rollback");
+            if (world.old(b).value().member != oldB) error("old(b).value.member should be unchanged after nested rollback");
+            
+            world = world.send(c, new CatchNestedFailure(a, b)).world();
+            
+            if (world.obj(c).value().member != 1) error("obj(c).value.member should be 1");
+            if (world.obj(a).value().member != 0) error("obj(a).value.member should be 0 after caught failure");
+            if (world.obj(b).value().member != 5) error("obj(b).value.member should be 5 after caught failure");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new RollbackProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+    
+    default List<WorldConformanceError<W>> checkBatch(W world) {
+        try {
+            CId a = new CId(1);
+            CId b = new CId(2);
+            
+            Value<W, List<Object>> effects = world.send(new Batch().
+                add(a, new SetMember(10)).
+                add(b, new SendSetMember(20, a)).
+                add(a, new LocalSetMember(30)));
+            
+            world = effects.world();
+            
+            if (!effects.value().equals(Arrays.asList(10, 20, 30))) error("effects should be [10, 20, 30]");
+            if (world.obj(a).value().member != 30) error("obj(a).value.member should be 30");
+            if (world.obj(b).value().member != 20) error("obj(b).value.member should be 20");
+            
+            int oldB = world.old(b).value().member;
+            boolean failed = false;
+            
+            try {
+                world.send(new Batch().
+                    add(a, new SetMember(40)).
+                    add(b, new SendSetMember(50, a)).
+                    add(b, new ThrowPstException()));
+            }
+            catch (RuntimeException e) { failed = true; }
+            
+            if (!failed) error("batch should fail");
+            if (world.obj(a).value().member != 30) error("obj(a).value.member should be 30 after rollback");
+            if (world.obj(b).value().member != 20) error("obj(b).value.member should be 20 after rollback");
+            if (world.old(b).value().member != oldB) error("old(b).value.member should be unchanged after rollback");
+        }
+        catch (Exception e) {
+            return Collections.singletonList(new WorldConformanceError<>(e, new BatchProblem(), world));
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,621 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>A BlockExecutor sends the Messages of a Batch (a block) to a SimpleWorld in parallel, with a result that is
+ * identical to sending the Batch sequentially: the same effects, the same (old) Objects, and the same failure.</p>
+ * <p>Messages are executed speculatively on a ForkJoinPool, in the style of Block-STM. All reads and writes of a
+ * Message, including the ones made by nested sends, are recorded through its Environment. A read sees the last write
+ * by an earlier Message in the block, or else the SimpleWorld. After execution, the reads of a Message are validated
+ * against the writes of all earlier Messages, and only the Messages that have read a stale write are executed again.
+ * A Message that reads a write of an earlier Message that is being executed again, waits for that Message.</p>
+ * <p>Once all Messages have been validated, their writes are committed to the SimpleWorld as a single version, just
+ * like a Batch. When any Message fails, the first one (in order) fails the block and the SimpleWorld is unchanged.</p>
+ *
+ * <p>Because Messages can be executed more than once and concurrently, they should be immutable and should not have
+ * side effects outside of their World. Ids need proper equals and hashCode methods (or be unique instances).</p>
+ * <p>Blocks are sent sequentially when the SimpleWorld records or measures its sends.</p>
+ */
+public final class BlockExecutor {
+    private static final int READY = 0;
+    private static final int EXECUTING = 1;
+    private static final int EXECUTED = 2;
+    private static final int ABORTING = 3;
+    
+    private static final long NONE = -1;
+    
+    private final ForkJoinPool pool;
+    private final LongAdder aborts = new LongAdder();
+    
+    public BlockExecutor() { this(ForkJoinPool.commonPool()); }
+    
+    /**
+     * Creates a BlockExecutor
+     *
+     * @param pool the ForkJoinPool that executes the Messages, with one worker per parallelism level
+     */
+    public BlockExecutor(ForkJoinPool pool) { this.pool = pool; }
+    
+    /**
+     * Returns the number of executions that have been discarded, because of a conflict
+     *
+     * @return the number of aborts
+     */
+    public long aborts() { return aborts.sum(); }
+    
+    /**
+     * Returns the effects of all Messages of a Batch, in order, after sending them in parallel as one atomic unit.
+     *
+     * @param world the SimpleWorld to send the Batch to
+     * @param batch the Batch to send
+     * @return the effects of the Batch, wrapped in a Value
+     */
+    public Value<SimpleWorld, List<Object>> send(SimpleWorld world, Batch batch) {
+        if (world.recorder() != null || world.metrics() != null || batch.size() < 2) return world.send(batch);
+        
+        Block block = new Block(world, batch);
+        int workers = Math.min(pool.getParallelism(), batch.size());
+        
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) tasks.add(pool.submit(block::work));
+        for (ForkJoinTask<?> task : tasks) task.join();
+        
+        Object[][] writes = new Object[block.n][];
+        
+        for (int i = 0; i < block.n; i++) {
+            Throwable failure = block.failures[i];
+            
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            else if (failure instanceof Error) throw (Error) failure;
+            else if (failure != null) throw new IllegalStateException(failure);
+            
+            Map<Location, Write> w = block.writes[i];
+            Object[] triples = writes[i] = new Object[w.size() * 3];
+            int j = 0;
+            
+            for (Write write : w.values()) {
+                triples[j++] = write.location.id;
+                triples[j++] = write.obj;
+                triples[j++] = write.old;
+            }
+        }
+        
+        return world.install(writes, block.effects);
+    }
+    
+    /**
+     * The final obj and old state of an Object, after a Message
+     */
+    private static final class Write {
+        final Location location;
+        final Object obj;
+        final Object old;
+        
+        Write(Location location, Object obj, Object old) { this.location = location; this.obj = obj; this.old = old; }
+    }
+    
+    /**
+     * The Write of an execution of the Message at index, or an estimate (null) while the Message is executed again.
+     * Each execution records new Cells, so a Cell identifies the version that has been read.
+     */
+    private static final class Cell {
+        final int index;
+        final Write write;
+        
+        Cell(int index, Write write) { this.index = index; this.write = write; }
+    }
+    
+    /**
+     * The state of an Object in the SimpleWorld, and the Cells of the Messages that write it, ordered by index
+     */
+    private static final class Location {
+        final Object id;
+        volatile Write base;
+        
+        private Cell[] cells = new Cell[2];
+        private int size = 0;
+        
+        Location(Object id) { this.id = id; }
+        
+        private int search(int index) {
+            int lo = 0, hi = size - 1;
+            
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = cells[mid].index;
+                
+                if (c < index) lo = mid + 1;
+                else if (c > index) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+        
+        /**
+         * Returns the last Cell before index, or null when the state in the SimpleWorld is read
+         */
+        synchronized Cell lower(int index) {
+            int i = search(index);
+            int before = (i >= 0 ? i : -i - 1) - 1;
+            return before >= 0 ? cells[before] : null;
+        }
+        
+        synchronized void put(Cell cell) {
+            int i = search(cell.index);
+            
+            if (i >= 0) cells[i] = cell;
+            else {
+                i = -i - 1;
+                if (size == cells.length) cells = Arrays.copyOf(cells, size * 2);
+                System.arraycopy(cells, i, cells, i + 1, size - i);
+                cells[i] = cell;
+                size++;
+            }
+        }
+        
+        synchronized void remove(int index) {
+            int i = search(index);
+            
+            if (i >= 0) {
+                System.arraycopy(cells, i + 1, cells, i, size - i - 1);
+                cells[--size] = null;
+            }
+        }
+    }
+    
+    /**
+     * A read of an Object by a Message, and the Cell that has been read (null for the state in the SimpleWorld)
+     */
+    private static final class Read {
+        final Cell cell;
+        final Write write;
+        
+        Read(Cell cell, Write write) { this.cell = cell; this.write = write; }
+    }
+    
+    /**
+     * Thrown when a Message reads an estimate
+     */
+    private static final class Blocked extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Blocked BLOCKED = new Blocked();
+        
+        private Blocked() { super("Blocked by an earlier Message", null, false, false); }
+    }
+    
+    /**
+     * The execution status of a Message, and the Messages that wait for it
+     */
+    private static final class Status {
+        int incarnation = 0;
+        int status = READY;
+        List<Integer> dependents = new ArrayList<>();
+    }
+    
+    /**
+     * The multi-version memory and the (collaborative) scheduler of a block
+     */
+    private final class Block {
+        final SimpleWorld world;
+        final Contracts contracts;
+        final int n;
+        final Id<Object>[] ids;
+        final Message<Id<Object>, Object, Object>[] msgs;
+        
+        final ConcurrentHashMap<Object, Location> locations;
+        
+        final Status[] statuses;
+        final Map<Location, Write>[] writes;
+        final Read[][] reads;
+        final Object[] effects;
+        final Throwable[] failures;
+        
+        final AtomicInteger executionIdx = new AtomicInteger();
+        final AtomicInteger validationIdx = new AtomicInteger();
+        final AtomicInteger decreaseCnt = new AtomicInteger();
+        final AtomicInteger activeTasks = new AtomicInteger();
+        volatile boolean done = false;
+        
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Block(SimpleWorld world, Batch batch) {
+            this.world = world;
+            this.contracts = world.contracts();
+            this.n = batch.size();
+            this.locations = new ConcurrentHashMap<>(n * 4);
+            this.ids = new Id[n];
+            this.msgs = new Message[n];
+            this.statuses = new Status[n];
+            this.writes = new Map[n];
+            this.reads = new Read[n][];
+            this.effects = new Object[n];
+            this.failures = new Throwable[n];
+            
+            for (int i = 0; i < n; i++) {
+                ids[i] = batch.id(i);
+                msgs[i] = batch.msg(i);
+                statuses[i] = new Status();
+            }
+        }
+        
+        void work() {
+            try {
+                long task = NONE;
+                
+                while (!done) {
+                    if (task != NONE && !validation(task)) task = execute(index(task), incarnation(task));
+                    if (task != NONE && validation(task)) task = validate(index(task), incarnation(task));
+                    if (task == NONE && (task = next()) == NONE) Thread.yield();
+                }
+            }
+            catch (Throwable e) {
+                done = true;   // don't let the other workers wait forever
+                throw e;
+            }
+        }
+        
+        // a task is encoded as: index (31 bits), incarnation (31 bits), validation (1 bit)
+        
+        long task(int index, int incarnation, boolean validation) {
+            return ((long) index << 32) | ((long) incarnation << 1) | (validation ? 1 : 0);
+        }
+        
+        int index(long task) { return (int) (task >>> 32); }
+        int incarnation(long task) { return (int) (task >>> 1) & Integer.MAX_VALUE; }
+        boolean validation(long task) { return (task & 1) != 0; }
+        
+        // Execution
+        
+        long execute(int i, int incarnation) {
+            while (true) {
+                Txn txn = new Txn(this, i);
+                Object eff = null;
+                Throwable failure = null;
+                
+                try { eff = txn.dispatch(ids[i], msgs[i]); }
+                catch (Throwable e) { failure = e; }
+                
+                if (txn.blocked >= 0) {
+                    aborts.increment();
+                    if (dependOn(i, txn.blocked)) return NONE;
+                    else continue;   // the blocking Message has been executed in the meantime
+                }
+                
+                effects[i] = eff;
+                failures[i] = failure;
+                
+                boolean wroteNew = record(i, txn, failure == null ? txn.writes : Collections.emptyMap());
+                return executed(i, incarnation, wroteNew);
+            }
+        }
+        
+        Location location(Object id) {
+            Location l = locations.get(id);
+            return l != null ? l : locations.computeIfAbsent(id, Location::new);
+        }
+        
+        /**
+         * Returns the state of an Object in the SimpleWorld, which is only read (once) under its lock
+         */
+        Write base(Location location) {
+            Write w = location.base;
+            if (w != null) return w;
+            
+            synchronized (world) {
+                if (location.base == null) {
+                    Id<?> id = (Id<?>) location.id;
+                    location.base = new Write(location, world.obj(id).value(), world.old(id).value());
+                }
+                return location.base;
+            }
+        }
+        
+        /**
+         * Records the reads and writes of an execution
+         *
+         * @return whether an Object has been written that the previous execution didn't write
+         */
+        boolean record(int i, Txn txn, Map<Location, Write> written) {
+            for (Write w : written.values()) w.location.put(new Cell(i, w));
+            
+            Map<Location, Write> previous = writes[i];
+            boolean wroteNew = false;
+            
+            if (previous != null) {
+                for (Location l : previous.keySet()) { if (!written.containsKey(l)) l.remove(i); }
+            }
+            for (Location l : written.keySet()) { if (previous == null || !previous.containsKey(l)) wroteNew = true; }
+            
+            writes[i] = written;
+            reads[i] = txn.reads.values().toArray(new Read[0]);
+            
+            return wroteNew;
+        }
+        
+        // Validation
+        
+        long validate(int i, int incarnation) {
+            boolean aborted = !valid(i) && abort(i, incarnation);
+            
+            if (aborted) {
+                aborts.increment();
+                for (Location l : writes[i].keySet()) l.put(new Cell(i, null));   // estimates
+            }
+            return validated(i, aborted);
+        }
+        
+        boolean valid(int i) {
+            for (Read read : reads[i]) { if (read.write.location.lower(i) != read.cell) return false; }
+            return true;
+        }
+        
+        // Scheduling
+        
+        long next() {
+            if (validationIdx.get() < executionIdx.get()) {
+                if (validationIdx.get() >= n) { checkDone(); return NONE; }
+                
+                activeTasks.incrementAndGet();
+                int i = validationIdx.getAndIncrement();
+                
+                if (i < n) {
+                    Status s = statuses[i];
+                    synchronized (s) { if (s.status == EXECUTED) return task(i, s.incarnation, true); }
+                }
+                activeTasks.decrementAndGet();
+            }
+            else {
+                if (executionIdx.get() >= n) { checkDone(); return NONE; }
+                
+                activeTasks.incrementAndGet();
+                long task = incarnate(executionIdx.getAndIncrement());
+                if (task != NONE) return task;
+            }
+            return NONE;
+        }
+        
+        void checkDone() {
+            int observed = decreaseCnt.get();
+            
+            if (Math.min(executionIdx.get(), validationIdx.get()) >= n && activeTasks.get() == 0 &&
+                observed == decreaseCnt.get()) done = true;
+        }
+        
+        long incarnate(int i) {
+            if (i < n) {
+                Status s = statuses[i];
+                
+                synchronized (s) {
+                    if (s.status == READY) {
+                        s.status = EXECUTING;
+                        return task(i, s.incarnation, false);
+                    }
+                }
+            }
+            activeTasks.decrementAndGet();
+            return NONE;
+        }
+        
+        /**
+         * Lets Message i wait for the blocking Message, unless that has been executed already
+         */
+        boolean dependOn(int i, int blocking) {
+            Status b = statuses[blocking];
+            
+            synchronized (b) {
+                if (b.status == EXECUTED) return false;
+                
+                Status s = statuses[i];
+                synchronized (s) { s.status = ABORTING; }
+                b.dependents.add(i);
+            }
+            activeTasks.decrementAndGet();
+            return true;
+        }
+        
+        void ready(int i) {
+            Status s = statuses[i];
+            synchronized (s) { s.incarnation++; s.status = READY; }
+        }
+        
+        long executed(int i, int incarnation, boolean wroteNew) {
+            Status s = statuses[i];
+            List<Integer> dependents;
+            
+            synchronized (s) {
+                s.status = EXECUTED;
+                dependents = s.dependents;
+                s.dependents = new ArrayList<>();
+            }
+            
+            if (!dependents.isEmpty()) {
+                int min = n;
+                for (int d : dependents) { ready(d); min = Math.min(min, d); }
+                decreaseExecutionIdx(min);
+            }
+            
+            if (validationIdx.get() > i) {
+                if (wroteNew) decreaseValidationIdx(i);
+                else return task(i, incarnation, true);
+            }
+            activeTasks.decrementAndGet();
+            return NONE;
+        }
+        
+        boolean abort(int i, int incarnation) {
+            Status s = statuses[i];
+            
+            synchronized (s) {
+                if (s.incarnation == incarnation && s.status == EXECUTED) { s.status = ABORTING; return true; }
+                else return false;
+            }
+        }
+        
+        long validated(int i, boolean aborted) {
+            if (aborted) {
+                ready(i);
+                decreaseValidationIdx(i + 1);
+                
+                if (executionIdx.get() > i) {
+                    activeTasks.incrementAndGet();   // handed over to the execution task
+                    long task = incarnate(i);
+                    if (task != NONE) { activeTasks.decrementAndGet(); return task; }
+                }
+            }
+            activeTasks.decrementAndGet();
+            return NONE;
+        }
+        
+        void decreaseExecutionIdx(int target) {
+            executionIdx.accumulateAndGet(target, Math::min);
+            decreaseCnt.incrementAndGet();
+        }
+        
+        void decreaseValidationIdx(int target) {
+            validationIdx.accumulateAndGet(target, Math::min);
+            decreaseCnt.incrementAndGet();
+        }
+    }
+    
+    /**
+     * The reads and writes of an execution of a Message, including its nested sends
+     */
+    private static final class Txn {
+        final Block block;
+        final int index;
+        final HashMap<Location, Read> reads = new HashMap<>();
+        final HashMap<Location, Write> writes = new HashMap<>();
+        final ArrayList<Object> undo = new ArrayList<>();
+        int blocked = -1;
+        
+        Txn(Block block, int index) { this.block = block; this.index = index; }
+        
+        /**
+         * Returns the state of an Object as seen by this Message. Each Object is read once, so that all reads are
+         * consistent.
+         */
+        Write read(Object id) { return read(block.location(id)); }
+        
+        Write read(Location location) {
+            Write w = writes.get(location);
+            if (w != null) return w;
+            
+            Read r = reads.get(location);
+            if (r != null) return r.write;
+            
+            Cell cell = location.lower(index);
+            
+            if (cell == null) r = new Read(null, block.base(location));
+            else if (cell.write == null) {
+                blocked = cell.index;
+                throw Blocked.BLOCKED;
+            }
+            else r = new Read(cell, cell.write);
+            
+            reads.put(location, r);
+            return r.write;
+        }
+        
+        void write(Location location, Object obj, Object old) {
+            undo.add(location);
+            undo.add(writes.put(location, new Write(location, obj, old)));
+        }
+        
+        void rollback(int mark) {
+            for (int i = undo.size() - 2; i >= mark; i -= 2) {
+                Location location = (Location) undo.get(i);
+                Write previous = (Write) undo.get(i + 1);
+                
+                if (previous == null) writes.remove(location);
+                else writes.put(location, previous);
+            }
+            undo.subList(mark, undo.size()).clear();
+        }
+        
+        @SuppressWarnings("unchecked")
+        <I extends Id<O>, O, E> E dispatch(I id, Message<I, O, E> message) {
+            Contracts contracts = block.contracts;
+            Location location = block.location(id);
+            BlockEnv<I, O, E> env = new BlockEnv<>(this, id, location);
+            try {
+                O oldObj = (O) read(location).obj;
+                
+                Msg<I, O, E> msg = message.msg(env);
+                Contracts.Level level = contracts.level(message);
+                
+                if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+                else {
+                    int mark = undo.size();
+                    
+                    try {
+                        write(location, msg.app().get(), oldObj);
+                        E eff = msg.eff().get();
+                        write(location, read(location).obj, oldObj);   // put it again because of recursive sends to self
+                        
+                        if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                        else return eff;
+                    }
+                    catch (Throwable e) {
+                        rollback(mark);   // Rollback all writes, including nested sends
+                        throw e;
+                    }
+                }
+            }
+            finally { message.release(env); }
+        }
+    }
+    
+    private static class BlockEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private final Txn txn;
+        private final I self;
+        private final Location location;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        public BlockEnv(Txn txn, I self, Location location) {
+            this.txn = txn;
+            this.self = self;
+            this.location = location;
+        }
+        
+        @Override public I self() { return self; }
+        @SuppressWarnings("unchecked")
+        @Override public O obj() { return (O) txn.read(location).obj; }
+        @SuppressWarnings("unchecked")
+        @Override public O old() { return (O) txn.read(location).old; }
+        @SuppressWarnings("unchecked")
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return (O2) txn.read(id).obj; }
+        @SuppressWarnings("unchecked")
+        @Override public <O2> O2 old(Id<? extends O2> id) { return (O2) txn.read(id).old; }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            return txn.dispatch(id, msg);
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
@@ -0,0 +1,147 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.Message;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A Contracts policy determines which pre- and post-conditions a World checks, in the spirit of Eiffel's assertion
+ * levels. The policy has a default {@link Level}, that can be overridden per Message class.</p>
+ * <p>Checking all contracts is valuable during testing, but post-conditions that compare old and new states can be
+ * expensive in production. Skipped and failed checks are counted.</p>
+ *
+ * <p>Note that skipping a pre-condition lets a Message apply to an Object it would otherwise be refused by.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * SimpleWorld world = new SimpleWorld().contracts(
+ *      new Contracts(Contracts.Level.SAMPLED, 0.01).
+ *      level(Withdraw.class, Contracts.Level.FULL)
+ * );
+ * }</pre>
+ */
+public final class Contracts {
+    /**
+     * The contracts that are checked
+     */
+    public enum Level {
+        /**
+         * Checks all pre- and post-conditions
+         */
+        FULL,
+        /**
+         * Checks pre-conditions only
+         */
+        PRE,
+        /**
+         * Checks all pre-conditions, and a random sample of post-conditions
+         */
+        SAMPLED,
+        /**
+         * Checks nothing
+         */
+        OFF
+    }
+    
+    private final Level level;
+    private final double sampleRate;
+    private volatile HashMap<Class<?>, Level> overrides = new HashMap<>();   // copy on write
+    
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    /**
+     * Creates a Contracts policy that checks all contracts
+     */
+    public Contracts() { this(Level.FULL); }
+    
+    /**
+     * Creates a Contracts policy, that samples 1% of all post-conditions at the SAMPLED Level
+     *
+     * @param level the default Level
+     */
+    public Contracts(Level level) { this(level, 0.01); }
+    
+    /**
+     * Creates a Contracts policy
+     *
+     * @param level      the default Level
+     * @param sampleRate the fraction of post-conditions that are checked at the SAMPLED Level
+     */
+    public Contracts(Level level, double sampleRate) {
+        if (sampleRate < 0.0 || sampleRate > 1.0) throw new IllegalArgumentException("Sample rate should be in [0, 1]");
+        
+        this.level = level;
+        this.sampleRate = sampleRate;
+    }
+    
+    /**
+     * Overrides the Level for (exactly) the given Message class
+     *
+     * @param type  the Message class
+     * @param level the Level
+     * @return this Contracts policy
+     */
+    @SuppressWarnings("rawtypes")
+    public synchronized Contracts level(Class<? extends Message> type, Level level) {
+        HashMap<Class<?>, Level> copy = new HashMap<>(overrides);
+        copy.put(type, level);
+        overrides = copy;
+        return this;
+    }
+    
+    /**
+     * Returns the Level for a Message
+     *
+     * @param message the Message
+     * @return the Level
+     */
+    public Level level(Message<?, ?, ?> message) {
+        HashMap<Class<?>, Level> o = overrides;
+        if (o.isEmpty()) return level;
+        
+        Level l = o.get(message.getClass());
+        return l != null ? l : level;
+    }
+    
+    /**
+     * Returns the number of pre- and post-conditions that have been skipped
+     *
+     * @return the number of skipped checks
+     */
+    public long skipped() { return skipped.sum(); }
+    
+    /**
+     * Returns the number of pre- and post-conditions that have failed
+     *
+     * @return the number of failed checks
+     */
+    public long failed() { return failed.sum(); }
+    
+    /**
+     * Returns whether the pre-condition of a Message should be checked, given its Level
+     */
+    boolean pre(Level l) {
+        if (l != Level.OFF) return true;
+        else { skipped.increment(); return false; }
+    }
+    
+    /**
+     * Returns whether the post-condition of a Message should be checked, given its Level
+     */
+    boolean pst(Level l) {
+        if (l == Level.FULL || (l == Level.SAMPLED && ThreadLocalRandom.current().nextDouble() < sampleRate)) return true;
+        else { skipped.increment(); return false; }
+    }
+    
+    /**
+     * Counts a failed check, and returns the exception to throw
+     */
+    RuntimeException failed(String reason) {
+        failed.increment();
+        return new RuntimeException(reason);
+    }
+}
@@ -0,0 +1,271 @@
+package org.jmanikin.world;
+
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A HashTrie is an immutable (persistent) Hash Array Mapped Trie, that maps keys to values.</p>
+ * <p>Every update returns a new HashTrie that structurally shares all untouched nodes with its predecessor,
+ * so an update only copies the (at most seven) nodes on the path to the updated key.</p>
+ *
+ * <p>Nodes follow the compressed (CHAMP) layout: key/value pairs are stored in front of the content array,
+ * sub nodes are stored (in reverse) at the back of the content array.</p>
+ */
+final class HashTrie {
+    static final HashTrie EMPTY = new HashTrie(BitmapNode.EMPTY);
+    
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    
+    private final Node root;
+    
+    private HashTrie(Node root) { this.root = root; }
+    
+    /**
+     * Returns the value that is mapped to key, or null when there is no such mapping
+     *
+     * @param key the key
+     * @return the value, or null
+     */
+    Object get(Object key) { return root.get(key, hash(key), 0); }
+    
+    /**
+     * Returns a new HashTrie that maps key to value
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the new HashTrie
+     */
+    HashTrie put(Object key, Object value) {
+        Node r = root.put(key, hash(key), value, 0);
+        return r == root ? this : new HashTrie(r);
+    }
+    
+    /**
+     * Returns a new HashTrie without a mapping for key
+     *
+     * @param key the key
+     * @return the new HashTrie
+     */
+    HashTrie remove(Object key) {
+        Node r = root.remove(key, hash(key), 0);
+        return r == root ? this : new HashTrie(r);
+    }
+    
+    /**
+     * Calls action for every key/value pair, in no particular order
+     *
+     * @param action the action to call
+     */
+    void forEach(BiConsumer<Object, Object> action) { root.forEach(action); }
+    
+    private static int hash(Object key) { int h = key.hashCode(); return h ^ (h >>> 16); }
+    
+    private static abstract class Node {
+        abstract Object get(Object key, int hash, int shift);
+        abstract Node put(Object key, int hash, Object value, int shift);
+        abstract Node remove(Object key, int hash, int shift);
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+    
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+        
+        final int dataMap;
+        final int nodeMap;
+        final Object[] content;
+        
+        BitmapNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap; this.nodeMap = nodeMap; this.content = content;
+        }
+        
+        int dataIndex(int bit) { return 2 * Integer.bitCount(dataMap & (bit - 1)); }
+        int nodeIndex(int bit) { return content.length - 1 - Integer.bitCount(nodeMap & (bit - 1)); }
+        
+        boolean isSingleEntry() { return nodeMap == 0 && Integer.bitCount(dataMap) == 1; }
+        
+        @Override Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                return key.equals(content[i]) ? content[i + 1] : null;
+            }
+            else if ((nodeMap & bit) != 0) return ((Node) content[nodeIndex(bit)]).get(key, hash, shift + BITS);
+            else return null;
+        }
+        
+        @Override Node put(Object key, int hash, Object value, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                Object k = content[i];
+                
+                if (key.equals(k)) {
+                    if (content[i + 1] == value) return this;
+                    
+                    Object[] c = content.clone();
+                    c[i + 1] = value;
+                    return new BitmapNode(dataMap, nodeMap, c);
+                }
+                else {
+                    Node sub = merge(k, hash(k), content[i + 1], key, hash, value, shift + BITS);
+                    return dataToNode(bit, sub);
+                }
+            }
+            else if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                Node sub = (Node) content[i];
+                Node newSub = sub.put(key, hash, value, shift + BITS);
+                
+                if (newSub == sub) return this;
+                
+                Object[] c = content.clone();
+                c[i] = newSub;
+                return new BitmapNode(dataMap, nodeMap, c);
+            }
+            else {
+                int i = dataIndex(bit);
+                Object[] c = new Object[content.length + 2];
+                System.arraycopy(content, 0, c, 0, i);
+                c[i] = key;
+                c[i + 1] = value;
+                System.arraycopy(content, i, c, i + 2, content.length - i);
+                return new BitmapNode(dataMap | bit, nodeMap, c);
+            }
+        }
+        
+        @Override Node remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                if (!key.equals(content[i])) return this;
+                
+                Object[] c = new Object[content.length - 2];
+                System.arraycopy(content, 0, c, 0, i);
+                System.arraycopy(content, i + 2, c, i, content.length - i - 2);
+                return new BitmapNode(dataMap ^ bit, nodeMap, c);
+            }
+            else if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                Node sub = (Node) content[i];
+                Node newSub = sub.remove(key, hash, shift + BITS);
+                
+                if (newSub == sub) return this;
+                else if (newSub instanceof BitmapNode && ((BitmapNode) newSub).isSingleEntry()) {
+                    // inline a single remaining entry, to keep the trie canonical
+                    BitmapNode single = (BitmapNode) newSub;
+                    return nodeToData(bit, single.content[0], single.content[1]);
+                }
+                else {
+                    Object[] c = content.clone();
+                    c[i] = newSub;
+                    return new BitmapNode(dataMap, nodeMap, c);
+                }
+            }
+            else return this;
+        }
+        
+        @Override void forEach(BiConsumer<Object, Object> action) {
+            int data = 2 * Integer.bitCount(dataMap);
+            
+            for (int i = 0; i < data; i += 2) action.accept(content[i], content[i + 1]);
+            for (int i = data; i < content.length; i++) ((Node) content[i]).forEach(action);
+        }
+        
+        private Node dataToNode(int bit, Node sub) {
+            int di = dataIndex(bit);
+            int ni = content.length - 2 - Integer.bitCount(nodeMap & (bit - 1));
+            
+            Object[] c = new Object[content.length - 1];
+            System.arraycopy(content, 0, c, 0, di);
+            System.arraycopy(content, di + 2, c, di, ni - di);
+            c[ni] = sub;
+            System.arraycopy(content, ni + 2, c, ni + 1, content.length - ni - 2);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, c);
+        }
+        
+        private Node nodeToData(int bit, Object key, Object value) {
+            int di = 2 * Integer.bitCount(dataMap & (bit - 1));
+            int ni = nodeIndex(bit);
+            
+            Object[] c = new Object[content.length + 1];
+            System.arraycopy(content, 0, c, 0, di);
+            c[di] = key;
+            c[di + 1] = value;
+            System.arraycopy(content, di, c, di + 2, ni - di);
+            System.arraycopy(content, ni + 1, c, ni + 2, content.length - ni - 1);
+            return new BitmapNode(dataMap | bit, nodeMap ^ bit, c);
+        }
+    }
+    
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] content;
+        
+        CollisionNode(int hash, Object[] content) { this.hash = hash; this.content = content; }
+        
+        private int index(Object key) {
+            for (int i = 0; i < content.length; i += 2) if (key.equals(content[i])) return i;
+            return -1;
+        }
+        
+        @Override Object get(Object key, int hash, int shift) {
+            int i = index(key);
+            return i < 0 ? null : content[i + 1];
+        }
+        
+        @Override Node put(Object key, int hash, Object value, int shift) {
+            int i = index(key);
+            
+            if (i >= 0) {
+                if (content[i + 1] == value) return this;
+                
+                Object[] c = content.clone();
+                c[i + 1] = value;
+                return new CollisionNode(hash, c);
+            }
+            else {
+                Object[] c = new Object[content.length + 2];
+                System.arraycopy(content, 0, c, 0, content.length);
+                c[content.length] = key;
+                c[content.length + 1] = value;
+                return new CollisionNode(hash, c);
+            }
+        }
+        
+        @Override Node remove(Object key, int hash, int shift) {
+            int i = index(key);
+            if (i < 0) return this;
+            else if (content.length == 4) {
+                // a single remaining entry will be inlined by the parent
+                int j = 2 - i;
+                return new BitmapNode(1, 0, new Object[]{ content[j], content[j + 1] });
+            }
+            else {
+                Object[] c = new Object[content.length - 2];
+                System.arraycopy(content, 0, c, 0, i);
+                System.arraycopy(content, i + 2, c, i, content.length - i - 2);
+                return new CollisionNode(hash, c);
+            }
+        }
+        
+        @Override void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < content.length; i += 2) action.accept(content[i], content[i + 1]);
+        }
+    }
+    
+    private static Node merge(Object k1, int h1, Object v1, Object k2, int h2, Object v2, int shift) {
+        if (shift >= 32) return new CollisionNode(h1, new Object[]{ k1, v1, k2, v2 });
+        
+        int b1 = (h1 >>> shift) & MASK;
+        int b2 = (h2 >>> shift) & MASK;
+        
+        if (b1 == b2) {
+            return new BitmapNode(0, 1 << b1, new Object[]{ merge(k1, h1, v1, k2, h2, v2, shift + BITS) });
+        }
+        else if (b1 < b2) return new BitmapNode((1 << b1) | (1 << b2), 0, new Object[]{ k1, v1, k2, v2 });
+        else return new BitmapNode((1 << b1) | (1 << b2), 0, new Object[]{ k2, v2, k1, v1 });
+    }
+}
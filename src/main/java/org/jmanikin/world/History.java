@@ -0,0 +1,168 @@
+package org.jmanikin.world;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>A History keeps the (obj and old) states of all Objects that have been written by the last H (the horizon)
+ * versions of a World, so that they can be read as of any retained version. Each committed top-level send (or Batch)
+ * is a version. An old state that is evicted by the Retention policy counts as a write of that state.</p>
+ * <p>The states of an Object are kept in a chain that is ordered by version, so a state is looked up with a binary
+ * search. An Object without a chain has not been written by any retained version, so its states equal its current
+ * states.</p>
+ * <p>When a version falls beyond the horizon, the chains of the Objects it has written are compacted: all states that
+ * have been superseded at the oldest retained version are dropped. So memory is proportional to the number of writes
+ * within the horizon.</p>
+ */
+final class History {
+    /**
+     * Returned by get when an Object has not been written by any retained version
+     */
+    static final Object CURRENT = new Object();
+    
+    /**
+     * Returned by get when an Object was absent (pristine) at a version
+     */
+    static final Object ABSENT = new Object();
+    
+    private final long horizon;
+    private final Store chains = new Store();
+    private final ArrayDeque<Object[]> written = new ArrayDeque<>();   // the ids changed by each retained version
+    private final ArrayList<Object> evicted = new ArrayList<>();       // the ids evicted by the next version
+    
+    History(long horizon) { this.horizon = horizon; }
+    
+    /**
+     * Records that the old state of an Object is evicted by the Retention policy of the next version, so that it
+     * equals its obj state from that version on
+     *
+     * @param version the next version
+     * @param id      the id
+     * @param obj     the (masked) obj state
+     * @param old     the (masked) old state that is evicted
+     */
+    void evict(long version, Object id, Object obj, Object old) {
+        Chain chain = (Chain) chains.get(id);
+        
+        if (chain == null) {
+            chain = new Chain(version - 1, obj, old);   // the states before
+            chains.put(id, chain);
+        }
+        
+        if (chain.add(version, obj, null)) evicted.add(id);
+    }
+    
+    /**
+     * Records the writes of a committed version, after the Retention policy has been applied
+     *
+     * @param version the version
+     * @param undo    the undo log of the version: id, previous obj (null if absent), previous old (null if equal)
+     * @param size    the size of the undo log
+     * @param obj     the (masked) current Objects
+     * @param old     the (masked) current old Objects
+     */
+    void commit(long version, Object[] undo, int size, Store obj, Store old) {
+        Object[] ids = new Object[size / 3 + evicted.size()];
+        int n = 0;
+        
+        for (int i = 0; i < size; i += 3) {
+            Object id = undo[i];
+            Chain chain = (Chain) chains.get(id);
+            
+            if (chain == null) {
+                chain = new Chain(version - 1, undo[i + 1] != null ? undo[i + 1] : ABSENT, undo[i + 2]);
+                chains.put(id, chain);
+            }
+            
+            if (chain.add(version, obj.get(id), old.get(id))) ids[n++] = id;   // only the first write in a version
+        }
+        
+        for (Object id : evicted) ids[n++] = id;
+        evicted.clear();
+        
+        written.add(n == ids.length ? ids : Arrays.copyOf(ids, n));
+        
+        long floor = version - horizon;
+        while (written.size() > horizon) compact(written.poll(), floor);
+    }
+    
+    private void compact(Object[] ids, long floor) {
+        for (Object id : ids) {
+            Chain chain = (Chain) chains.get(id);
+            if (chain != null && chain.compact(floor)) chains.remove(id);
+        }
+    }
+    
+    /**
+     * Returns the (masked) obj or old state of an Object as of a retained version
+     *
+     * @return the state, ABSENT or CURRENT
+     */
+    Object get(Object id, long version, boolean old) {
+        Chain chain = (Chain) chains.get(id);
+        return chain == null ? CURRENT : chain.get(version, old);
+    }
+    
+    /**
+     * The (obj, old) states of an Object, ordered by version. The first states are the states before the first
+     * retained write. A null old state equals the obj state.
+     */
+    private static final class Chain {
+        long[] versions = new long[2];   // most chains hold the states before a single write
+        Object[] objs = new Object[2];
+        Object[] olds = new Object[2];
+        int start = 0;
+        int end = 0;
+        
+        Chain(long version, Object o, Object old) { append(version, o, old); }
+        
+        boolean add(long version, Object o, Object old) {
+            if (versions[end - 1] == version) { objs[end - 1] = o; olds[end - 1] = old; return false; }
+            else { append(version, o, old); return true; }
+        }
+        
+        private void append(long version, Object o, Object old) {
+            if (end == versions.length) {
+                int size = end - start;
+                
+                if (size * 2 <= versions.length) {   // slide over the compacted states
+                    System.arraycopy(versions, start, versions, 0, size);
+                    System.arraycopy(objs, start, objs, 0, size);
+                    System.arraycopy(olds, start, olds, 0, size);
+                    Arrays.fill(objs, size, end, null);
+                    Arrays.fill(olds, size, end, null);
+                }
+                else {
+                    versions = Arrays.copyOfRange(versions, start, start + size * 2);
+                    objs = Arrays.copyOfRange(objs, start, start + size * 2);
+                    olds = Arrays.copyOfRange(olds, start, start + size * 2);
+                }
+                
+                start = 0;
+                end = size;
+            }
+            
+            versions[end] = version;
+            objs[end] = o;
+            olds[end++] = old;
+        }
+        
+        Object get(long version, boolean old) {
+            int i = Arrays.binarySearch(versions, start, end, version);
+            if (i < 0) i = Math.max(start, -i - 2);   // the last state at or before the version
+            
+            return old && olds[i] != null ? olds[i] : objs[i];
+        }
+        
+        /**
+         * Drops the states that have been superseded at the floor version
+         *
+         * @return whether only a state before the floor is left, which is the current state
+         */
+        boolean compact(long floor) {
+            while (end - start > 1 && versions[start + 1] <= floor) { objs[start] = null; olds[start++] = null; }
+            return end - start == 1 && versions[start] <= floor;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A JournalWorld decorates another World, and durably appends every committed top-level send (the Id and the
+ * Message) to an append-only journal file. When a JournalWorld is opened, its journal is replayed into the (pristine)
+ * decorated World. A Batch is appended as a single record, and is replayed atomically.</p>
+ * <p>Sends are ordered by a single lock, so that the journal order is the commit order. As a consequence, a
+ * JournalWorld can be shared between multiple Threads, even when the decorated World cannot.</p>
+ * <p>Ids and Messages are written with the given {@link Codecs}, so Ids need proper equals and hashCode methods to
+ * identify the same Objects after replay.</p>
+ *
+ * <p>The {@link Durability} determines when a send returns:</p>
+ * <ul>
+ * <li>COMMIT: after its own fsync
+ * <li>BATCH: after an fsync that is shared by all concurrently committed sends (group commit)
+ * <li>INTERVAL: immediately, while a background Thread fsyncs at a fixed interval
+ * </ul>
+ * <p>State that is not (yet) durable can be observed by other sends.</p>
+ *
+ * <p>An asynchronous send commits in the same way, but doesn't wait for its fsync. Instead, a background Thread
+ * fsyncs all records that have been committed in the meantime, and then completes their stages. So a single Thread
+ * can pipeline many sends, and share an fsync between them.</p>
+ *
+ * @param <W> the decorated World type
+ */
+public class JournalWorld<W extends World<W>> implements World<JournalWorld<W>>, Closeable {
+    /**
+     * The moment at which a committed send is durable
+     */
+    public enum Durability { COMMIT, BATCH, INTERVAL }
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final Codecs codecs;
+    private final Durability durability;
+    private final long intervalMillis;
+    private final ScheduledExecutorService syncer;
+    
+    private final Object lock = new Object();        // orders sends and appends
+    private final Object flushLock = new Object();   // elects the leader of a group commit
+    
+    private volatile W world;   // written under the lock, read without it by snapshot()
+    private Buffer pending = new Buffer();
+    private long appended = 0;
+    private volatile long durable = 0;
+    private volatile IOException failure = null;
+    
+    private final ArrayDeque<Completion> completions = new ArrayDeque<>();   // of asynchronous sends, in order
+    private Thread flusher = null;
+    private boolean closed = false;
+    
+    /**
+     * Opens a JournalWorld with BATCH durability
+     *
+     * @param path   the journal file
+     * @param world  the pristine World to replay the journal into
+     * @param codecs the Codecs for Ids and Messages
+     * @throws IOException when the journal cannot be opened or replayed
+     */
+    public JournalWorld(Path path, W world, Codecs codecs) throws IOException {
+        this(path, world, codecs, Durability.BATCH, 0);
+    }
+    
+    /**
+     * Opens a JournalWorld
+     *
+     * @param path           the journal file
+     * @param world          the pristine World to replay the journal into
+     * @param codecs         the Codecs for Ids and Messages
+     * @param durability     the Durability
+     * @param intervalMillis the fsync interval, for INTERVAL durability
+     * @throws IOException when the journal cannot be opened or replayed
+     */
+    public JournalWorld(Path path, W world, Codecs codecs, Durability durability, long intervalMillis) throws IOException {
+        if (durability == Durability.INTERVAL && intervalMillis <= 0) {
+            throw new IllegalArgumentException("INTERVAL durability requires a positive interval");
+        }
+        
+        this.path = path;
+        this.codecs = codecs;
+        this.durability = durability;
+        this.intervalMillis = intervalMillis;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        
+        try { this.world = replay(world); }
+        catch (IOException | RuntimeException e) { channel.close(); throw e; }
+        
+        if (durability != Durability.INTERVAL) syncer = null;
+        else {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Replays all complete records, and truncates a torn or corrupt tail
+     */
+    private W replay(W world) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        long size = channel.size();
+        long position = 0;
+        CRC32 crc = new CRC32();
+        
+        while (size - position >= 8) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > size - position - 8) break;
+            
+            byte[] record = new byte[length];
+            in.readFully(record);
+            
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) break;
+            
+            world = replay(world, record);
+            position += 8 + length;
+        }
+        
+        if (position < size) channel.truncate(position);
+        channel.position(position);
+        return world;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private W replay(W world, byte[] record) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(record);
+        DataInputStream in = new DataInputStream(bytes);
+        Batch batch = new Batch();
+        
+        while (bytes.available() > 0) {
+            batch.add((Id<Object>) codecs.read(in), (Message<Id<Object>, Object, Object>) codecs.read(in));
+        }
+        
+        try { return batch.size() == 1 ? world.send(batch.id(0), batch.msg(0)).world() : world.send(batch).world(); }
+        catch (RuntimeException e) { throw new IllegalStateException("Replay of journal " + path + " failed", e); }
+    }
+    
+    /**
+     * Returns the decorated World
+     *
+     * @return the decorated World
+     */
+    public W world() { synchronized (lock) { return world; } }
+    
+    @Override
+    public <O> Value<JournalWorld<W>, O> obj(Id<? extends O> id) {
+        synchronized (lock) { return new Value.ValueImpl<>(this, world.obj(id).value()); }
+    }
+    
+    @Override
+    public <O> Value<JournalWorld<W>, O> old(Id<? extends O> id) {
+        synchronized (lock) { return new Value.ValueImpl<>(this, world.old(id).value()); }
+    }
+    
+    /**
+     * Returns a snapshot of the decorated World, without taking the lock, so that it never waits for a send (or its
+     * fsync). So the snapshot of the decorated World should be thread-safe, such as that of a PersistentWorld.
+     */
+    @Override
+    public View snapshot() { return world.snapshot(); }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<JournalWorld<W>, E> send(I id, Message<I, O, E> msg) {
+        return commit(encode(id, msg), w -> w.send(id, msg));
+    }
+    
+    /**
+     * Sends a Batch to the decorated World, and appends all its Messages as a single record
+     */
+    @Override
+    public Value<JournalWorld<W>, List<Object>> send(Batch batch) {
+        Object[] pairs = new Object[batch.size() * 2];
+        
+        for (int i = 0; i < batch.size(); i++) { pairs[2 * i] = batch.id(i); pairs[2 * i + 1] = batch.msg(i); }
+        return commit(encode(pairs), w -> w.send(batch));
+    }
+    
+    private <E> Value<JournalWorld<W>, E> commit(byte[] record, Function<W, Value<W, E>> send) {
+        long sequence;
+        E eff;
+        
+        synchronized (lock) {
+            checkFailure();
+            if (closed) throw new IllegalStateException("Journal " + path + " is closed");
+            
+            Value<W, E> result = send.apply(world);   // nothing is journaled when the send fails
+            world = result.world();
+            eff = result.value();
+            
+            try {
+                if (durability == Durability.BATCH) pending.write(record);
+                else {
+                    write(ByteBuffer.wrap(record));
+                    if (durability == Durability.COMMIT) force();
+                }
+            }
+            catch (IOException e) { throw fail(e); }
+            
+            sequence = ++appended;
+        }
+        
+        if (durability == Durability.BATCH) awaitDurable(sequence);
+        return new Value.ValueImpl<>(this, eff);
+    }
+    
+    /**
+     * Sends a Message, and completes the returned stage when its record is durable (in a shared fsync)
+     */
+    @Override
+    public <I extends Id<O>, O, E> CompletionStage<Value<JournalWorld<W>, E>> sendAsync(I id, Message<I, O, E> msg) {
+        CompletableFuture<Value<JournalWorld<W>, E>> result = new CompletableFuture<>();
+        
+        try { commitAsync(encode(id, msg), w -> w.send(id, msg), result); }
+        catch (RuntimeException e) { result.completeExceptionally(e); }
+        
+        return result;
+    }
+    
+    /**
+     * Sends a Batch, and completes the returned stage when its record is durable (in a shared fsync)
+     */
+    @Override
+    public CompletionStage<Value<JournalWorld<W>, List<Object>>> sendAsync(Batch batch) {
+        CompletableFuture<Value<JournalWorld<W>, List<Object>>> result = new CompletableFuture<>();
+        Object[] pairs = new Object[batch.size() * 2];
+        
+        for (int i = 0; i < batch.size(); i++) { pairs[2 * i] = batch.id(i); pairs[2 * i + 1] = batch.msg(i); }
+        
+        try { commitAsync(encode(pairs), w -> w.send(batch), result); }
+        catch (RuntimeException e) { result.completeExceptionally(e); }
+        
+        return result;
+    }
+    
+    // like commit, but the fsync is left to the flusher
+    private <E> void commitAsync(byte[] record, Function<W, Value<W, E>> send,
+                                 CompletableFuture<Value<JournalWorld<W>, E>> result) {
+        synchronized (lock) {
+            checkFailure();
+            if (closed) throw new IllegalStateException("Journal " + path + " is closed");
+            
+            Value<W, E> r = send.apply(world);
+            world = r.world();
+            Value<JournalWorld<W>, E> value = new Value.ValueImpl<>(this, r.value());
+            
+            try {
+                if (durability == Durability.BATCH) pending.write(record);
+                else write(ByteBuffer.wrap(record));
+            }
+            catch (IOException e) { throw fail(e); }
+            
+            appended++;
+            
+            if (durability == Durability.INTERVAL) result.complete(value);
+            else {
+                completions.add(new Completion(appended, result, value));
+                
+                if (flusher == null) {
+                    flusher = new Thread(this::flusher, "journal-flush");
+                    flusher.setDaemon(true);
+                    flusher.start();
+                }
+                if (completions.size() == 1) lock.notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Fsyncs all committed records, and completes the stages of the asynchronous sends that have become durable
+     */
+    private void flusher() {
+        while (true) {
+            long sequence;
+            
+            synchronized (lock) {
+                while (completions.isEmpty() && !closed) {
+                    try { lock.wait(); }
+                    catch (InterruptedException e) { return; }
+                }
+                if (completions.isEmpty()) return;
+                sequence = completions.peekLast().sequence;
+            }
+            
+            try { awaitDurable(sequence); }
+            catch (RuntimeException e) { /* completes all stages exceptionally */ }
+            
+            complete();
+        }
+    }
+    
+    private void complete() {
+        ArrayDeque<Completion> done = new ArrayDeque<>();
+        
+        synchronized (lock) {
+            while (!completions.isEmpty() && (failure != null || completions.peek().sequence <= durable)) {
+                done.add(completions.poll());
+            }
+        }
+        
+        for (Completion c : done) {
+            if (failure == null) c.complete();
+            else c.result.completeExceptionally(new UncheckedIOException("Journal " + path + " failed", failure));
+        }
+    }
+    
+    // encodes Id/Message pairs into a record, outside of the lock and before anything is committed
+    private byte[] encode(Object... pairs) {
+        try {
+            Buffer payload = new Buffer();
+            DataOutputStream out = new DataOutputStream(payload);
+            
+            out.writeLong(0);   // reserve room for the length and checksum
+            for (Object o : pairs) codecs.write(o, out);
+            
+            byte[] record = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, 8, record.length - 8);
+            
+            ByteBuffer header = ByteBuffer.wrap(record);
+            header.putInt(record.length - 8);
+            header.putInt((int) crc.getValue());
+            return record;
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    /**
+     * Waits until a sequence is durable. The first Thread to arrive flushes and fsyncs all pending records, so that
+     * all Threads that committed in the meantime share a single fsync.
+     */
+    private void awaitDurable(long sequence) {
+        synchronized (flushLock) {
+            if (durable >= sequence) return;
+            
+            Buffer flush;
+            long flushed;
+            
+            synchronized (lock) {
+                checkFailure();
+                flush = pending;
+                flushed = appended;
+                pending = new Buffer();
+            }
+            
+            try {
+                write(ByteBuffer.wrap(flush.array(), 0, flush.size()));
+                force();
+                durable = flushed;
+            }
+            catch (IOException e) { throw fail(e); }
+        }
+    }
+    
+    /**
+     * Forces all written records to storage. Can be overridden, e.g. to simulate the latency of remote storage.
+     *
+     * @throws IOException when the records cannot be forced
+     */
+    protected void force() throws IOException { channel.force(false); }
+    
+    private void sync() {
+        try { if (failure == null) force(); }
+        catch (IOException e) { fail(e); }
+    }
+    
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+    
+    /**
+     * After a failed write, the decorated World is ahead of the journal, so all subsequent sends must fail.
+     */
+    private UncheckedIOException fail(IOException e) {
+        failure = e;
+        return new UncheckedIOException("Journal " + path + " failed", e);
+    }
+    
+    private void checkFailure() {
+        if (failure != null) throw new UncheckedIOException("Journal " + path + " failed", failure);
+    }
+    
+    /**
+     * Returns a pristine JournalWorld that journals to a new temporary file, next to this journal
+     *
+     * @return the pristine JournalWorld
+     */
+    @Override public JournalWorld<W> init() {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            Path file = Files.createTempFile(parent, "journal", ".log");
+            file.toFile().deleteOnExit();
+            return new JournalWorld<>(file, world.init(), codecs, durability, intervalMillis);
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    /**
+     * Flushes and fsyncs all pending records, and closes the journal
+     *
+     * @throws IOException when the journal cannot be flushed or closed
+     */
+    @Override public void close() throws IOException {
+        if (syncer != null) {   // a running sync must not force a closed channel
+            syncer.shutdown();
+            
+            try { syncer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); throw new InterruptedIOException(); }
+        }
+        
+        synchronized (flushLock) {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+                
+                try {
+                    if (failure == null) {
+                        write(ByteBuffer.wrap(pending.array(), 0, pending.size()));
+                        force();
+                        pending = new Buffer();
+                        durable = appended;
+                    }
+                }
+                finally { channel.close(); }
+            }
+        }
+        
+        complete();
+    }
+    
+    /**
+     * The stage of an asynchronous send, that is completed when its record is durable
+     */
+    private static final class Completion {
+        final long sequence;
+        final CompletableFuture<Object> result;
+        final Object value;
+        
+        @SuppressWarnings("unchecked")
+        <V> Completion(long sequence, CompletableFuture<V> result, V value) {
+            this.sequence = sequence;
+            this.result = (CompletableFuture<Object>) result;
+            this.value = value;
+        }
+        
+        void complete() { result.complete(value); }
+    }
+    
+    /**
+     * A ByteArrayOutputStream that exposes its array, to prevent copying
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        byte[] array() { return buf; }
+    }
+}
@@ -0,0 +1,118 @@
+package org.jmanikin.world;
+
+/**
+ * <p>A LongMap is an open-addressing hash map from primitive long keys to (non-null) values, with linear probing.</p>
+ * <p>Keys and values are stored in two parallel arrays, so an entry costs no objects. Removals shift the following
+ * entries back, so there are no tombstones.</p>
+ */
+final class LongMap {
+    private long[] keys = new long[16];
+    private Object[] values = new Object[16];
+    private int size = 0;
+    
+    /**
+     * Returns the value of key, or null when there is no such value
+     *
+     * @param key the key
+     * @return the value, or null
+     */
+    Object get(long key) {
+        int mask = keys.length - 1;
+        
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Object v = values[i];
+            if (v == null || keys[i] == key) return v;
+        }
+    }
+    
+    /**
+     * Maps key to a (non-null) value
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value, or null
+     */
+    Object put(long key, Object value) {
+        int mask = keys.length - 1;
+        
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Object v = values[i];
+            
+            if (v == null) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > (keys.length >>> 2) * 3) resize();   // load factor <= 0.75
+                return null;
+            }
+            else if (keys[i] == key) {
+                values[i] = value;
+                return v;
+            }
+        }
+    }
+    
+    /**
+     * Removes the value of key
+     *
+     * @param key the key
+     * @return the removed value, or null
+     */
+    Object remove(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        
+        while (values[i] != null && keys[i] != key) i = (i + 1) & mask;
+        
+        Object removed = values[i];
+        if (removed == null) return null;
+        
+        // shift back all following entries that would otherwise become unreachable
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int s = slot(keys[j], mask);
+            
+            if (((j - s) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        
+        values[i] = null;
+        size--;
+        return removed;
+    }
+    
+    /**
+     * Returns the number of entries
+     *
+     * @return the size
+     */
+    int size() { return size; }
+    
+    /**
+     * Calls an action for every entry
+     *
+     * @param action the action
+     */
+    void forEach(Entry action) {
+        for (int i = 0; i < keys.length; i++) if (values[i] != null) action.accept(keys[i], values[i]);
+    }
+    
+    interface Entry { void accept(long key, Object value); }
+    
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+        
+        for (int i = 0; i < oldKeys.length; i++) if (oldValues[i] != null) put(oldKeys[i], oldValues[i]);
+    }
+    
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;   // Fibonacci hashing
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,196 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>A MailboxWorld decorates another (shared, thread safe) World, and gives each active Id a mailbox. Top-level
+ * sends to the same Id are handled one at a time, in arrival order, while the mailboxes of different Ids are handled
+ * in parallel.</p>
+ * <p>A mailbox is created on the first send to its Id, and is dropped as soon as it is empty, so only the active Ids
+ * have a mailbox. Mailboxes are handled on virtual Threads when the JVM supports them (Java 21+), and otherwise on a
+ * shared ForkJoinPool.</p>
+ * <p>Nested sends to other Ids don't go through their mailboxes, but run within the transaction of the top-level
+ * send. So they are coordinated by the decorated World, which must be safe to share between Threads (such as a
+ * {@link StmWorld} or {@link ShardedWorld}). A Batch is handled in the mailbox of its first Id.</p>
+ *
+ * <p>An asynchronous send returns as soon as the Message has been put in its mailbox. A synchronous send waits for
+ * its completion.</p>
+ *
+ * @param <W> the decorated World type
+ */
+public class MailboxWorld<W extends World<W>> implements World<MailboxWorld<W>> {
+    private static final int THROUGHPUT = 64;   // the number of Messages a mailbox handles before it yields
+    
+    private final W world;
+    private final Executor executor;
+    private final ConcurrentHashMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    
+    /**
+     * Creates a MailboxWorld that handles its mailboxes on virtual Threads, or on a shared ForkJoinPool
+     *
+     * @param world the shared World to decorate
+     */
+    public MailboxWorld(W world) { this(world, DefaultExecutor.INSTANCE); }
+    
+    /**
+     * Creates a MailboxWorld
+     *
+     * @param world    the shared World to decorate
+     * @param executor the Executor that handles the mailboxes
+     */
+    public MailboxWorld(W world, Executor executor) { this.world = world; this.executor = executor; }
+    
+    /**
+     * Returns the decorated World
+     *
+     * @return the decorated World
+     */
+    public W world() { return world; }
+    
+    /**
+     * Returns the Executor that handles the mailboxes
+     *
+     * @return the Executor
+     */
+    public Executor executor() { return executor; }
+    
+    /**
+     * Returns the number of mailboxes, which is the number of Ids with Messages that are pending or being handled
+     *
+     * @return the number of mailboxes
+     */
+    public int mailboxes() { return mailboxes.size(); }
+    
+    @Override
+    public <O> Value<MailboxWorld<W>, O> obj(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, world.obj(id).value());
+    }
+    
+    @Override
+    public <O> Value<MailboxWorld<W>, O> old(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, world.old(id).value());
+    }
+    
+    @Override
+    public View snapshot() { return world.snapshot(); }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<MailboxWorld<W>, E> send(I id, Message<I, O, E> msg) {
+        return join(sendAsync(id, msg));
+    }
+    
+    @Override
+    public Value<MailboxWorld<W>, List<Object>> send(Batch batch) { return join(sendAsync(batch)); }
+    
+    /**
+     * Puts a Message in the mailbox of its Id, and completes the returned stage when it has been handled
+     */
+    @Override
+    public <I extends Id<O>, O, E> CompletionStage<Value<MailboxWorld<W>, E>> sendAsync(I id, Message<I, O, E> msg) {
+        return post(id, () -> world.send(id, msg).value());
+    }
+    
+    /**
+     * Puts a Batch in the mailbox of its first Id, and completes the returned stage when it has been handled
+     */
+    @Override
+    public CompletionStage<Value<MailboxWorld<W>, List<Object>>> sendAsync(Batch batch) {
+        if (batch.size() == 0) return CompletableFuture.completedFuture(new Value.ValueImpl<>(this, Batch.effects()));
+        else return post(batch.id(0), () -> world.send(batch).value());
+    }
+    
+    private <E> CompletionStage<Value<MailboxWorld<W>, E>> post(Object id, Supplier<E> send) {
+        Task<W, E> task = new Task<>(this, send);
+        
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(id, Mailbox::new);
+            int pending = mailbox.pending.get();
+            
+            if (pending < 0) mailboxes.remove(id, mailbox);   // help to drop a retired mailbox, and retry
+            else if (mailbox.pending.compareAndSet(pending, pending + 1)) {
+                mailbox.queue.add(task);
+                if (pending == 0) executor.execute(mailbox);
+                
+                return task.result;
+            }
+        }
+    }
+    
+    private static <V> V join(CompletionStage<V> stage) {
+        try { return stage.toCompletableFuture().join(); }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            else if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            else throw e;
+        }
+    }
+    
+    @Override public MailboxWorld<W> init() { return new MailboxWorld<>(world.init(), executor); }
+    
+    /**
+     * The Messages of an Id that are pending. The mailbox is scheduled when its first Message arrives, and is retired
+     * (pending = -1) when its last Message has been handled, after which it cannot be scheduled again.
+     */
+    private final class Mailbox implements Runnable {
+        final Object id;
+        final AtomicInteger pending = new AtomicInteger();
+        final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        
+        Mailbox(Object id) { this.id = id; }
+        
+        @Override public void run() {
+            for (int i = 0; i < THROUGHPUT; i++) {
+                Runnable task;
+                
+                // a sender increments pending before it adds its Message, so it may not have arrived yet
+                while ((task = queue.poll()) == null) Thread.yield();
+                task.run();
+                
+                if (pending.decrementAndGet() == 0) {
+                    if (pending.compareAndSet(0, -1)) mailboxes.remove(id, this);
+                    return;
+                }
+            }
+            executor.execute(this);   // yield to other mailboxes
+        }
+    }
+    
+    /**
+     * A top-level send that is pending in a mailbox
+     */
+    private static final class Task<W extends World<W>, E> implements Runnable {
+        final MailboxWorld<W> world;
+        final Supplier<E> send;
+        final CompletableFuture<Value<MailboxWorld<W>, E>> result = new CompletableFuture<>();
+        
+        Task(MailboxWorld<W> world, Supplier<E> send) { this.world = world; this.send = send; }
+        
+        @Override public void run() {
+            try { result.complete(new Value.ValueImpl<>(world, send.get())); }
+            catch (RuntimeException | Error e) { result.completeExceptionally(e); }
+        }
+    }
+    
+    /**
+     * The default Executor, that is only created when it is used
+     */
+    private static final class DefaultExecutor {
+        static final Executor INSTANCE = create();
+        
+        private static Executor create() {
+            try {
+                // Java 21+, looked up reflectively so that this class still runs on Java 8
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                return new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+            }
+        }
+    }
+}
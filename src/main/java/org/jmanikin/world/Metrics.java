@@ -0,0 +1,317 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.Environment;
+import org.jmanikin.core.Id;
+import org.jmanikin.core.Message;
+import org.jmanikin.core.Msg;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>A Metrics registry breaks every send of a World into {@link Phase}s, and keeps a latency {@link Histogram} per
+ * Message class and Phase, together with counts of failed pre- and post-conditions, rollbacks and the maximum nesting
+ * depth. All counters are striped, so a Metrics registry can be shared between Worlds and Threads.</p>
+ * <p>When the JDK supports Flight Recorder, every Phase is also emitted as a {@code org.jmanikin.Phase} event, so that
+ * it can be correlated with GC pauses. The event is built (from {@code src/jfr/java}) by the {@code jfr} profile, that
+ * is active on JDK 11 and later, and is loaded reflectively, so the rest of the core only needs the Java 8 API.</p>
+ *
+ * <p>Timing a Phase is much more expensive than counting, so only a random sample of all sends can be timed.
+ * Counts are always exact. Note that the EFF Phase includes all nested sends, and that Phases that are skipped by the
+ * {@link Contracts} policy are not timed.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * Metrics metrics = new Metrics();
+ * SimpleWorld world = new SimpleWorld().metrics(metrics);
+ * ...
+ * metrics.stats().forEach((type, stats) ->
+ *      System.out.println(type.getSimpleName() + ": " + stats.histogram(Metrics.Phase.EFF).percentile(0.99) + " ns"));
+ * }</pre>
+ */
+public final class Metrics {
+    /**
+     * The phases of a send
+     */
+    public enum Phase {
+        /**
+         * The construction of the Msg by {@link Message#msg(Environment)}
+         */
+        MSG,
+        PRE,
+        APP,
+        /**
+         * The effect, including all nested sends
+         */
+        EFF,
+        PST
+    }
+    
+    private static final Emitter JFR = flightRecorder();
+    
+    private final double sampleRate;
+    private final ConcurrentHashMap<Class<?>, Stats> stats = new ConcurrentHashMap<>();
+    private final ClassValue<Stats> cache = new ClassValue<Stats>() {
+        @Override protected Stats computeValue(Class<?> type) { return stats.computeIfAbsent(type, t -> new Stats()); }
+    };
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    
+    /**
+     * Creates a Metrics registry that times all sends
+     */
+    public Metrics() { this(1.0); }
+    
+    /**
+     * Creates a Metrics registry
+     *
+     * @param sampleRate the fraction of sends that are timed
+     */
+    public Metrics(double sampleRate) {
+        if (sampleRate < 0.0 || sampleRate > 1.0) throw new IllegalArgumentException("Sample rate should be in [0, 1]");
+        this.sampleRate = sampleRate;
+    }
+    
+    /**
+     * Returns the Stats of all Message classes that have been sent
+     *
+     * @return an (unmodifiable) view of the Stats per Message class
+     */
+    public Map<Class<?>, Stats> stats() { return Collections.unmodifiableMap(stats); }
+    
+    /**
+     * Returns the Stats of a Message class
+     *
+     * @param type the Message class
+     * @return the Stats
+     */
+    @SuppressWarnings("rawtypes")
+    public Stats stats(Class<? extends Message> type) { return cache.get(type); }
+    
+    /**
+     * Returns the maximum nesting depth, which is 0 for top-level sends only
+     *
+     * @return the maximum depth
+     */
+    public long maxDepth() { return maxDepth.get(); }
+    
+    /**
+     * Counts a send at the given depth
+     */
+    void sent(Message<?, ?, ?> message, int depth) {
+        cache.get(message.getClass()).count.increment();
+        maxDepth.accumulate(depth);
+    }
+    
+    /**
+     * Counts a failed send
+     */
+    void failed(Message<?, ?, ?> message, Recorder.Outcome outcome) {
+        Stats s = cache.get(message.getClass());
+        
+        if (outcome == Recorder.Outcome.PRE_FAILED) s.preFailures.increment();
+        else {
+            if (outcome == Recorder.Outcome.POST_FAILED) s.postFailures.increment();
+            s.rollbacks.increment();
+        }
+    }
+    
+    /**
+     * Constructs the Msg of a send at the given depth. If the send is sampled, returns a Msg that times all its Phases.
+     */
+    <I extends Id<O>, O, E> Msg<I, O, E> msg(Message<I, O, E> message, Environment<I, O, E> env, int depth) {
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return message.msg(env);
+        
+        Stats s = cache.get(message.getClass());
+        Msg<I, O, E> msg = s.time(Phase.MSG, message, depth, () -> message.msg(env));
+        
+        return new Msg<I, O, E>() {
+            @Override public Supplier<Boolean> pre() { return () -> s.time(Phase.PRE, message, depth, msg.pre()); }
+            @Override public Supplier<O> app() { return () -> s.time(Phase.APP, message, depth, msg.app()); }
+            @Override public Supplier<E> eff() { return () -> s.time(Phase.EFF, message, depth, msg.eff()); }
+            @Override public Supplier<Boolean> pst() { return () -> s.time(Phase.PST, message, depth, msg.pst()); }
+        };
+    }
+    
+    /**
+     * Emits the Flight Recorder events of Phases
+     */
+    interface Emitter {
+        /**
+         * Begins the event of a Phase that starts, or returns null when the event is not enabled
+         */
+        Object begin();
+        
+        /**
+         * Ends the event of a Phase that has finished, and commits it when it should be
+         */
+        void end(Object event, Class<?> messageClass, Phase phase, int depth);
+    }
+    
+    // the Emitter of PhaseEvent, or null when it has not been built, or when the JDK doesn't support Flight Recorder
+    private static Emitter flightRecorder() {
+        try { return (Emitter) Class.forName("org.jmanikin.world.PhaseEvent").getDeclaredField("EMITTER").get(null); }
+        catch (ReflectiveOperationException | LinkageError e) { return null; }
+    }
+    
+    /**
+     * The metrics of a Message class
+     */
+    public static final class Stats {
+        private final Histogram[] histograms = new Histogram[Phase.values().length];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder preFailures = new LongAdder();
+        private final LongAdder postFailures = new LongAdder();
+        private final LongAdder rollbacks = new LongAdder();
+        
+        Stats() { for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram(); }
+        
+        /**
+         * Returns the latency Histogram of a Phase
+         *
+         * @param phase the Phase
+         * @return the Histogram
+         */
+        public Histogram histogram(Phase phase) { return histograms[phase.ordinal()]; }
+        
+        /**
+         * Returns the number of sends
+         *
+         * @return the number of sends
+         */
+        public long count() { return count.sum(); }
+        
+        /**
+         * Returns the number of failed pre-conditions
+         *
+         * @return the number of failed pre-conditions
+         */
+        public long preFailures() { return preFailures.sum(); }
+        
+        /**
+         * Returns the number of failed post-conditions
+         *
+         * @return the number of failed post-conditions
+         */
+        public long postFailures() { return postFailures.sum(); }
+        
+        /**
+         * Returns the number of sends that have been rolled back, because their post-condition has failed, or because
+         * they (or one of their nested sends) have thrown
+         *
+         * @return the number of rollbacks
+         */
+        public long rollbacks() { return rollbacks.sum(); }
+        
+        private <T> T time(Phase phase, Message<?, ?, ?> message, int depth, Supplier<T> supplier) {
+            Object event = JFR != null ? JFR.begin() : null;
+            long t = System.nanoTime();
+            
+            try { return supplier.get(); }
+            finally {
+                histograms[phase.ordinal()].record(System.nanoTime() - t);
+                if (event != null) JFR.end(event, message.getClass(), phase, depth);
+            }
+        }
+    }
+    
+    /**
+     * <p>A latency Histogram in nanoseconds, with 4 buckets per power of two. So percentiles are accurate to within
+     * 25%.</p>
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 248;
+        
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        
+        Histogram() { for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder(); }
+        
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            buckets[bucket(v)].increment();
+            total.add(v);
+            max.accumulate(v);
+        }
+        
+        // values below 4 have their own bucket, and every larger power of two is split in 4 buckets
+        static int bucket(long v) {
+            if (v < 4) return (int) v;
+            
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            return (msb - 1) * 4 + (int) ((v >>> (msb - 2)) & 3);
+        }
+        
+        // the largest value of a bucket
+        static long upper(int bucket) {
+            if (bucket < 4) return bucket;
+            
+            int shift = bucket / 4 - 1;
+            return ((4L + (bucket & 3)) << shift) + (1L << shift) - 1;
+        }
+        
+        /**
+         * Returns the number of recorded latencies
+         *
+         * @return the count
+         */
+        public long count() {
+            long count = 0;
+            for (LongAdder b : buckets) count += b.sum();
+            return count;
+        }
+        
+        /**
+         * Returns the sum of all recorded latencies
+         *
+         * @return the total in nanoseconds
+         */
+        public long total() { return total.sum(); }
+        
+        /**
+         * Returns the maximum recorded latency
+         *
+         * @return the maximum in nanoseconds
+         */
+        public long max() { return max.get(); }
+        
+        /**
+         * Returns the mean latency, or 0 when nothing has been recorded
+         *
+         * @return the mean in nanoseconds
+         */
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0.0 : (double) total() / count;
+        }
+        
+        /**
+         * Returns (an upper bound of) the latency at a percentile
+         *
+         * @param percentile the percentile in [0, 1], e.g. 0.99
+         * @return the latency in nanoseconds, or 0 when nothing has been recorded
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0.0 || percentile > 1.0) throw new IllegalArgumentException("Percentile should be in [0, 1]");
+            
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) count += (counts[i] = buckets[i].sum());
+            
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(upper(i), max());
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.jmanikin.world;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * <p>An OffHeapStore maps encoded keys to records in direct ByteBuffers, outside of the Java heap. A record holds the
+ * encoded key, and the encoded obj and old states of one Object:</p>
+ * <pre>
+ * record: int hash, int key length, key bytes, int obj length, obj bytes, int old length, old bytes
+ * </pre>
+ * <p>A length of -1 encodes a null Object, a length of -2 encodes a pristine Object (which is not stored).</p>
+ *
+ * <p>Records are immutable and are appended to a log of 64MB chunks, so the previous record of a key stays valid
+ * until it is cleaned. That makes rollback as cheap as restoring the previous address. The log is cleaned
+ * incrementally: the live records of the oldest chunk are appended again, after which the chunk is reused.</p>
+ * <p>The index is an open-addressing hash table of longs (also off-heap), that packs a record address (40 bits)
+ * with a fragment of its key hash (24 bits). Address 0 marks an empty slot.</p>
+ */
+final class OffHeapStore {
+    static final byte[] NULL = new byte[0];   // a null Object
+    static final byte[] INIT = new byte[0];   // a pristine Object
+    
+    private static final int CHUNK_BITS = 26;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int SEGMENT_BITS = 27;   // slots per table segment (1GB)
+    private static final int FRAGMENT = 24;
+    
+    private ByteBuffer[] chunks = new ByteBuffer[16];
+    private int[] limits = new int[16];   // the end of every chunk
+    private final ArrayDeque<Integer> full = new ArrayDeque<>();   // full chunks, oldest first
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();   // reusable chunks
+    private int chunk = 0;
+    private int position = 8;   // address 0 is never used
+    
+    private int cleaning = -1;   // the chunk that is being cleaned, and the next record to clean
+    private int cleaned = 0;
+    
+    private ByteBuffer[] table;
+    private long slots;
+    private long size = 0;
+    
+    private long used = 0;   // the bytes of all records in the log
+    private long live = 0;   // the bytes of all indexed records
+    
+    OffHeapStore() {
+        chunks[0] = ByteBuffer.allocateDirect(CHUNK);
+        slots = 1 << 10;
+        table = allocate(slots);
+    }
+    
+    /**
+     * An encoded key and its hash
+     */
+    static final class Key {
+        final byte[] bytes;
+        final int hash;
+        
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = hash(bytes);
+        }
+    }
+    
+    /**
+     * Returns the number of indexed keys
+     */
+    long size() { return size; }
+    
+    /**
+     * Returns the (off-heap) bytes of all records, including the garbage that has not been cleaned yet
+     */
+    long used() { return used; }
+    
+    /**
+     * Returns the address of the record of a key, or 0 when there is no such record
+     */
+    long find(Key key) {
+        long mask = slots - 1;
+        
+        for (long i = key.hash & mask; ; i = (i + 1) & mask) {
+            long slot = slot(i);
+            
+            if (slot == 0) return 0;
+            else if ((int) (slot & ((1 << FRAGMENT) - 1)) == fragment(key.hash) && matches(address(slot), key)) {
+                return address(slot);
+            }
+        }
+    }
+    
+    /**
+     * Indexes the record of a key, or removes the key when address is 0
+     *
+     * @return the previous address, or 0
+     */
+    long set(Key key, long address) {
+        long mask = slots - 1;
+        long i = key.hash & mask;
+        long slot;
+        
+        while ((slot = slot(i)) != 0) {
+            if ((int) (slot & ((1 << FRAGMENT) - 1)) == fragment(key.hash) && matches(address(slot), key)) break;
+            i = (i + 1) & mask;
+        }
+        
+        long previous = address(slot);
+        if (previous != 0) live -= length(previous);
+        
+        if (address != 0) {
+            slot(i, (address << FRAGMENT) | fragment(key.hash));
+            live += length(address);
+            if (previous == 0 && ++size > (slots >>> 2) * 3) resize();   // load factor <= 0.75
+        }
+        else if (previous != 0) {
+            remove(i);
+            size--;
+        }
+        
+        return previous;
+    }
+    
+    /**
+     * Appends a record, and returns its address
+     */
+    long append(Key key, byte[] obj, byte[] old) {
+        long length = 8L + key.bytes.length + length(obj) + length(old);
+        if (length > CHUNK - 8) throw new IllegalArgumentException("Record of " + length + " bytes is too large");
+        
+        if (position + length > CHUNK) next();
+        
+        ByteBuffer b = chunks[chunk];
+        int p = position;
+        
+        b.putInt(p, key.hash);
+        p = put(b, p + 4, key.bytes);
+        p = put(b, p, obj);
+        put(b, p, old);
+        
+        long address = ((long) chunk << CHUNK_BITS) | position;
+        position += (int) length;
+        used += length;
+        
+        return address;
+    }
+    
+    /**
+     * Returns a copy of the obj state of a record (or NULL or INIT)
+     */
+    byte[] obj(long address) {
+        ByteBuffer b = chunks[chunk(address)];
+        int p = offset(address);
+        return get(b, p + 8 + b.getInt(p + 4));
+    }
+    
+    /**
+     * Returns a copy of the old state of a record (or NULL or INIT)
+     */
+    byte[] old(long address) {
+        ByteBuffer b = chunks[chunk(address)];
+        int p = offset(address) + 8 + b.getInt(offset(address) + 4);
+        return get(b, p + 4 + Math.max(0, b.getInt(p)));
+    }
+    
+    /**
+     * Cleans at most n records of the oldest chunk, when more than half of the log is garbage. Records that are
+     * referenced by an undo log should not be cleaned.
+     */
+    void clean(int n) {
+        if (used <= 2 * live + CHUNK) return;
+        
+        for (int i = 0; i < n; i++) {
+            if (cleaning < 0) {
+                if (full.isEmpty()) return;
+                cleaning = full.poll();
+                cleaned = cleaning == 0 ? 8 : 0;
+            }
+            
+            ByteBuffer b = chunks[cleaning];
+            
+            if (cleaned >= limits[cleaning]) {
+                free.add(cleaning);
+                cleaning = -1;
+            }
+            else {
+                long address = ((long) cleaning << CHUNK_BITS) | cleaned;
+                int length = length(address);
+                
+                Key key = new Key(get(b, cleaned + 4));
+                if (find(key) == address) set(key, append(key, obj(address), old(address)));   // still live
+                
+                cleaned += length;
+                used -= length;
+            }
+        }
+    }
+    
+    private void next() {
+        limits[chunk] = position;
+        full.add(chunk);
+        
+        if (!free.isEmpty()) chunk = free.poll();
+        else {
+            chunk = (int) Arrays.stream(chunks).filter(c -> c != null).count();
+            
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunk * 2);
+                limits = Arrays.copyOf(limits, chunk * 2);
+            }
+            if (chunk >= (1 << (40 - CHUNK_BITS))) throw new IllegalStateException("OffHeapStore is full");
+            
+            chunks[chunk] = ByteBuffer.allocateDirect(CHUNK);
+        }
+        
+        position = chunk == 0 ? 8 : 0;
+    }
+    
+    private void resize() {
+        ByteBuffer[] old = table;
+        long oldSlots = slots;
+        
+        slots = oldSlots * 2;
+        table = allocate(slots);
+        
+        for (long i = 0; i < oldSlots; i++) {
+            long slot = old[(int) (i >>> SEGMENT_BITS)].getLong((int) (i & ((1 << SEGMENT_BITS) - 1)) << 3);
+            
+            if (slot != 0) {
+                int hash = chunks[chunk(address(slot))].getInt(offset(address(slot)));
+                long j = hash & (slots - 1);
+                while (slot(j) != 0) j = (j + 1) & (slots - 1);
+                slot(j, slot);
+            }
+        }
+    }
+    
+    // shifts back all following entries that would otherwise become unreachable
+    private void remove(long i) {
+        long mask = slots - 1;
+        
+        for (long j = (i + 1) & mask; slot(j) != 0; j = (j + 1) & mask) {
+            long s = chunks[chunk(address(slot(j)))].getInt(offset(address(slot(j)))) & mask;
+            
+            if (((j - s) & mask) >= ((j - i) & mask)) {
+                slot(i, slot(j));
+                i = j;
+            }
+        }
+        slot(i, 0);
+    }
+    
+    private boolean matches(long address, Key key) {
+        ByteBuffer b = chunks[chunk(address)];
+        int p = offset(address);
+        
+        if (b.getInt(p) != key.hash || b.getInt(p + 4) != key.bytes.length) return false;
+        for (int i = 0; i < key.bytes.length; i++) if (b.get(p + 8 + i) != key.bytes[i]) return false;
+        return true;
+    }
+    
+    private int length(long address) {
+        ByteBuffer b = chunks[chunk(address)];
+        int p = offset(address);
+        int obj = p + 8 + b.getInt(p + 4);
+        int old = obj + 4 + Math.max(0, b.getInt(obj));
+        return old + 4 + Math.max(0, b.getInt(old)) - p;
+    }
+    
+    private static int length(byte[] part) { return 4 + (part == NULL || part == INIT ? 0 : part.length); }
+    
+    private static int put(ByteBuffer b, int p, byte[] part) {
+        if (part == NULL) { b.putInt(p, -1); return p + 4; }
+        else if (part == INIT) { b.putInt(p, -2); return p + 4; }
+        else {
+            b.putInt(p, part.length);
+            ByteBuffer d = b.duplicate();
+            d.position(p + 4);
+            d.put(part);
+            return p + 4 + part.length;
+        }
+    }
+    
+    private static byte[] get(ByteBuffer b, int p) {
+        int length = b.getInt(p);
+        
+        if (length == -1) return NULL;
+        else if (length == -2) return INIT;
+        else {
+            byte[] part = new byte[length];
+            ByteBuffer d = b.duplicate();
+            d.position(p + 4);
+            d.get(part);
+            return part;
+        }
+    }
+    
+    private long slot(long i) { return table[(int) (i >>> SEGMENT_BITS)].getLong((int) (i & ((1 << SEGMENT_BITS) - 1)) << 3); }
+    private void slot(long i, long slot) { table[(int) (i >>> SEGMENT_BITS)].putLong((int) (i & ((1 << SEGMENT_BITS) - 1)) << 3, slot); }
+    
+    private static ByteBuffer[] allocate(long slots) {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((slots + (1 << SEGMENT_BITS) - 1) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(1L << SEGMENT_BITS, slots) << 3);
+        }
+        return segments;
+    }
+    
+    private static long address(long slot) { return slot >>> FRAGMENT; }
+    private static int chunk(long address) { return (int) (address >>> CHUNK_BITS); }
+    private static int offset(long address) { return (int) (address & (CHUNK - 1)); }
+    private static int fragment(int hash) { return (hash >>> 8) & ((1 << FRAGMENT) - 1); }
+    
+    // FNV-1a, followed by a finalizer
+    private static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) h = (h ^ b) * 0x01000193;
+        h ^= h >>> 16; h *= 0x85EBCA6B; h ^= h >>> 13;
+        return h;
+    }
+}
@@ -0,0 +1,290 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codec;
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * <p>An OffHeapWorld provides a (mutable!) World implementation that keeps the obj and old state of all Objects
+ * outside of the Java heap, in direct ByteBuffers. Objects are decoded into heap instances only when they are
+ * accessed, so the live set on the heap (and with it the GC pause time) no longer grows with the number of Objects.</p>
+ * <p>Ids are encoded with the given {@link Codecs}, and identified by their encoding. The binary layout of an Object
+ * is declared by a {@link Codec} that is registered for its Id class. Objects of Ids without a registered layout
+ * are encoded with the given Codecs as well.</p>
+ *
+ * <p>Like a SimpleWorld, each top-level send is atomic: the previous state of every write is recorded in an undo
+ * log, that is replayed in reverse when a (nested) send fails.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * OffHeapWorld world = new OffHeapWorld(BankCodecs.codecs()).
+ *      register(AccountModule.ID.class, BankCodecs.ACCOUNT).
+ *      register(TransferModule.ID.class, BankCodecs.TRANSFER);
+ * }</pre>
+ *
+ * <p><b>WARNING: NOT THREAD SAFE</b></p>
+ */
+public class OffHeapWorld implements World<OffHeapWorld> {
+    private static final int CLEAN = 16;   // the maximum number of records that are cleaned per top-level send
+    
+    private final Codecs codecs;
+    private final HashMap<Class<?>, Codec<Object>> layouts;
+    private final OffHeapStore store = new OffHeapStore();
+    private final Output output = new Output();
+    
+    private OffHeapStore.Key[] undoKeys = new OffHeapStore.Key[16];   // the undo log: key and previous address
+    private long[] undoAddresses = new long[16];
+    private int undoSize = 0;
+    private int depth = 0;
+    
+    private Contracts contracts = new Contracts();
+    
+    /**
+     * Creates an OffHeapWorld
+     *
+     * @param codecs the Codecs for Ids, and for Objects without a registered layout
+     */
+    public OffHeapWorld(Codecs codecs) { this(codecs, new HashMap<>()); }
+    
+    private OffHeapWorld(Codecs codecs, HashMap<Class<?>, Codec<Object>> layouts) {
+        this.codecs = codecs;
+        this.layouts = layouts;
+    }
+    
+    /**
+     * Registers the binary layout of the Objects of (exactly) the given Id class
+     *
+     * @param type  the Id class
+     * @param codec the Codec of its Objects
+     * @param <O>   the Object type
+     * @return this OffHeapWorld
+     */
+    @SuppressWarnings("unchecked")
+    public <O> OffHeapWorld register(Class<? extends Id<O>> type, Codec<? super O> codec) {
+        if (layouts.containsKey(type)) throw new IllegalArgumentException("Layout already registered for " + type);
+        
+        layouts.put(type, (Codec<Object>) codec);
+        return this;
+    }
+    
+    /**
+     * Sets the Contracts policy, that determines which pre- and post-conditions are checked
+     *
+     * @param contracts the Contracts policy
+     * @return this OffHeapWorld
+     */
+    public OffHeapWorld contracts(Contracts contracts) { this.contracts = contracts; return this; }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return contracts; }
+    
+    /**
+     * Returns the number of stored Objects
+     *
+     * @return the number of Objects
+     */
+    public long size() { return store.size(); }
+    
+    /**
+     * Returns the number of off-heap bytes that hold records, including garbage that has not been cleaned yet
+     *
+     * @return the number of bytes
+     */
+    public long bytes() { return store.used(); }
+    
+    @Override
+    public <O> Value<OffHeapWorld, O> obj(Id<? extends O> id) { return new Value.ValueImpl<>(this, lookup(id, false)); }
+    
+    @Override
+    public <O> Value<OffHeapWorld, O> old(Id<? extends O> id) { return new Value.ValueImpl<>(this, lookup(id, true)); }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<OffHeapWorld, E> send(I id, Message<I, O, E> message) {
+        E eff;
+        
+        try { eff = dispatch(id, message); }
+        finally { if (depth == 0) end(); }   // the send has committed (or has been rolled back)
+        
+        return new Value.ValueImpl<>(this, eff);
+    }
+    
+    /**
+     * Sends all Messages of a Batch with a single undo log, that is replayed in reverse when any Message fails
+     */
+    @Override
+    public Value<OffHeapWorld, List<Object>> send(Batch batch) {
+        Object[] effects = new Object[batch.size()];
+        
+        try {
+            for (int i = 0; i < effects.length; i++) effects[i] = dispatch(batch.id(i), batch.msg(i));
+            return new Value.ValueImpl<>(this, Batch.effects(effects));
+        }
+        catch (Throwable e) {
+            rollback(0);
+            throw e;
+        }
+        finally { end(); }
+    }
+    
+    private <I extends Id<O>, O, E> E dispatch(I id, Message<I, O, E> message) {
+        OffHeapEnv<I, O, E> env = new OffHeapEnv<>(this, id);
+        depth++;
+        
+        try {
+            OffHeapStore.Key key = key(id);
+            long before = store.find(key);
+            byte[] oldObj = before == 0 ? OffHeapStore.INIT : store.obj(before);   // encoded
+            
+            Msg<I, O, E> msg = message.msg(env);
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+            else {
+                int mark = undoSize;
+                
+                try {
+                    long written = store.append(key, encode(id, msg.app().get()), oldObj);
+                    log(key, store.set(key, written));
+                    
+                    E eff = msg.eff().get();
+                    
+                    // write the old state again because of recursive sends to self (already logged)
+                    long current = store.find(key);
+                    if (current != written) store.set(key, store.append(key, store.obj(current), oldObj));
+                    
+                    if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                    else return eff;
+                }
+                catch (Throwable e) {
+                    rollback(mark);   // Rollback all writes, including nested sends
+                    throw e;
+                }
+            }
+        }
+        finally {
+            message.release(env);
+            depth--;
+        }
+    }
+    
+    private void log(OffHeapStore.Key key, long previous) {
+        if (undoSize == undoKeys.length) {
+            undoKeys = Arrays.copyOf(undoKeys, undoSize * 2);
+            undoAddresses = Arrays.copyOf(undoAddresses, undoSize * 2);
+        }
+        
+        undoKeys[undoSize] = key;
+        undoAddresses[undoSize] = previous;
+        undoSize++;
+    }
+    
+    private void rollback(int mark) {
+        for (int i = undoSize - 1; i >= mark; i--) store.set(undoKeys[i], undoAddresses[i]);
+        undoSize = mark;
+    }
+    
+    // the undo log is empty, so previous records are no longer referenced and can be cleaned
+    private void end() {
+        Arrays.fill(undoKeys, 0, undoSize, null);
+        undoSize = 0;
+        store.clean(CLEAN);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O lookup(Id<? extends O> id, boolean old) {
+        long address = store.find(key(id));
+        
+        if (address == 0) return id.init();
+        else return (O) decode(id, old ? store.old(address) : store.obj(address));
+    }
+    
+    private OffHeapStore.Key key(Object id) {
+        try {
+            output.reset();
+            codecs.write(id, output.data);
+            return new OffHeapStore.Key(output.toByteArray());
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    private byte[] encode(Id<?> id, Object obj) {
+        if (obj == null) return OffHeapStore.NULL;
+        
+        try {
+            Codec<Object> layout = layouts.get(id.getClass());
+            output.reset();
+            
+            if (layout != null) layout.write(obj, output.data);
+            else codecs.write(obj, output.data);
+            
+            return output.toByteArray();
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    private Object decode(Id<?> id, byte[] bytes) {
+        if (bytes == OffHeapStore.NULL) return null;
+        else if (bytes == OffHeapStore.INIT) return id.init();
+        
+        try {
+            Codec<Object> layout = layouts.get(id.getClass());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            
+            return layout != null ? layout.read(in) : codecs.read(in);
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    @Override public OffHeapWorld init() { return new OffHeapWorld(codecs, new HashMap<>(layouts)).contracts(contracts); }
+    
+    /**
+     * A reusable output buffer
+     */
+    private static final class Output extends ByteArrayOutputStream {
+        final DataOutputStream data = new DataOutputStream(this);
+        
+        Output() { super(64); }
+    }
+    
+    private static class OffHeapEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private final OffHeapWorld world;
+        private final I self;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        OffHeapEnv(OffHeapWorld world, I self) { this.world = world; this.self = self; }
+        
+        @Override public I self() { return self; }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return world.lookup(id, false); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return world.lookup(id, true); }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            return world.dispatch(id, msg);
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
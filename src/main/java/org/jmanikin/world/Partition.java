@@ -0,0 +1,651 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.*;
+import org.jmanikin.world.Protocol.Frame;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import static org.jmanikin.world.Protocol.*;
+
+/**
+ * <p>A Partition owns the Objects of a {@link PartitionedWorld} that are routed to it, and is normally run in its own
+ * process (see {@link #main(String[])}). It listens on a loopback socket for the requests of PartitionedWorlds and of
+ * the other Partitions.</p>
+ * <p>A single IO Thread reads and writes all (non-blocking) connections. A single worker Thread handles all requests,
+ * and is the only Thread that accesses the store, so the store requires no locking.</p>
+ * <p>A Partition is held by at most one transaction at a time: either by a top-level send that only touches its own
+ * Objects, or by a transaction that has prepared it. Requests of other transactions wait until the Partition is
+ * released. The requests of the holding transaction are even handled while the worker awaits the reply of another
+ * Partition, so that nested sends can go back and forth between Partitions.</p>
+ * <p>A nested send to an Object of another Partition is forwarded to that Partition. When such a nested send is rolled
+ * back later on, the other Partition is asked to roll back to the mark that it returned.</p>
+ */
+public final class Partition implements Closeable {
+    private final int index;
+    private final Codecs codecs;
+    private final Contracts contracts;
+    private final int maxFrame;
+    private final PartitionedWorld.Config config;
+    
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();   // run by the IO Thread
+    private final LinkedBlockingQueue<Frame> inbox = new LinkedBlockingQueue<>();
+    private volatile boolean open = true;
+    
+    // only accessed by the worker
+    private final HashMap<Object, Cell> store = new HashMap<>();
+    private final ArrayDeque<Frame> deferred = new ArrayDeque<>();
+    private final HashMap<Long, Frame> replies = new HashMap<>();
+    private InetSocketAddress[] addresses = new InetSocketAddress[0];
+    private Connection[] peers = new Connection[0];
+    private Txn held;
+    private long calls;
+    
+    /**
+     * Creates a Partition that listens on an ephemeral loopback port
+     *
+     * @param index  the index of this Partition
+     * @param config the configuration of the PartitionedWorld
+     * @throws IOException when the port cannot be bound
+     */
+    public Partition(int index, PartitionedWorld.Config config) throws IOException {
+        this.index = index;
+        this.config = config;
+        this.codecs = codecs(config);
+        this.contracts = config.contracts();
+        this.maxFrame = config.maxFrame();
+        
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        
+        Thread io = new Thread(this::io, "partition-io-" + index);
+        io.setDaemon(true);
+        io.start();
+    }
+    
+    /**
+     * Returns the Codecs of a Config, which must not allow Java serialization: frames come from the network
+     */
+    static Codecs codecs(PartitionedWorld.Config config) {
+        Codecs codecs = config.codecs();
+        
+        if (codecs.allowsJavaSerialization()) {
+            throw new IllegalArgumentException("The Codecs of a PartitionedWorld must not allow Java serialization");
+        }
+        return codecs;
+    }
+    
+    /**
+     * Runs a Partition process, that prints its port and serves until it is shut down, or its standard input is closed
+     *
+     * @param args the name of the Config class (with a public no-arg constructor), and the index of the Partition
+     * @throws Exception when the Partition cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        PartitionedWorld.Config config = (PartitionedWorld.Config)
+            Class.forName(args[0]).getDeclaredConstructor().newInstance();
+        
+        Partition partition = new Partition(Integer.parseInt(args[1]), config);
+        
+        Thread watch = new Thread(() -> {
+            try { while (System.in.read() >= 0) { } }
+            catch (IOException ignored) { }
+            partition.close();   // the launching process has gone
+        }, "partition-stdin");
+        watch.setDaemon(true);
+        watch.start();
+        
+        try {
+            System.out.println("PARTITION " + partition.port());
+            System.out.flush();
+            partition.serve();
+        }
+        finally { partition.close(); }
+        System.exit(0);
+    }
+    
+    /**
+     * Returns the loopback port this Partition listens on
+     *
+     * @return the port
+     */
+    public int port() {
+        try { return ((InetSocketAddress) server.getLocalAddress()).getPort(); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    /**
+     * Handles requests on the calling Thread, until this Partition is shut down or closed
+     */
+    public void serve() {
+        while (open) {
+            Frame frame = held == null && !deferred.isEmpty() ? deferred.poll() : take();
+            
+            try { handle(frame); }
+            catch (RuntimeException e) {
+                if (frame.from != null) reply(frame, failed(frame.call, frame.txn, e));
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        if (open) {
+            open = false;
+            inbox.add(new Frame(null, encode(SHUTDOWN, 0, 0, EMPTY).array(), 4));   // wakes up the worker
+        }
+        selector.wakeup();   // and the IO Thread, which closes all connections
+    }
+    
+    private Frame take() {
+        try { return inbox.take(); }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private int partition(Id<?> id) { return PartitionedWorld.partition(config, id, addresses.length); }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O obj(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.obj : id.init(); }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O old(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.old : id.init(); }
+    
+    private static void reply(Frame frame, ByteBuffer reply) { frame.from.send(reply); }
+    
+    private static ByteBuffer done(Frame frame) { return encode(DONE, frame.call, frame.txn, EMPTY); }
+    
+    private ByteBuffer missing(Frame frame, Txn txn) {
+        return encode(MISSING, frame.call, frame.txn, out -> out.writeInt(txn.missing));
+    }
+    
+    private void handle(Frame frame) {
+        if (isReply(frame.op)) { replies.put(frame.call, frame); return; }
+        
+        boolean holder = held != null && held.id == frame.txn;
+        
+        switch (frame.op) {
+            case PEERS: peers(frame); break;
+            case GET: get(frame); break;
+            case SHUTDOWN:
+                open = false;
+                if (frame.from != null) reply(frame, done(frame));
+                break;
+            case CLEAR:
+                if (held != null) deferred.add(frame);
+                else { store.clear(); reply(frame, done(frame)); }
+                break;
+            case PREPARE:
+                if (held != null) deferred.add(frame);
+                else { held = new Txn(frame.txn); reply(frame, done(frame)); }
+                break;
+            case EXECUTE:
+                if (held != null && !holder) deferred.add(frame);
+                else execute(frame);
+                break;
+            case SEND:
+            case READ:
+            case ROLLBACK:
+                if (holder) nested(frame);
+                else if (held != null) deferred.add(frame);
+                else throw new IllegalStateException("Partition " + index + " is not prepared");
+                break;
+            case COMMIT:
+            case ABORT:
+                if (holder) {
+                    if (frame.op == COMMIT) held.commit();
+                    held = null;
+                }
+                reply(frame, done(frame));
+                break;
+            default: throw new IllegalStateException("Unknown op " + frame.op);
+        }
+    }
+    
+    private void peers(Frame frame) {
+        int n = frame.readInt();
+        InetSocketAddress[] peers = new InetSocketAddress[n];
+        
+        try { for (int i = 0; i < n; i++) peers[i] = new InetSocketAddress(frame.in.readUTF(), frame.in.readInt()); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+        
+        if (!Arrays.equals(peers, addresses)) {
+            for (Connection peer : this.peers) if (peer != null) peer.close();
+            this.addresses = peers;
+            this.peers = new Connection[n];
+        }
+        reply(frame, done(frame));
+    }
+    
+    private void get(Frame frame) {
+        Cell cell = store.get(frame.read(codecs));
+        reply(frame, cell(frame, cell));
+    }
+    
+    private ByteBuffer cell(Frame frame, Cell cell) {
+        return encode(CELL, frame.call, frame.txn, out -> {
+            out.writeBoolean(cell != null);
+            if (cell != null) { codecs.write(cell.obj, out); codecs.write(cell.old, out); }
+        });
+    }
+    
+    /**
+     * Sends all pairs of a top-level send. If this Partition has not been prepared, the send only touches Objects of
+     * this Partition, and is committed right away.
+     */
+    @SuppressWarnings("unchecked")
+    private void execute(Frame frame) {
+        boolean prepared = held != null;
+        Txn txn = prepared ? held : new Txn(frame.txn);
+        ByteBuffer reply;
+        
+        held = txn;
+        
+        try {
+            txn.mask = frame.readInt();
+            Object[] effects = new Object[frame.readInt()];
+            
+            for (int i = 0; i < effects.length; i++) {
+                Id<Object> id = (Id<Object>) frame.read(codecs);
+                effects[i] = dispatch(txn, id, message(frame));
+            }
+            
+            if (txn.missing >= 0) reply = missing(frame, txn);
+            else {
+                reply = encode(RESULT, frame.call, frame.txn, out -> {
+                    out.writeInt(effects.length);
+                    for (Object eff : effects) codecs.write(eff, out);
+                });
+                if (!prepared) txn.commit();
+            }
+        }
+        catch (RuntimeException e) {
+            reply = txn.missing >= 0 ? missing(frame, txn) : failed(frame.call, frame.txn, e);
+        }
+        
+        if (!prepared) held = null;
+        reply(frame, reply);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Message<Id<Object>, Object, Object> message(Frame frame) {
+        return (Message<Id<Object>, Object, Object>) frame.read(codecs);
+    }
+    
+    /**
+     * Handles a nested request of the holding transaction
+     */
+    @SuppressWarnings("unchecked")
+    private void nested(Frame frame) {
+        Txn txn = held;
+        
+        if (frame.op == ROLLBACK) { txn.rollback(frame.readInt()); reply(frame, done(frame)); return; }
+        
+        int mark = txn.mark();
+        ByteBuffer reply;
+        
+        try {
+            txn.mask = frame.readInt();
+            Id<Object> id = (Id<Object>) frame.read(codecs);
+            
+            if (frame.op == READ) {
+                Cell cell = txn.read(id);
+                reply = txn.missing >= 0 ? missing(frame, txn) : cell(frame, cell);
+            }
+            else {
+                Object eff = dispatch(txn, id, message(frame));
+                
+                if (txn.missing >= 0) reply = missing(frame, txn);
+                else reply = encode(RESULT, frame.call, frame.txn, out -> {
+                    out.writeInt(mark);
+                    codecs.write(eff, out);
+                });
+            }
+        }
+        catch (RuntimeException e) {
+            txn.rollback(mark);
+            reply = txn.missing >= 0 ? missing(frame, txn) : failed(frame.call, frame.txn, e);
+        }
+        reply(frame, reply);
+    }
+    
+    private <I extends Id<O>, O, E> E dispatch(Txn txn, I id, Message<I, O, E> message) {
+        int p = partition(id);
+        if (p != index) return txn.send(p, id, message);
+        
+        PartitionEnv<I, O, E> env = new PartitionEnv<>(this, txn, id);
+        try {
+            O oldObj = obj(txn.read(id), id);
+            
+            Msg<I, O, E> msg = message.msg(env);
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+            else {
+                int mark = txn.mark();
+                
+                try {
+                    txn.write(id, msg.app().get(), oldObj);
+                    E eff = msg.eff().get();
+                    txn.write(id, txn.read(id).obj, oldObj);   // put it again because of recursive sends to self
+                    
+                    if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                    else return eff;
+                }
+                catch (Exception e) {
+                    txn.rollback(mark);   // Rollback all writes, including nested sends on other Partitions
+                    throw e;
+                }
+            }
+        }
+        finally { message.release(env); }
+    }
+    
+    /**
+     * Sends a request to another Partition, and handles other requests until its reply has been received
+     */
+    private Frame call(int p, byte op, long txn, Payload payload) {
+        long call = ++calls;
+        peer(p).send(encode(op, call, txn, payload));
+        
+        while (true) {
+            Frame reply = replies.remove(call);
+            if (reply != null) return reply;
+            
+            Frame frame = take();
+            if (frame.op == SHUTDOWN && frame.from == null) throw new IllegalStateException("Partition closed");
+            handle(frame);
+        }
+    }
+    
+    private Connection peer(int p) {
+        if (peers[p] == null) {
+            try {
+                SocketChannel channel = SocketChannel.open(addresses[p]);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                
+                Connection peer = new Connection(channel);
+                tasks.add(() -> peer.register(SelectionKey.OP_READ));
+                selector.wakeup();
+                peers[p] = peer;
+            }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        return peers[p];
+    }
+    
+    private void io() {
+        try {
+            while (open) {
+                selector.select();
+                for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    
+                    if (key.isValid() && key.isAcceptable()) accept();
+                    else if (key.isValid()) {
+                        Connection connection = (Connection) key.attachment();
+                        
+                        try {
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        }
+                        catch (IOException | RuntimeException e) { connection.close(); }   // only this connection
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e) { close(); }
+        finally {
+            try { for (SelectionKey key : selector.keys()) key.channel().close(); selector.close(); }
+            catch (IOException | ClosedSelectorException ignored) { }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        
+        if (channel != null) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            new Connection(channel).register(SelectionKey.OP_READ);
+        }
+    }
+    
+    /**
+     * A non-blocking connection, that is read by the IO Thread. Frames are written directly by the sending Thread, and
+     * only queued (for the IO Thread) when the socket buffer is full.
+     */
+    final class Connection {
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> queued = new ArrayDeque<>();
+        private volatile SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        
+        Connection(SocketChannel channel) { this.channel = channel; }
+        
+        void register(int ops) {
+            try { key = channel.register(selector, ops, this); }
+            catch (ClosedChannelException e) { close(); }
+        }
+        
+        void read() throws IOException {
+            if (channel.read(in) < 0) throw new EOFException();
+            in.flip();
+            
+            while (in.remaining() >= 4) {
+                int length = length(in.getInt(in.position()), maxFrame);
+                
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) in = ByteBuffer.allocate(4 + length).put(in);
+                    else in.compact();
+                    return;
+                }
+                
+                byte[] body = new byte[length];
+                in.getInt();
+                in.get(body);
+                inbox.add(new Frame(this, body, 0));
+            }
+            in.compact();
+        }
+        
+        void send(ByteBuffer frame) {
+            synchronized (this) {
+                try {
+                    if (queued.isEmpty()) channel.write(frame);
+                    if (!frame.hasRemaining()) return;
+                }
+                catch (IOException e) { close(); return; }
+                
+                queued.add(frame);
+            }
+            tasks.add(() -> {
+                SelectionKey k = key;
+                if (k != null && k.isValid()) k.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            });
+            selector.wakeup();
+        }
+        
+        synchronized void flush() throws IOException {
+            while (!queued.isEmpty()) {
+                ByteBuffer frame = queued.peek();
+                channel.write(frame);
+                
+                if (frame.hasRemaining()) return;
+                else queued.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        
+        void close() {
+            try { channel.close(); }
+            catch (IOException ignored) { }
+        }
+    }
+    
+    /**
+     * An immutable Object state. A null Cell denotes the pristine state.
+     */
+    private static final class Cell {
+        final Object obj;
+        final Object old;
+        
+        Cell(Object obj, Object old) { this.obj = obj; this.old = old; }
+    }
+    
+    /**
+     * A mark of a nested send on another Partition, in the undo log of a transaction
+     */
+    private static final class RemoteMark {
+        final int partition;
+        final int mark;
+        
+        RemoteMark(int partition, int mark) { this.partition = partition; this.mark = mark; }
+    }
+    
+    /**
+     * Signals that a send touched an Object on a Partition that doesn't participate (yet)
+     */
+    private static final class CrossPartition extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        CrossPartition() { super("Cross-partition send", null, false, false); }
+    }
+    
+    /**
+     * The buffered writes of a transaction on this Partition, which can only touch Objects of its participating
+     * Partitions. Touching another Partition aborts the transaction, even when a Message catches the CrossPartition
+     * exception.
+     */
+    private final class Txn {
+        final long id;
+        int mask;
+        int missing = -1;
+        private final HashMap<Object, Cell> writes = new HashMap<>();
+        private final ArrayList<Object> undo = new ArrayList<>();
+        
+        Txn(long id) { this.id = id; }
+        
+        private void participate(int p) {
+            if ((mask & (1 << p)) == 0) { missing = p; throw new CrossPartition(); }
+        }
+        
+        private Frame call(int p, byte op, Payload payload) {
+            participate(p);
+            Frame reply = Partition.this.call(p, op, id, payload);
+            
+            if (reply.op == MISSING) { missing = reply.readInt(); throw new CrossPartition(); }
+            else if (reply.op == FAILED) throw failure(reply);
+            else return reply;
+        }
+        
+        Cell read(Object id) {
+            int p = partition((Id<?>) id);
+            
+            if (p == index) {
+                Cell w = writes.get(id);
+                return w != null ? w : store.get(id);
+            }
+            else {
+                Frame reply = call(p, READ, out -> { out.writeInt(mask); codecs.write(id, out); });
+                return reply.readBoolean() ? new Cell(reply.read(codecs), reply.read(codecs)) : null;
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        <E> E send(int p, Object id, Message<?, ?, E> message) {
+            Frame reply = call(p, SEND, out -> {
+                out.writeInt(mask);
+                codecs.write(id, out);
+                codecs.write(message, out);
+            });
+            
+            undo.add(new RemoteMark(p, reply.readInt()));
+            undo.add(null);
+            return (E) reply.read(codecs);
+        }
+        
+        void write(Object id, Object obj, Object old) {
+            undo.add(id);
+            undo.add(writes.put(id, new Cell(obj, old)));
+        }
+        
+        int mark() { return undo.size(); }
+        
+        void rollback(int mark) {
+            for (int i = undo.size() - 2; i >= mark; i -= 2) {
+                Object id = undo.get(i);
+                Cell previous = (Cell) undo.get(i + 1);
+                
+                if (id instanceof RemoteMark) {
+                    RemoteMark remote = (RemoteMark) id;
+                    Partition.this.call(remote.partition, ROLLBACK, this.id, out -> out.writeInt(remote.mark));
+                }
+                else if (previous == null) writes.remove(id);
+                else writes.put(id, previous);
+            }
+            undo.subList(mark, undo.size()).clear();
+        }
+        
+        void commit() { store.putAll(writes); }
+    }
+    
+    private static class PartitionEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private final Partition partition;
+        private final Txn txn;
+        private final I self;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        public PartitionEnv(Partition partition, Txn txn, I self) {
+            this.partition = partition; this.txn = txn; this.self = self;
+        }
+        
+        @Override public I self() { return self; }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return Partition.obj(txn.read(id), id); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return Partition.old(txn.read(id), id); }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            return partition.dispatch(txn, id, msg);
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
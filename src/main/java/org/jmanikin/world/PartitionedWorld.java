@@ -0,0 +1,380 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codecs;
+import org.jmanikin.core.*;
+import org.jmanikin.world.Protocol.Frame;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jmanikin.world.Protocol.*;
+
+/**
+ * <p>A PartitionedWorld provides a (mutable!) World implementation that partitions Objects over {@link Partition}s,
+ * which normally run in separate processes on the same machine, and are reached over loopback sockets.</p>
+ * <p>A top-level send is first sent to the home Partition of its (first) Id, which commits it right away when it only
+ * touches Objects of that Partition. Nested sends to Objects of other Partitions are forwarded to those Partitions, in
+ * a compact binary format (see {@link Codecs}). A send that touches Objects of other Partitions is aborted, and retried
+ * with a two-phase commit that is coordinated by this PartitionedWorld: it first prepares all participating Partitions
+ * (in Partition order, to prevent deadlocks), then sends the Message on the home Partition, and finally commits (or
+ * aborts) on all participating Partitions.</p>
+ * <p>Ids, Messages, Objects, effects and failures are written with the Codecs of the {@link Config}, and Ids must
+ * implement equals and hashCode, because each Partition reads its own copy of them.</p>
+ *
+ * <p>Because Messages can be sent more than once, they should not have side effects outside of their World.
+ * A Partition or PartitionedWorld that fails during a two-phase commit is not recovered.</p>
+ */
+public class PartitionedWorld implements World<PartitionedWorld>, Closeable {
+    private static final AtomicLong txns = new AtomicLong(new SecureRandom().nextLong() & 0x7fffffff00000000L);
+    
+    private final Config config;
+    private final Codecs codecs;
+    private final InetSocketAddress[] partitions;
+    private final List<Process> processes;
+    
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Session> session = ThreadLocal.withInitial(this::session);
+    
+    private final LongAdder localSends = new LongAdder();
+    private final LongAdder crossPartitionSends = new LongAdder();
+    
+    /**
+     * The configuration of a PartitionedWorld and its Partitions. Launched Partitions create their own Config, so a
+     * Config class should have a public no-arg constructor.
+     */
+    public interface Config {
+        /**
+         * Returns the Codecs for all Ids, Messages, Objects and effects, registered in the same order everywhere
+         *
+         * @return the Codecs
+         */
+        Codecs codecs();
+        
+        /**
+         * Routes an Id to a Partition (modulo the number of Partitions)
+         *
+         * @param id the Id
+         * @return the route
+         */
+        default int route(Id<?> id) { return id.hashCode(); }
+        
+        /**
+         * Returns the Contracts policy of the Partitions
+         *
+         * @return the Contracts policy
+         */
+        default Contracts contracts() { return new Contracts(); }
+        
+        /**
+         * Returns the maximum length of a frame, in bytes. A connection that receives a longer frame is closed.
+         *
+         * @return the maximum length
+         */
+        default int maxFrame() { return 16 << 20; }
+    }
+    
+    /**
+     * Creates a PartitionedWorld that connects to running Partitions
+     *
+     * @param config     the configuration, which should be the same as the configuration of the Partitions
+     * @param partitions the addresses of the Partitions, in Partition order
+     */
+    public PartitionedWorld(Config config, List<InetSocketAddress> partitions) {
+        this(config, partitions, Collections.emptyList());
+    }
+    
+    private PartitionedWorld(Config config, List<InetSocketAddress> partitions, List<Process> processes) {
+        if (partitions.isEmpty() || partitions.size() > 32) {
+            throw new IllegalArgumentException("Between 1 and 32 partitions are required");
+        }
+        
+        this.config = config;
+        this.codecs = Partition.codecs(config);
+        this.partitions = partitions.toArray(new InetSocketAddress[0]);
+        this.processes = processes;
+        
+        Session s = session.get();
+        
+        for (int p = 0; p < this.partitions.length; p++) {
+            s.call(p, PEERS, 0, out -> {
+                out.writeInt(this.partitions.length);
+                for (InetSocketAddress address : this.partitions) {
+                    out.writeUTF(address.getHostString());
+                    out.writeInt(address.getPort());
+                }
+            });
+        }
+    }
+    
+    /**
+     * Launches a Partition process per partition (with the java command and class path of this process), and creates
+     * a PartitionedWorld that connects to them. Closing the PartitionedWorld shuts down the Partitions.
+     *
+     * @param partitions the number of Partitions
+     * @param config     the Config class, with a public no-arg constructor
+     * @param jvmOptions the options of the Partition JVMs (such as -Xmx1g)
+     * @return the PartitionedWorld
+     * @throws IOException when a Partition process cannot be started
+     */
+    public static PartitionedWorld launch(int partitions, Class<? extends Config> config, String... jvmOptions)
+        throws IOException {
+        
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ArrayList<Process> processes = new ArrayList<>();
+        ArrayList<InetSocketAddress> addresses = new ArrayList<>();
+        
+        try {
+            for (int i = 0; i < partitions; i++) {
+                ArrayList<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(Arrays.asList(jvmOptions));
+                command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path")));
+                command.addAll(Arrays.asList(Partition.class.getName(), config.getName(), String.valueOf(i)));
+                
+                Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+                
+                BufferedReader out = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                String line = out.readLine();
+                
+                if (line == null || !line.startsWith("PARTITION ")) {
+                    throw new IOException("Partition " + i + " failed to start");
+                }
+                int port = Integer.parseInt(line.substring("PARTITION ".length()));
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+            
+            return new PartitionedWorld(config.getDeclaredConstructor().newInstance(), addresses, processes);
+        }
+        catch (IOException | RuntimeException | ReflectiveOperationException e) {
+            for (Process process : processes) process.destroyForcibly();
+            
+            if (e instanceof IOException) throw (IOException) e;
+            else if (e instanceof RuntimeException) throw (RuntimeException) e;
+            else throw new IllegalArgumentException("Cannot create " + config.getName(), e);
+        }
+    }
+    
+    /**
+     * Returns the number of Partitions
+     *
+     * @return the number of Partitions
+     */
+    public int partitions() { return partitions.length; }
+    
+    /**
+     * Returns the Partition that owns the Object of an Id
+     *
+     * @param id the Id
+     * @return the index of the Partition
+     */
+    public int partition(Id<?> id) { return partition(config, id, partitions.length); }
+    
+    static int partition(Config config, Id<?> id, int partitions) {
+        int h = config.route(id);
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+    }
+    
+    /**
+     * Returns the number of top-level sends that were handled by a single Partition
+     *
+     * @return the number of local sends
+     */
+    public long localSends() { return localSends.sum(); }
+    
+    /**
+     * Returns the number of top-level sends that required a two-phase commit over multiple Partitions
+     *
+     * @return the number of cross-partition sends
+     */
+    public long crossPartitionSends() { return crossPartitionSends.sum(); }
+    
+    @Override
+    public <O> Value<PartitionedWorld, O> obj(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, get(id, true));
+    }
+    
+    @Override
+    public <O> Value<PartitionedWorld, O> old(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, get(id, false));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O get(Id<? extends O> id, boolean obj) {
+        Frame reply = session.get().call(partition(id), GET, 0, out -> codecs.write(id, out));
+        
+        if (!reply.readBoolean()) return id.init();
+        
+        O current = (O) reply.read(codecs);
+        O old = (O) reply.read(codecs);
+        return obj ? current : old;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <I extends Id<O>, O, E> Value<PartitionedWorld, E> send(I id, Message<I, O, E> message) {
+        return new Value.ValueImpl<>(this, (E) execute(new Batch().add(id, message))[0]);
+    }
+    
+    /**
+     * Sends all Messages of a Batch in a single transaction, that starts on the home Partition of the first Message
+     */
+    @Override
+    public Value<PartitionedWorld, List<Object>> send(Batch batch) {
+        if (batch.size() == 0) return new Value.ValueImpl<>(this, Batch.effects());
+        else return new Value.ValueImpl<>(this, Batch.effects(execute(batch)));
+    }
+    
+    private Object[] execute(Batch batch) {
+        Session s = session.get();
+        int home = partition(batch.id(0));
+        int participants = 1 << home;
+        
+        // First try to send the Batch on its home Partition, without any coordination
+        Frame reply = s.call(home, EXECUTE, txns.incrementAndGet(), execute(participants, batch));
+        
+        if (reply.op == RESULT) { localSends.increment(); return effects(reply); }
+        else if (reply.op == FAILED) throw failure(reply);
+        
+        crossPartitionSends.increment();
+        
+        while (true) {
+            participants |= 1 << reply.readInt();
+            
+            long txn = txns.incrementAndGet();
+            int prepared = 0;
+            
+            try {
+                // Phase 1: prepare all participants in Partition order
+                for (int p = 0; p < partitions.length; p++) {
+                    if ((participants & (1 << p)) != 0) { s.call(p, PREPARE, txn, EMPTY); prepared |= 1 << p; }
+                }
+                
+                reply = s.call(home, EXECUTE, txn, execute(participants, batch));
+                
+                // Phase 2: commit on all participants
+                if (reply.op == RESULT) {
+                    Object[] effects = effects(reply);
+                    s.callAll(prepared, COMMIT, txn);
+                    prepared = 0;
+                    return effects;
+                }
+                else if (reply.op == FAILED) throw failure(reply);
+            }
+            finally { if (prepared != 0) s.callAll(prepared, ABORT, txn); }   // and retry with more participants
+        }
+    }
+    
+    private Payload execute(int participants, Batch batch) {
+        return out -> {
+            out.writeInt(participants);
+            out.writeInt(batch.size());
+            for (int i = 0; i < batch.size(); i++) { codecs.write(batch.id(i), out); codecs.write(batch.msg(i), out); }
+        };
+    }
+    
+    private Object[] effects(Frame reply) {
+        Object[] effects = new Object[reply.readInt()];
+        for (int i = 0; i < effects.length; i++) effects[i] = reply.read(codecs);
+        return effects;
+    }
+    
+    /**
+     * Removes all Objects from all Partitions, and returns this PartitionedWorld (because the Objects are owned by
+     * the Partitions)
+     */
+    @Override
+    public PartitionedWorld init() {
+        session.get().callAll((int) ((1L << partitions.length) - 1), CLEAR, 0);
+        return this;
+    }
+    
+    /**
+     * Closes all connections, and shuts down the Partitions that have been launched by this PartitionedWorld
+     */
+    @Override
+    public void close() throws IOException {
+        try { if (!processes.isEmpty()) session.get().callAll((int) ((1L << partitions.length) - 1), SHUTDOWN, 0); }
+        finally {
+            for (Session s : sessions) s.close();
+            
+            for (Process process : processes) {
+                process.getOutputStream().close();   // stops the Partition if the shutdown failed
+                
+                try { if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly(); }
+                catch (InterruptedException e) {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    private Session session() {
+        Session s = new Session();
+        sessions.add(s);
+        return s;
+    }
+    
+    /**
+     * The blocking connections of a Thread to all Partitions, with at most one outstanding request per Partition
+     */
+    private final class Session {
+        private final SocketChannel[] channels = new SocketChannel[partitions.length];
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+        private long calls;
+        
+        private SocketChannel channel(int p) throws IOException {
+            if (channels[p] == null) {
+                SocketChannel channel = SocketChannel.open(partitions[p]);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channels[p] = channel;
+            }
+            return channels[p];
+        }
+        
+        Frame call(int p, byte op, long txn, Payload payload) {
+            try {
+                SocketChannel channel = channel(p);
+                Protocol.write(channel, encode(op, ++calls, txn, payload));
+                return Protocol.read(channel, length, config.maxFrame());
+            }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        
+        /**
+         * Sends a request to a set of Partitions at once, and awaits all their replies
+         */
+        void callAll(int mask, byte op, long txn) {
+            try {
+                for (int p = 0; p < partitions.length; p++) {
+                    if ((mask & (1 << p)) != 0) Protocol.write(channel(p), encode(op, ++calls, txn, EMPTY));
+                }
+                for (int p = 0; p < partitions.length; p++) {
+                    if ((mask & (1 << p)) != 0) Protocol.read(channel(p), length, config.maxFrame());
+                }
+            }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        
+        void close() {
+            for (SocketChannel channel : channels) {
+                try { if (channel != null) channel.close(); }
+                catch (IOException ignored) { }
+            }
+        }
+    }
+}
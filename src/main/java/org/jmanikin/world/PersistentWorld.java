@@ -0,0 +1,156 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * <p>A PersistentWorld provides an immutable World implementation, backed by persistent Hash Tries.</p>
+ * <p>Each send returns a new World that structurally shares all untouched state with its predecessor.
+ * Keeping a previous version of a World is O(1), and rolling back to it is just a matter of using it again.</p>
+ *
+ * <p>Because PersistentWorld is immutable you can share it between multiple Threads. For the same reason, a snapshot
+ * (of a World, or of an Environment during a send) is just a View of the current tries, and takes constant time.</p>
+ */
+public final class PersistentWorld implements World<PersistentWorld> {
+    private static final Object NULL = new Object();   // stands for null Objects, as in SimpleWorld
+    
+    private final HashTrie obj;
+    private final HashTrie old;
+    private final Contracts contracts;
+    
+    public PersistentWorld() { this(new Contracts()); }
+    
+    /**
+     * Creates a PersistentWorld
+     *
+     * @param contracts the Contracts policy, that determines which pre- and post-conditions are checked
+     */
+    public PersistentWorld(Contracts contracts) { this(HashTrie.EMPTY, HashTrie.EMPTY, contracts); }
+    
+    private PersistentWorld(HashTrie obj, HashTrie old, Contracts contracts) {
+        this.obj = obj; this.old = old; this.contracts = contracts;
+    }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return contracts; }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O lookup(HashTrie trie, Id<? extends O> id) {
+        Object o = trie.get(id);
+        return o == null ? id.init() : o == NULL ? null : (O) o;
+    }
+    
+    private static Object mask(Object o) { return o == null ? NULL : o; }
+    
+    @Override
+    public <O> Value<PersistentWorld, O> obj(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, lookup(obj, id));
+    }
+    
+    @Override
+    public <O> Value<PersistentWorld, O> old(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, lookup(old, id));
+    }
+    
+    @Override
+    public View snapshot() { return new PersistentView(this); }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<PersistentWorld, E> send(I id, Message<I, O, E> message) {
+        PersistentEnv<I, O, E> env = new PersistentEnv<I, O, E>(this, id);
+        try {
+            O oldObj = lookup(obj, id);
+            
+            Msg<I, O, E> msg = message.msg(env);
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+            else {
+                // No need to rollback on failure: this World is never touched
+                env.world = new PersistentWorld(obj.put(id, mask(msg.app().get())), old.put(id, mask(oldObj)), contracts);
+                E eff = msg.eff().get();
+                env.world = new PersistentWorld(env.world.obj, env.world.old.put(id, mask(oldObj)), contracts); // recursive sends to self
+                
+                if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                else return new Value.ValueImpl<>(env.world, eff);
+            }
+        }
+        finally { message.release(env); }
+    }
+    
+    @Override
+    public Value<PersistentWorld, List<Object>> send(Batch batch) {
+        PersistentWorld world = this;   // No need to rollback on failure: this World is never touched
+        Object[] effects = new Object[batch.size()];
+        
+        for (int i = 0; i < effects.length; i++) {
+            Value<PersistentWorld, Object> result = world.send(batch.id(i), batch.msg(i));
+            world = result.world();
+            effects[i] = result.value();
+        }
+        
+        return new Value.ValueImpl<>(world, Batch.effects(effects));
+    }
+    
+    /**
+     * Provides PersistentWorlds to the {@link Worlds} registry
+     */
+    public static final class Provider implements WorldProvider<PersistentWorld> {
+        @Override public String name() { return "PersistentWorld"; }
+        @Override public Class<PersistentWorld> type() { return PersistentWorld.class; }
+        @Override public PersistentWorld create() { return new PersistentWorld(); }
+    }
+    
+    @Override public PersistentWorld init() { return new PersistentWorld(contracts); }
+    
+    /**
+     * A View of a PersistentWorld, which is immutable
+     */
+    private static final class PersistentView implements View {
+        private final PersistentWorld world;
+        
+        PersistentView(PersistentWorld world) { this.world = world; }
+        
+        @Override public <O> O obj(Id<? extends O> id) { return world.lookup(world.obj, id); }
+        @Override public <O> O old(Id<? extends O> id) { return world.lookup(world.old, id); }
+    }
+    
+    private static class PersistentEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private PersistentWorld world;
+        private final I self;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        public PersistentEnv(PersistentWorld world, I self) { this.world = world; this.self = self; }
+        
+        @Override public I self() { return self; }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return world.lookup(world.obj, id); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return world.lookup(world.old, id); }
+        @Override public View snapshot() { return world.snapshot(); }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            Value<PersistentWorld, R2> result = world.send(id, msg);
+            world = result.world();
+            return result.value();
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
@@ -0,0 +1,175 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codecs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>The binary protocol between a {@link PartitionedWorld} and its {@link Partition}s, and between Partitions.</p>
+ * <p>Each frame is a length-prefixed request or reply: the op, the call (that a reply answers), the transaction and a
+ * payload. Ids, Messages, Objects and effects in the payload are written with the Codecs of the World, and failures
+ * as their class name and message.</p>
+ */
+final class Protocol {
+    private Protocol() { }
+    
+    // requests
+    static final byte PEERS = 1;      // ports of all partitions
+    static final byte GET = 2;        // id -> CELL
+    static final byte CLEAR = 3;
+    static final byte SHUTDOWN = 4;
+    static final byte PREPARE = 5;    // hold the partition for a transaction
+    static final byte EXECUTE = 6;    // mask, pairs -> RESULT (effects) | FAILED | MISSING
+    static final byte SEND = 7;       // mask, id, message -> RESULT (mark, effect) | FAILED | MISSING
+    static final byte READ = 8;       // mask, id -> CELL | MISSING
+    static final byte ROLLBACK = 9;   // mark
+    static final byte COMMIT = 10;
+    static final byte ABORT = 11;
+    
+    // replies
+    static final byte DONE = 64;
+    static final byte RESULT = 65;
+    static final byte FAILED = 66;
+    static final byte MISSING = 67;   // partition
+    static final byte CELL = 68;      // present, obj, old
+    
+    static final int HEADER = 1 + 8 + 8;   // op, call, txn
+    static final int MESSAGE = 8192;       // the maximum length of a failure message (in chars)
+    
+    static boolean isReply(byte op) { return op >= DONE; }
+    
+    interface Payload { void write(DataOutputStream out) throws IOException; }
+    
+    static final Payload EMPTY = out -> { };
+    
+    /**
+     * Returns an encoded frame, ready to be written
+     */
+    static ByteBuffer encode(byte op, long call, long txn, Payload payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            
+            out.writeInt(0);   // the length, patched below
+            out.writeByte(op);
+            out.writeLong(call);
+            out.writeLong(txn);
+            payload.write(out);
+            out.flush();
+            
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.capacity() - 4);
+            return frame;
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    /**
+     * Returns an encoded FAILED reply: the class name and the (truncated) message of the failure. Failures are never
+     * written with the Codecs, so that a peer cannot make a Partition deserialize arbitrary classes.
+     */
+    static ByteBuffer failed(long call, long txn, Throwable failure) {
+        String message = failure.getMessage();
+        
+        return encode(FAILED, call, txn, out -> {
+            out.writeUTF(failure.getClass().getName());
+            out.writeBoolean(message != null);
+            if (message != null) out.writeUTF(message.length() <= MESSAGE ? message : message.substring(0, MESSAGE));
+        });
+    }
+    
+    /**
+     * Returns the failure of a FAILED reply, to be rethrown. Only the failures of Contracts and the common
+     * RuntimeExceptions of Messages are rebuilt as such. All other failures (including Errors) are replaced by a
+     * {@link RemoteFailure}: a class name that has been sent by a peer is never loaded.
+     */
+    static RuntimeException failure(Frame frame) {
+        String type = frame.readUTF();
+        String message = frame.readBoolean() ? frame.readUTF() : null;
+        
+        switch (type) {
+            case "java.lang.RuntimeException": return new RuntimeException(message);
+            case "java.lang.IllegalStateException": return new IllegalStateException(message);
+            case "java.lang.IllegalArgumentException": return new IllegalArgumentException(message);
+            case "java.lang.UnsupportedOperationException": return new UnsupportedOperationException(message);
+            default: return new RemoteFailure(type, message);
+        }
+    }
+    
+    /**
+     * Writes a frame to a blocking channel
+     */
+    static void write(SocketChannel channel, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) channel.write(frame);
+    }
+    
+    /**
+     * Checks the length of a frame (without its length prefix), as read from the wire
+     *
+     * @throws StreamCorruptedException when the length is shorter than a header, or longer than the maximum
+     */
+    static int length(int length, int max) throws StreamCorruptedException {
+        if (length < HEADER || length > max) throw new StreamCorruptedException("Invalid frame length " + length);
+        return length;
+    }
+    
+    /**
+     * Reads a frame of at most max bytes from a blocking channel
+     */
+    static Frame read(SocketChannel channel, ByteBuffer length, int max) throws IOException {
+        length.clear();
+        readFully(channel, length);
+        
+        ByteBuffer body = ByteBuffer.allocate(length(length.getInt(0), max));
+        readFully(channel, body);
+        return new Frame(null, body.array(), 0);
+    }
+    
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) { if (channel.read(buffer) < 0) throw new EOFException("Partition closed"); }
+    }
+    
+    /**
+     * A decoded frame, and the Connection it has been received on (if any)
+     */
+    static final class Frame {
+        final Partition.Connection from;
+        final byte op;
+        final long call;
+        final long txn;
+        final DataInputStream in;
+        
+        Frame(Partition.Connection from, byte[] bytes, int offset) {   // the offset of the header
+            this.from = from;
+            int start = offset + HEADER;
+            this.in = new DataInputStream(new ByteArrayInputStream(bytes, start, bytes.length - start));
+            
+            ByteBuffer header = ByteBuffer.wrap(bytes, offset, HEADER);
+            this.op = header.get();
+            this.call = header.getLong();
+            this.txn = header.getLong();
+        }
+        
+        Object read(Codecs codecs) {
+            try { return codecs.read(in); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        
+        String readUTF() {
+            try { return in.readUTF(); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        
+        int readInt() {
+            try { return in.readInt(); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+        
+        boolean readBoolean() {
+            try { return in.readBoolean(); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.jmanikin.world;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A Recorder captures every dispatched Message of a World: its target Id, its nesting depth, its parent send, its
+ * effect and its {@link Outcome}.</p>
+ * <p>Records are written to a preallocated, lock-free ring buffer, that is drained by a background Thread into a
+ * {@link Sink}. So recording never blocks and never allocates: when the ring buffer is full, records are dropped
+ * (and counted) instead.</p>
+ *
+ * <p>Sends are numbered from 1 in dispatch order, and a top-level send has parent 0. A send is recorded when it
+ * finishes, so nested sends are recorded before their parent. Note that a COMMITTED nested send is still undone
+ * when one of its ancestors fails.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * try (Recorder recorder = new Recorder(1 << 16, r -> System.out.println(r.id() + " " + r.outcome()))) {
+ *      SimpleWorld world = new SimpleWorld().recorder(recorder);
+ *      ...
+ * }
+ * }</pre>
+ */
+public final class Recorder implements Closeable {
+    /**
+     * The outcome of a send
+     */
+    public enum Outcome {
+        /**
+         * The send has committed
+         */
+        COMMITTED,
+        /**
+         * The pre-condition has failed, so nothing has been written
+         */
+        PRE_FAILED,
+        /**
+         * The post-condition has failed, so the send has been rolled back
+         */
+        POST_FAILED,
+        /**
+         * The send (or one of its nested sends) has thrown an exception, so the send has been rolled back
+         */
+        ROLLED_BACK
+    }
+    
+    /**
+     * Receives drained records on the background Thread
+     */
+    public interface Sink {
+        /**
+         * Receives a record, that is only valid during this call
+         *
+         * @param record the record
+         */
+        void accept(Record record);
+    }
+    
+    private final Slot[] slots;
+    private final int mask;
+    private final Sink sink;
+    private final Thread drainer;
+    
+    private final AtomicLong head = new AtomicLong();   // the next sequence to claim
+    private volatile long tail = 0;                     // the next sequence to drain
+    private final AtomicLong sends = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+    
+    /**
+     * Creates a Recorder, and starts its background Thread
+     *
+     * @param capacity the capacity of the ring buffer, which is rounded up to a power of two
+     * @param sink     the Sink that receives the records
+     */
+    public Recorder(int capacity, Sink sink) {
+        if (capacity < 1 || capacity > (1 << 30)) throw new IllegalArgumentException("Capacity should be in [1, 2^30]");
+        
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        this.sink = sink;
+        
+        for (int i = 0; i < size; i++) slots[i] = new Slot(i - size);   // i.e. not yet published
+        
+        drainer = new Thread(this::drain, "recorder");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+    
+    /**
+     * Returns the number of a new send
+     *
+     * @return the send number
+     */
+    long begin() { return sends.incrementAndGet(); }
+    
+    /**
+     * Records a finished send, or drops it when the ring buffer is full
+     */
+    void record(long send, long parent, int depth, Object id, Object message, Object effect, Outcome outcome) {
+        long seq;
+        
+        do {
+            seq = head.get();
+            if (seq - tail >= slots.length) { dropped.incrementAndGet(); return; }
+        }
+        while (!head.compareAndSet(seq, seq + 1));
+        
+        Slot slot = slots[(int) seq & mask];
+        slot.send = send;
+        slot.parent = parent;
+        slot.depth = depth;
+        slot.id = id;
+        slot.message = message;
+        slot.effect = effect;
+        slot.outcome = outcome;
+        Slot.SEQUENCE.lazySet(slot, seq);   // publish
+    }
+    
+    private void drain() {
+        int idle = 0;
+        
+        while (true) {
+            long t = tail;
+            Slot slot = slots[(int) t & mask];
+            
+            if (slot.sequence == t) {
+                try { sink.accept(slot); }
+                catch (RuntimeException e) { /* a failing Sink must not stop the Recorder */ }
+                
+                slot.clear();
+                tail = t + 1;   // free the slot
+                idle = 0;
+            }
+            else if (closed && head.get() == t) return;
+            else if (++idle < 100) Thread.yield();
+            else LockSupport.parkNanos(100_000);
+        }
+    }
+    
+    /**
+     * Returns the number of records that have been drained into the Sink
+     *
+     * @return the number of recorded sends
+     */
+    public long recorded() { return tail; }
+    
+    /**
+     * Returns the number of records that were dropped because the ring buffer was full
+     *
+     * @return the number of dropped records
+     */
+    public long dropped() { return dropped.get(); }
+    
+    /**
+     * Drains all claimed records, and stops the background Thread
+     */
+    @Override public void close() {
+        closed = true;
+        
+        try { drainer.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+    
+    /**
+     * A recorded send
+     */
+    public interface Record {
+        /**
+         * Returns the send number
+         *
+         * @return the send number
+         */
+        long send();
+        
+        /**
+         * Returns the number of the parent send, or 0 for a top-level send
+         *
+         * @return the parent send number
+         */
+        long parent();
+        
+        /**
+         * Returns the nesting depth, which is 0 for a top-level send
+         *
+         * @return the depth
+         */
+        int depth();
+        
+        /**
+         * Returns the Id that the Message was sent to
+         *
+         * @return the Id
+         */
+        Object id();
+        
+        /**
+         * Returns the Message
+         *
+         * @return the Message
+         */
+        Object message();
+        
+        /**
+         * Returns the effect, or null if the send didn't commit
+         *
+         * @return the effect
+         */
+        Object effect();
+        
+        /**
+         * Returns the Outcome
+         *
+         * @return the Outcome
+         */
+        Outcome outcome();
+    }
+    
+    private static final class Slot implements Record {
+        static final AtomicLongFieldUpdater<Slot> SEQUENCE = AtomicLongFieldUpdater.newUpdater(Slot.class, "sequence");
+        
+        volatile long sequence;
+        long send;
+        long parent;
+        int depth;
+        Object id;
+        Object message;
+        Object effect;
+        Outcome outcome;
+        
+        Slot(long sequence) { this.sequence = sequence; }
+        
+        void clear() { id = null; message = null; effect = null; outcome = null; }
+        
+        @Override public long send() { return send; }
+        @Override public long parent() { return parent; }
+        @Override public int depth() { return depth; }
+        @Override public Object id() { return id; }
+        @Override public Object message() { return message; }
+        @Override public Object effect() { return effect; }
+        @Override public Outcome outcome() { return outcome; }
+    }
+}
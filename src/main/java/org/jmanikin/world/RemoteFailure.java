@@ -0,0 +1,25 @@
+package org.jmanikin.world;
+
+/**
+ * <p>A RemoteFailure is thrown by a {@link PartitionedWorld} when a send has failed on a {@link Partition} with a
+ * failure that is not rebuilt locally. It carries the class name and the (truncated) message of that failure.</p>
+ * <p>Failures are never instantiated by the name a peer has sent, so that a peer cannot make a World load (and
+ * initialize) arbitrary classes.</p>
+ */
+public final class RemoteFailure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    private final String type;
+    
+    RemoteFailure(String type, String message) {
+        super(message != null ? type + ": " + message : type);
+        this.type = type;
+    }
+    
+    /**
+     * Returns the class name of the remote failure
+     *
+     * @return the class name
+     */
+    public String type() { return type; }
+}
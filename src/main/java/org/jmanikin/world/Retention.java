@@ -0,0 +1,84 @@
+package org.jmanikin.world;
+
+/**
+ * <p>A Retention policy determines how long a World keeps the old state of an Object, after the send that has
+ * written it has committed. Within a send, old states are always available, so post-conditions are not affected.</p>
+ * <p>When the old state of an Object is no longer retained, its old state equals its current state (as if it has
+ * not been written).</p>
+ *
+ * <p>Keeping old states forever effectively doubles the number of stored Objects, while they are mostly read by
+ * post-conditions only.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * SimpleWorld world = new SimpleWorld().retention(new Retention(Retention.Mode.LAST, 16));
+ * }</pre>
+ */
+public final class Retention {
+    /**
+     * How long old states are retained
+     */
+    public enum Mode {
+        /**
+         * Retains the old state of every written Object, forever
+         */
+        ALWAYS,
+        /**
+         * Retains old states until the top-level send (or Batch) that has written them commits
+         */
+        SEND,
+        /**
+         * Retains the old states that have been written by the latest top-level send or Batch, until the next one
+         * commits
+         */
+        BATCH,
+        /**
+         * Retains the old states that have been written by the last K top-level sends. The Messages of a Batch count
+         * as separate sends.
+         */
+        LAST
+    }
+    
+    private final Mode mode;
+    private final int sends;
+    
+    /**
+     * Creates a Retention policy that retains all old states
+     */
+    public Retention() { this(Mode.ALWAYS); }
+    
+    /**
+     * Creates a Retention policy, that retains the last send at the LAST Mode
+     *
+     * @param mode the Mode
+     */
+    public Retention(Mode mode) { this(mode, 1); }
+    
+    /**
+     * Creates a Retention policy
+     *
+     * @param mode  the Mode
+     * @param sends the number of sends (K) that are retained at the LAST Mode
+     */
+    public Retention(Mode mode, int sends) {
+        if (sends < 1) throw new IllegalArgumentException("Number of sends should be at least 1");
+        
+        this.mode = mode;
+        this.sends = sends;
+    }
+    
+    /**
+     * Returns the Mode
+     *
+     * @return the Mode
+     */
+    public Mode mode() { return mode; }
+    
+    /**
+     * Returns the number of sends that are retained at the LAST Mode
+     *
+     * @return the number of sends
+     */
+    public int sends() { return sends; }
+}
@@ -0,0 +1,400 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>A ShardedWorld provides a (mutable!) World implementation that partitions Objects over single-threaded shards.</p>
+ * <p>Each shard owns the Objects that are routed to it, and runs the top-level sends to those Objects on its own Thread,
+ * without any locking. A send that (via nested sends) touches Objects of other shards is coordinated with a two-phase
+ * commit: the calling Thread first prepares all participating shards (in shard order, to prevent deadlocks), then sends
+ * the Message on behalf of all these shards, and finally commits (or aborts) and releases them.</p>
+ * <p>Routing is pluggable: Ids are routed to shards by a user-provided function.</p>
+ *
+ * <p>Because Messages can be sent more than once, they should not have side effects outside of their World.</p>
+ */
+public class ShardedWorld implements World<ShardedWorld> {
+    private final Shard[] shards;
+    private final ToIntFunction<Id<?>> router;
+    
+    private final LongAdder localSends = new LongAdder();
+    private final LongAdder crossShardSends = new LongAdder();
+    
+    private volatile Contracts contracts = new Contracts();
+    
+    /**
+     * Creates a ShardedWorld with one shard per core, that routes Ids by their hashCode
+     */
+    public ShardedWorld() { this(Runtime.getRuntime().availableProcessors(), Object::hashCode); }
+    
+    /**
+     * Creates a ShardedWorld
+     *
+     * @param shards the number of shards
+     * @param router the function that routes an Id to a shard (modulo the number of shards)
+     */
+    public ShardedWorld(int shards, ToIntFunction<Id<?>> router) {
+        if (shards < 1) throw new IllegalArgumentException("At least one shard is required");
+        
+        this.shards = new Shard[shards];
+        this.router = router;
+        
+        for (int i = 0; i < shards; i++) this.shards[i] = new Shard(i);
+    }
+    
+    /**
+     * Sets the Contracts policy, that determines which pre- and post-conditions are checked
+     *
+     * @param contracts the Contracts policy
+     * @return this ShardedWorld
+     */
+    public ShardedWorld contracts(Contracts contracts) { this.contracts = contracts; return this; }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return contracts; }
+    
+    /**
+     * Returns the number of top-level sends that were handled by a single shard
+     *
+     * @return the number of local sends
+     */
+    public long localSends() { return localSends.sum(); }
+    
+    /**
+     * Returns the number of top-level sends that required a two-phase commit over multiple shards
+     *
+     * @return the number of cross-shard sends
+     */
+    public long crossShardSends() { return crossShardSends.sum(); }
+    
+    /**
+     * Returns the fraction of top-level sends that required a two-phase commit over multiple shards
+     *
+     * @return the cross-shard fraction
+     */
+    public double crossShardFraction() {
+        long cross = crossShardSends();
+        long total = cross + localSends();
+        return total == 0 ? 0.0 : (double) cross / total;
+    }
+    
+    private int shard(Id<?> id) {
+        int h = router.applyAsInt(id);
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % shards.length;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O obj(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.obj : id.init(); }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O old(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.old : id.init(); }
+    
+    @Override
+    public <O> Value<ShardedWorld, O> obj(Id<? extends O> id) {
+        Shard shard = shards[shard(id)];
+        return new Value.ValueImpl<>(this, obj(shard.call(() -> shard.store.get(id)), id));
+    }
+    
+    @Override
+    public <O> Value<ShardedWorld, O> old(Id<? extends O> id) {
+        Shard shard = shards[shard(id)];
+        return new Value.ValueImpl<>(this, old(shard.call(() -> shard.store.get(id)), id));
+    }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<ShardedWorld, E> send(I id, Message<I, O, E> message) {
+        return new Value.ValueImpl<>(this, execute(shard(id), txn -> dispatch(txn, id, message)));
+    }
+    
+    /**
+     * Sends all Messages of a Batch in a single transaction, that starts on the home shard of the first Message
+     */
+    @Override
+    public Value<ShardedWorld, List<Object>> send(Batch batch) {
+        if (batch.size() == 0) return new Value.ValueImpl<>(this, Batch.effects());
+        
+        return new Value.ValueImpl<>(this, execute(shard(batch.id(0)), txn -> {
+            Object[] effects = new Object[batch.size()];
+            for (int i = 0; i < effects.length; i++) effects[i] = dispatch(txn, batch.id(i), batch.msg(i));
+            return Batch.effects(effects);
+        }));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <E> E execute(int home, Function<Txn, E> body) {
+        BitSet participants = new BitSet();
+        participants.set(home);
+        
+        // First try to send the Message on its home shard, without any coordination
+        Object result = shards[home].call(() -> {
+            Txn txn = new Txn(participants);
+            
+            try {
+                E eff = body.apply(txn);
+                if (txn.missing < 0) { txn.commit(); return new Local<>(eff); }
+            }
+            catch (RuntimeException e) { if (txn.missing < 0) throw e; }
+            
+            return txn.missing;
+        });
+        
+        if (result instanceof Local) {
+            localSends.increment();
+            return ((Local<E>) result).eff;
+        }
+        else {
+            crossShardSends.increment();
+            participants.set((Integer) result);
+            return twoPhaseCommit(participants, body);
+        }
+    }
+    
+    private <E> E twoPhaseCommit(BitSet participants, Function<Txn, E> body) {
+        while (true) {
+            ArrayList<Pause> prepared = new ArrayList<>();
+            Txn txn = new Txn(participants);
+            
+            try {
+                // Phase 1: prepare all participants in shard order
+                for (int s = participants.nextSetBit(0); s >= 0; s = participants.nextSetBit(s + 1)) {
+                    prepared.add(shards[s].pause());
+                }
+                
+                E eff = body.apply(txn);
+                
+                // Phase 2: commit on all participants
+                if (txn.missing < 0) { txn.commit(); return eff; }
+            }
+            catch (RuntimeException e) { if (txn.missing < 0) throw e; }
+            finally { for (Pause pause : prepared) pause.release(); }
+            
+            participants.set(txn.missing);   // abort, and retry with more participants
+        }
+    }
+    
+    private <I extends Id<O>, O, E> E dispatch(Txn txn, I id, Message<I, O, E> message) {
+        ShardedEnv<I, O, E> env = new ShardedEnv<>(this, txn, id);
+        try {
+            O oldObj = obj(txn.read(id), id);
+            
+            Msg<I, O, E> msg = message.msg(env);
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+            else {
+                int mark = txn.mark();
+                
+                try {
+                    txn.write(id, msg.app().get(), oldObj);
+                    E eff = msg.eff().get();
+                    txn.write(id, txn.read(id).obj, oldObj);   // put it again because of recursive sends to self
+                    
+                    if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                    else return eff;
+                }
+                catch (Exception e) {
+                    txn.rollback(mark);   // Rollback all writes, including nested sends
+                    throw e;
+                }
+            }
+        }
+        finally { message.release(env); }
+    }
+    
+    /**
+     * Provides ShardedWorlds to the {@link Worlds} registry
+     */
+    public static final class Provider implements WorldProvider<ShardedWorld> {
+        @Override public String name() { return "ShardedWorld"; }
+        @Override public Class<ShardedWorld> type() { return ShardedWorld.class; }
+        @Override public ShardedWorld create() { return new ShardedWorld(); }
+    }
+    
+    @Override public ShardedWorld init() { return new ShardedWorld(shards.length, router).contracts(contracts); }
+    
+    /**
+     * An immutable Object state. A null Cell denotes the pristine state.
+     */
+    private static final class Cell {
+        final Object obj;
+        final Object old;
+        
+        Cell(Object obj, Object old) { this.obj = obj; this.old = old; }
+    }
+    
+    /**
+     * A shard owns a store that is only accessed by its own Thread, or by the Thread that has paused it.
+     */
+    private static final class Shard {
+        final HashMap<Object, Cell> store = new HashMap<>();
+        final ThreadPoolExecutor executor;
+        
+        Shard(int index) {
+            executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "shard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+            executor.allowCoreThreadTimeOut(true);   // idle shards don't keep their Thread
+        }
+        
+        <X> X call(Callable<X> task) {
+            try { return executor.submit(task).get(); }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                else if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                else throw new RuntimeException(e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        
+        Pause pause() {
+            Pause pause = new Pause();
+            executor.execute(pause);
+            pause.awaitPaused();
+            return pause;
+        }
+    }
+    
+    /**
+     * Blocks the Thread of a shard, so that its store can be accessed by another Thread
+     */
+    private static final class Pause implements Runnable {
+        private final CountDownLatch paused = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        
+        @Override public void run() {
+            paused.countDown();
+            boolean interrupted = false;
+            
+            while (true) {
+                try { released.await(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        
+        void awaitPaused() {
+            boolean interrupted = false;
+            
+            while (true) {
+                try { paused.await(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        
+        void release() { released.countDown(); }
+    }
+    
+    private static final class Local<E> {
+        final E eff;
+        Local(E eff) { this.eff = eff; }
+    }
+    
+    /**
+     * Signals that a send touched an Object on a shard that doesn't participate (yet)
+     */
+    private static final class CrossShard extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        CrossShard() { super("Cross-shard send", null, false, false); }
+    }
+    
+    /**
+     * The buffered writes of a top-level send, which can only access the stores of its participating shards.
+     * Accessing another shard aborts the send, even when a Message catches the CrossShard exception.
+     */
+    private final class Txn {
+        private final BitSet participants;
+        int missing = -1;
+        private final HashMap<Object, Cell> writes = new HashMap<>();
+        private final ArrayList<Object> undo = new ArrayList<>();
+        
+        Txn(BitSet participants) { this.participants = participants; }
+        
+        private Shard shard(Object id) {
+            int s = ShardedWorld.this.shard((Id<?>) id);
+            if (!participants.get(s)) { missing = s; throw new CrossShard(); }
+            return shards[s];
+        }
+        
+        Cell read(Object id) {
+            Shard shard = shard(id);
+            Cell w = writes.get(id);
+            return w != null ? w : shard.store.get(id);
+        }
+        
+        void write(Object id, Object obj, Object old) {
+            undo.add(id);
+            undo.add(writes.put(id, new Cell(obj, old)));
+        }
+        
+        int mark() { return undo.size(); }
+        
+        void rollback(int mark) {
+            for (int i = undo.size() - 2; i >= mark; i -= 2) {
+                Object id = undo.get(i);
+                Cell previous = (Cell) undo.get(i + 1);
+                
+                if (previous == null) writes.remove(id);
+                else writes.put(id, previous);
+            }
+            undo.subList(mark, undo.size()).clear();
+        }
+        
+        void commit() {
+            for (Map.Entry<Object, Cell> write : writes.entrySet()) {
+                shard(write.getKey()).store.put(write.getKey(), write.getValue());
+            }
+        }
+    }
+    
+    private static class ShardedEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private final ShardedWorld world;
+        private final Txn txn;
+        private final I self;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        public ShardedEnv(ShardedWorld world, Txn txn, I self) { this.world = world; this.txn = txn; this.self = self; }
+        
+        @Override public I self() { return self; }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return ShardedWorld.obj(txn.read(id), id); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return ShardedWorld.old(txn.read(id), id); }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            return world.dispatch(txn, id, msg);
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
@@ -0,0 +1,87 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+import java.util.List;
+
+/**
+ * <p>A SharedWorld provides a (mutable!) World implementation that can be shared between multiple Threads, and that
+ * takes snapshots in constant time.</p>
+ * <p>Its state is an immutable {@link PersistentWorld}, that is replaced by each committed top-level send. Sends are
+ * ordered by a single lock, but reads and snapshots never lock: they just read the current PersistentWorld. So many
+ * Threads can read (consistent) snapshots, while other Threads keep sending.</p>
+ */
+public class SharedWorld implements World<SharedWorld> {
+    private final Object lock = new Object();   // orders sends
+    private volatile PersistentWorld world;
+    
+    /**
+     * Creates a SharedWorld that checks all pre- and post-conditions
+     */
+    public SharedWorld() { this(new Contracts()); }
+    
+    /**
+     * Creates a SharedWorld
+     *
+     * @param contracts the Contracts policy, that determines which pre- and post-conditions are checked
+     */
+    public SharedWorld(Contracts contracts) { this.world = new PersistentWorld(contracts); }
+    
+    /**
+     * Returns the current state, as an immutable PersistentWorld
+     *
+     * @return the current PersistentWorld
+     */
+    public PersistentWorld world() { return world; }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return world.contracts(); }
+    
+    @Override
+    public <O> Value<SharedWorld, O> obj(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, world.obj(id).value());
+    }
+    
+    @Override
+    public <O> Value<SharedWorld, O> old(Id<? extends O> id) {
+        return new Value.ValueImpl<>(this, world.old(id).value());
+    }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<SharedWorld, E> send(I id, Message<I, O, E> msg) {
+        synchronized (lock) {
+            Value<PersistentWorld, E> result = world.send(id, msg);   // the World is unchanged when the send fails
+            world = result.world();
+            return new Value.ValueImpl<>(this, result.value());
+        }
+    }
+    
+    @Override
+    public Value<SharedWorld, List<Object>> send(Batch batch) {
+        synchronized (lock) {
+            Value<PersistentWorld, List<Object>> result = world.send(batch);
+            world = result.world();
+            return new Value.ValueImpl<>(this, result.value());
+        }
+    }
+    
+    /**
+     * Returns an immutable View of the last committed state, without locking
+     */
+    @Override
+    public View snapshot() { return world.snapshot(); }
+    
+    /**
+     * Provides SharedWorlds to the {@link Worlds} registry
+     */
+    public static final class Provider implements WorldProvider<SharedWorld> {
+        @Override public String name() { return "SharedWorld"; }
+        @Override public Class<SharedWorld> type() { return SharedWorld.class; }
+        @Override public SharedWorld create() { return new SharedWorld(); }
+    }
+    
+    @Override public SharedWorld init() { return new SharedWorld(world.contracts()); }
+}
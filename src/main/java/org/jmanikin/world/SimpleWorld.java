@@ -1,76 +1,603 @@
 package org.jmanikin.world;
 
+import org.jmanikin.codec.Codecs;
 import org.jmanikin.core.*;
-import java.util.HashMap;
+import org.jmanikin.message.Plan;
+import org.jmanikin.message.PlannedMessage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.Supplier;
-import org.jmanikin.test.WorldConformanceTest;
 
 /**
  * <p>A SimpleWorld provides a (mutable!) World implementation that still conforms to Manikin's minimum semantics.</p>
  * <p>Because SimpleWorld is not immutable you cannot share it between multiple Threads.</p>
  *
+ * <p>A SimpleWorld can optionally reuse its Environments and Values, so that a steady-state send allocates nothing
+ * beyond what the Message itself allocates. In that mode, a Value returned by send is only valid until the next send,
+ * and Environments must not be referenced after their send has returned.</p>
+ *
+ * <p>Each top-level send is atomic: all writes, including the ones made by nested sends, are recorded in an undo log,
+ * which is replayed in reverse when a (nested) send fails. So the cost of a rollback is proportional to the number of
+ * writes, not to the size of the World.</p>
+ *
+ * <p>A SimpleWorld can be checkpointed to a Snapshot file, and restored from it. A restored SimpleWorld memory-maps
+ * the Snapshot, and only decodes an Object when it is first accessed, so restoring takes constant time. Initially,
+ * the old state of a restored Object equals its current state.</p>
+ *
+ * <p>By default, the old state of every written Object is kept forever. A {@link Retention} policy can bound that to
+ * the last send(s) or Batch, after which the old state of an Object equals its current state.</p>
+ *
+ * <p>Each committed top-level send (or Batch) is a new version. A SimpleWorld can optionally keep a {@link History}
+ * of the last H versions, so that Objects can be read as of any retained version in logarithmic time. Older history
+ * is compacted, so that memory stays bounded.</p>
+ *
+ * <p>The Objects of {@link LongId}s are stored in a primitive, open-addressing hash map per Id class, so their keys
+ * are not boxed and there is no node object per entry. All other Ids are stored in a HashMap.</p>
+ *
+ * <p>The stages of a {@link PlannedMessage} are run directly from its cached {@link Plan}, so they don't build a
+ * Msg per send. Measured sends always build a Msg.</p>
+ *
+ * <p>All sends can optionally be captured by a {@link Recorder}, and measured by a {@link Metrics} registry. The
+ * Messages of a Batch are recorded as top-level sends.</p>
+ *
  * <p><b>WARNING: NOT THREAD SAFE</b></p>
  */
 public class SimpleWorld implements World<SimpleWorld> {
-    private final HashMap<Object, Object> obj = new HashMap<>();
-    private final HashMap<Object, Object> old = new HashMap<>();
+    private final Store obj = new Store();
+    private final Store old = new Store();
+    
+    private final boolean reuse;
+    private final ArrayList<SimpleEnv<?, ?, ?>> envs = new ArrayList<>();
+    private final SimpleValue<Object> result = new SimpleValue<>(this);
+    private int depth = 0;
+    
+    private static final Object NULL = new Object();   // stands for null Objects, so that get implies containsKey
+    private Object[] undo = new Object[48];   // the undo log of the current top-level send: id, obj, old
+    private int undoSize = 0;
+    
+    private final Snapshot snapshot;
+    private Contracts contracts = new Contracts();
+    
+    private Recorder recorder = null;
+    private long[] sends = null;   // the send numbers of the current sends, per depth
+    private Recorder.Outcome failure = null;   // set by a failing pre- or post-condition
+    private Metrics metrics = null;
     
-    private static final boolean conformanceChecked = checkConformance();
+    private Retention retention = new Retention();
+    private final ArrayDeque<Object[]> retained = new ArrayDeque<>();   // the ids written by the retained sends
+    private final Store writes = new Store();   // the number of writes per id in the retained sends
+    
+    private long version = 0;   // the number of committed top-level sends
+    private long horizon = 0;
+    private History history = null;
+    
+    public SimpleWorld() { this(false); }
+    
+    /**
+     * Creates a SimpleWorld
+     *
+     * @param reuse whether to reuse Environments and Values between sends
+     */
+    public SimpleWorld(boolean reuse) { this(reuse, null); }
+    
+    private SimpleWorld(boolean reuse, Snapshot snapshot) { this.reuse = reuse; this.snapshot = snapshot; }
+    
+    /**
+     * Sets the Contracts policy, that determines which pre- and post-conditions are checked
+     *
+     * @param contracts the Contracts policy
+     * @return this SimpleWorld
+     */
+    public SimpleWorld contracts(Contracts contracts) { this.contracts = contracts; return this; }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return contracts; }
     
     /**
-     * Checks whether this World conforms to Manikin's semantics
-     * 
-     * @return conformance checked
+     * Sets the Recorder that captures all sends, or null to disable recording
+     *
+     * @param recorder the Recorder, or null
+     * @return this SimpleWorld
      */
-    private static boolean checkConformance() {
-        if (!conformanceChecked) { WorldConformanceTest.check(new SimpleWorld()); }
-        return true;
+    public SimpleWorld recorder(Recorder recorder) {
+        this.recorder = recorder;
+        if (recorder != null && sends == null) sends = new long[16];
+        return this;
     }
     
+    /**
+     * Returns the Recorder, or null if recording is disabled
+     *
+     * @return the Recorder
+     */
+    public Recorder recorder() { return recorder; }
+    
+    /**
+     * Sets the Metrics registry that measures all sends, or null to disable measuring
+     *
+     * @param metrics the Metrics registry, or null
+     * @return this SimpleWorld
+     */
+    public SimpleWorld metrics(Metrics metrics) { this.metrics = metrics; return this; }
+    
+    /**
+     * Returns the Metrics registry, or null if measuring is disabled
+     *
+     * @return the Metrics registry
+     */
+    public Metrics metrics() { return metrics; }
+    
+    /**
+     * Sets the Retention policy, that determines how long old states are kept. It should be set before the first send.
+     *
+     * @param retention the Retention policy
+     * @return this SimpleWorld
+     */
+    public SimpleWorld retention(Retention retention) { this.retention = retention; return this; }
+    
+    /**
+     * Returns the Retention policy
+     *
+     * @return the Retention policy
+     */
+    public Retention retention() { return retention; }
+    
+    /**
+     * Sets the horizon of the History, which is the number of versions (before the current version) that can be read.
+     * A horizon of 0 disables the History. It should be set before the first send.
+     *
+     * @param horizon the horizon
+     * @return this SimpleWorld
+     */
+    public SimpleWorld history(long horizon) {
+        if (horizon < 0) throw new IllegalArgumentException("Horizon should not be negative");
+        
+        this.horizon = horizon;
+        this.history = horizon > 0 ? new History(horizon) : null;
+        return this;
+    }
+    
+    /**
+     * Returns the horizon of the History
+     *
+     * @return the horizon
+     */
+    public long history() { return horizon; }
+    
+    /**
+     * Returns the current version, which is the number of committed top-level sends (and Batches)
+     *
+     * @return the current version
+     */
+    public long version() { return version; }
+    
+    /**
+     * Returns a View of all (old) Objects as of a retained version. The old state of an Object as of a version is the
+     * old state it had at that version, as retained by the Retention policy. The View can be read until the version
+     * falls beyond the horizon.
+     *
+     * @param version the version, from the current version minus the horizon up to the current version
+     * @return the View
+     * @throws IllegalArgumentException when the version is not retained
+     */
+    public View at(long version) {
+        retained(version);
+        return new HistoryView(this, version);
+    }
+    
+    /**
+     * Returns a View of all (old) Objects as of the current version, when this SimpleWorld keeps a History. Like
+     * {@link #at(long)}, the View can be read until the version falls beyond the horizon, and (because a SimpleWorld
+     * is not thread-safe) only by the Thread that sends. Without a History, snapshots are not supported.
+     *
+     * @return the View
+     * @throws UnsupportedOperationException when this SimpleWorld doesn't keep a History
+     */
     @Override
+    public View snapshot() {
+        if (history == null) throw new UnsupportedOperationException("SimpleWorld only supports snapshots with a History");
+        return at(version);
+    }
+    
+    private void retained(long v) {
+        if (v > version || v < version - horizon || v < 0) {
+            throw new IllegalArgumentException("Version " + v + " is not retained");
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O lookup(Id<? extends O> id, long v, boolean old) {
+        retained(v);
+        
+        Object o = history != null ? history.get(id, v, old) : History.CURRENT;
+        if (o == History.CURRENT) return old ? previous(id) : lookup(obj, id);
+        else return o == History.ABSENT ? id.init() : (O) unmask(o);
+    }
+    
+    /**
+     * Restores a SimpleWorld from a Snapshot file that has been written by {@link #checkpoint(Path, Codecs)}
+     *
+     * @param path   the Snapshot file
+     * @param codecs the Codecs that have written the Snapshot
+     * @return the restored SimpleWorld
+     * @throws IOException when the Snapshot cannot be opened
+     */
+    public static SimpleWorld restore(Path path, Codecs codecs) throws IOException { return restore(path, codecs, false); }
+    
+    /**
+     * Restores a SimpleWorld from a Snapshot file that has been written by {@link #checkpoint(Path, Codecs)}
+     *
+     * @param path   the Snapshot file
+     * @param codecs the Codecs that have written the Snapshot
+     * @param reuse  whether to reuse Environments and Values between sends
+     * @return the restored SimpleWorld
+     * @throws IOException when the Snapshot cannot be opened
+     */
+    public static SimpleWorld restore(Path path, Codecs codecs, boolean reuse) throws IOException {
+        return new SimpleWorld(reuse, Snapshot.open(path, codecs));
+    }
+    
+    /**
+     * Writes the current state of all Objects to a Snapshot file. Ids need proper equals and hashCode methods.
+     * The file is replaced atomically, so it may be the file this SimpleWorld has been restored from.
+     *
+     * @param path   the Snapshot file
+     * @param codecs the Codecs for Ids and Objects
+     * @throws IOException when the Snapshot cannot be written
+     */
+    public void checkpoint(Path path, Codecs codecs) throws IOException {
+        try (Snapshot.Writer writer = new Snapshot.Writer(path, codecs)) {
+            obj.forEach((id, o) -> {
+                try { if (o != Snapshot.ABSENT) writer.write(id, unmask(o)); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+            
+            if (snapshot != null) {
+                snapshot.forEach((id, o) -> {
+                    try { if (!obj.containsKey(id)) writer.write(id, o); }   // not yet accessed
+                    catch (IOException e) { throw new UncheckedIOException(e); }
+                });
+            }
+            writer.commit();
+        }
+        catch (UncheckedIOException e) { throw e.getCause(); }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O lookup(Store map, Id<? extends O> id) {
+        Object o = map.get(id);
+        
+        if (o == null) return snapshot == null ? id.init() : restore(id);
+        else return o == Snapshot.ABSENT ? id.init() : (O) unmask(o);
+    }
+    
+    // an old state that is not (or no longer) retained equals the current state
     @SuppressWarnings("unchecked")
+    private <O> O previous(Id<? extends O> id) {
+        Object o = old.get(id);
+        return o != null ? (O) unmask(o) : lookup(obj, id);
+    }
+    
+    private static Object mask(Object o) { return o == null ? NULL : o; }
+    private static Object unmask(Object o) { return o == NULL ? null : o; }
+    
+    @SuppressWarnings("unchecked")
+    private <O> O restore(Id<? extends O> id) {
+        Object o = snapshot.get(id);
+        obj.put(id, o == Snapshot.ABSENT ? o : mask(o));   // an Object is only decoded (or missed) once
+        
+        return o == Snapshot.ABSENT ? id.init() : (O) o;
+    }
+    
+    @Override
     public <O> Value<SimpleWorld, O> obj(Id<? extends O> id) {
-        return new Value.ValueImpl<>(this, (O) obj.getOrDefault(id, id.init()));
+        return new Value.ValueImpl<>(this, lookup(obj, id));
     }
     
     @Override
-    @SuppressWarnings("unchecked")
     public <O> Value<SimpleWorld, O> old(Id<? extends O> id) {
-        return new Value.ValueImpl<>(this, (O) old.getOrDefault(id, id.init()));
+        return new Value.ValueImpl<>(this, previous(id));
     }
     
     @Override
+    @SuppressWarnings("unchecked")
     public <I extends Id<O>, O, E> Value<SimpleWorld, E> send(I id, Message<I, O, E> message) {
-        SimpleEnv<I, O, E> env = new SimpleEnv<I, O, E>(this, id);
-        Msg<I, O, E> msg = message.msg(env);
-        O oldObj = obj(id).value();
+        E eff;
+        
+        try {
+            eff = dispatch(id, message);
+            if (depth == 0) { retain(0, undoSize); commit(); }
+        }
+        finally { if (depth == 0) truncate(0); }   // the send has committed (or has been rolled back)
+        
+        if (reuse) { result.value = eff; return (Value<SimpleWorld, E>) result; }
+        else return new Value.ValueImpl<>(this, eff);
+    }
+    
+    /**
+     * Sends all Messages of a Batch with a single undo log, that is replayed in reverse when any Message fails
+     */
+    @Override
+    public Value<SimpleWorld, List<Object>> send(Batch batch) {
+        Object[] effects = new Object[batch.size()];
+        int[] marks = retention.mode() == Retention.Mode.LAST ? new int[effects.length + 1] : null;
+        
+        try {
+            for (int i = 0; i < effects.length; i++) {
+                if (marks != null) marks[i] = undoSize;
+                effects[i] = dispatch(batch.id(i), batch.msg(i));
+            }
+            
+            if (marks == null) retain(0, undoSize);
+            else {
+                marks[effects.length] = undoSize;
+                for (int i = 0; i < effects.length; i++) retain(marks[i], marks[i + 1]);
+            }
+            commit();
+            
+            return new Value.ValueImpl<>(this, Batch.effects(effects));
+        }
+        catch (Throwable e) {
+            rollback(0);
+            throw e;
+        }
+        finally { truncate(0); }
+    }
+    
+    /**
+     * Commits the writes of a Batch that has been executed elsewhere (by a {@link BlockExecutor}), as if the Batch was
+     * sent: a version with the same undo log and Retention.
+     *
+     * @param writes  per Message: the ids that it has written, with their final obj and old states
+     * @param effects the effects of the Messages
+     */
+    Value<SimpleWorld, List<Object>> install(Object[][] writes, Object[] effects) {
+        int[] marks = retention.mode() == Retention.Mode.LAST ? new int[writes.length + 1] : null;
+        
+        try {
+            for (int i = 0; i < writes.length; i++) {
+                if (marks != null) marks[i] = undoSize;
+                for (int j = 0; j < writes[i].length; j += 3) write(writes[i][j], writes[i][j + 1], writes[i][j + 2]);
+            }
+            
+            if (marks == null) retain(0, undoSize);
+            else {
+                marks[writes.length] = undoSize;
+                for (int i = 0; i < writes.length; i++) retain(marks[i], marks[i + 1]);
+            }
+            commit();
+            
+            return new Value.ValueImpl<>(this, Batch.effects(effects));
+        }
+        finally { truncate(0); }
+    }
+    
+    /**
+     * Writes the obj and old state of an id, and logs their previous states (null if absent). Only the first write of
+     * an id (since a mark) needs to be logged, because the log is replayed in reverse.
+     */
+    private void write(Object id, Object o, Object oldObj) {
+        if (undoSize + 3 > undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
         
-        if (!msg.pre().get()) throw new RuntimeException("Pre-condition failed");
+        Object previous = obj.put(id, mask(o));
+        
+        undo[undoSize] = id;
+        undo[undoSize + 1] = previous != Snapshot.ABSENT ? previous : null;   // a miss of the Snapshot is absent
+        undo[undoSize + 2] = old.put(id, mask(oldObj));
+        undoSize += 3;
+    }
+    
+    private void rollback(int mark) {
+        for (int i = undoSize - 3; i >= mark; i -= 3) {
+            restore(obj, undo[i], undo[i + 1]);
+            restore(old, undo[i], undo[i + 2]);
+        }
+        truncate(mark);
+    }
+    
+    private static void restore(Store map, Object id, Object previous) {
+        if (previous == null) map.remove(id);
+        else map.put(id, previous);
+    }
+    
+    /**
+     * Applies the Retention policy to the ids that have been written by a committed send, in undo[from, to)
+     */
+    private void retain(int from, int to) {
+        Retention.Mode mode = retention.mode();
+        
+        if (mode == Retention.Mode.ALWAYS) return;
+        else if (mode == Retention.Mode.SEND) { for (int i = from; i < to; i += 3) old.remove(undo[i]); }
         else {
-            try {
-                obj.put(id, msg.app().get());
+            Object[] ids = new Object[(to - from) / 3];
+            
+            for (int i = 0; i < ids.length; i++) {
+                Object id = ids[i] = undo[from + i * 3];
+                Integer n = (Integer) writes.get(id);
+                writes.put(id, n == null ? 1 : n + 1);
+            }
+            
+            retained.add(ids);
+            if (retained.size() > (mode == Retention.Mode.LAST ? retention.sends() : 1)) evict(retained.poll());
+        }
+    }
     
-                old.put(id, oldObj);
-                E eff = msg.eff().get();
-                old.put(id, oldObj);   // put it again because of recursive sends to self
+    // a top-level send (or Batch) has committed, so the writes in the undo log are a new version
+    private void commit() {
+        version++;
+        if (history != null) history.commit(version, undo, undoSize, obj, old);
+    }
     
-                if (!msg.pst().get()) throw new RuntimeException("Post-condition failed");
-                else return new Value.ValueImpl<>(env.world, eff);
+    // an old state is evicted when its id has not been written by a later retained send
+    private void evict(Object[] ids) {
+        for (Object id : ids) {
+            int n = (Integer) writes.get(id) - 1;
+            
+            if (n > 0) writes.put(id, n);
+            else {
+                writes.remove(id);
+                Object o = old.remove(id);
+                if (history != null && o != null) history.evict(version + 1, id, obj.get(id), o);
             }
-            catch (Exception e) {
-                obj.put(id, oldObj);   // Rollback state
-                throw e;
+        }
+    }
+    
+    private void truncate(int mark) {
+        undoSize = mark;
+        
+        // stale entries are overwritten by later sends, but don't retain the Objects of a large send
+        if (mark == 0 && undo.length > 1024) undo = new Object[48];
+    }
+    
+    private <I extends Id<O>, O, E> E dispatch(I id, Message<I, O, E> message) {
+        return recorder == null && metrics == null ? execute(id, message) : observe(id, message);
+    }
+    
+    private <I extends Id<O>, O, E> E execute(I id, Message<I, O, E> message) {
+        SimpleEnv<I, O, E> env = enter(id);
+        
+        try {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Plan<Message<I, O, E>, I, O, E> plan =
+                metrics == null && message instanceof PlannedMessage ? Plan.of((PlannedMessage) message) : null;
+            Msg<I, O, E> msg = plan != null ? null : metrics == null ? message.msg(env) :
+                metrics.msg(message, env, depth - 1);
+            
+            O oldObj = lookup(obj, id);
+            
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !(plan != null ? plan.pre(message, env) : msg.pre().get())) {
+                failure = Recorder.Outcome.PRE_FAILED;
+                throw contracts.failed("Pre-condition failed");
+            }
+            else {
+                int mark = undoSize;
+                
+                try {
+                    write(id, plan != null ? plan.app(message, env) : msg.app().get(), oldObj);
+                    
+                    E eff = plan != null ? plan.eff(message, env) : msg.eff().get();
+                    old.put(id, mask(oldObj));   // put it again because of recursive sends to self (already logged)
+                    
+                    if (contracts.pst(level) && !(plan != null ? plan.pst(message, env) : msg.pst().get())) {
+                        failure = Recorder.Outcome.POST_FAILED;
+                        throw contracts.failed("Post-condition failed");
+                    }
+                    else return eff;
+                }
+                catch (Throwable e) {
+                    rollback(mark);   // Rollback all writes, including nested sends
+                    throw e;
+                }
             }
         }
+        finally {
+            message.release(env);
+            exit(env);
+        }
+    }
+    
+    /**
+     * Executes a send, and passes it with its parent send and Outcome to the Recorder and Metrics (if any)
+     */
+    private <I extends Id<O>, O, E> E observe(I id, Message<I, O, E> message) {
+        int d = depth;
+        long send = 0, parent = 0;
+        
+        if (recorder != null) {
+            if (d == sends.length) sends = Arrays.copyOf(sends, d * 2);
+            send = sends[d] = recorder.begin();
+            parent = d > 0 ? sends[d - 1] : 0;
+        }
+        if (metrics != null) metrics.sent(message, d);
+        failure = null;
+        
+        try {
+            E eff = execute(id, message);
+            if (recorder != null) recorder.record(send, parent, d, id, message, eff, Recorder.Outcome.COMMITTED);
+            return eff;
+        }
+        catch (Throwable e) {
+            Recorder.Outcome outcome = failure != null ? failure : Recorder.Outcome.ROLLED_BACK;
+            failure = null;   // the parent send fails because of this one
+            
+            if (recorder != null) recorder.record(send, parent, d, id, message, null, outcome);
+            if (metrics != null) metrics.failed(message, outcome);
+            throw e;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <I extends Id<O>, O, E> SimpleEnv<I, O, E> enter(I id) {
+        SimpleEnv<I, O, E> env;
+        
+        if (!reuse) env = new SimpleEnv<>(this, id);
+        else {
+            if (depth == envs.size()) envs.add(new SimpleEnv<>(this, null));
+            env = (SimpleEnv<I, O, E>) envs.get(depth);
+            env.self = id;
+        }
+        
+        depth++;
+        return env;
+    }
+    
+    private void exit(SimpleEnv<?, ?, ?> env) {
+        depth--;
+        if (reuse) env.clear();
+    }
+    
+    /**
+     * Provides SimpleWorlds to the {@link Worlds} registry
+     */
+    public static final class Provider implements WorldProvider<SimpleWorld> {
+        @Override public String name() { return "SimpleWorld"; }
+        @Override public Class<SimpleWorld> type() { return SimpleWorld.class; }
+        @Override public SimpleWorld create() { return new SimpleWorld(); }
+    }
+    
+    /**
+     * Provides SimpleWorlds that reuse their Environments and Values to the {@link Worlds} registry
+     */
+    public static final class ReuseProvider implements WorldProvider<SimpleWorld> {
+        @Override public String name() { return "SimpleWorld/reuse"; }
+        @Override public Class<SimpleWorld> type() { return SimpleWorld.class; }
+        @Override public SimpleWorld create() { return new SimpleWorld(true); }
     }
     
-    @Override public SimpleWorld init() { return new SimpleWorld(); }
+    @Override public SimpleWorld init() {
+        return new SimpleWorld(reuse).contracts(contracts).recorder(recorder).metrics(metrics).retention(retention).
+            history(horizon);
+    }
+    
+    /**
+     * A View of a SimpleWorld as of a retained version
+     */
+    private static final class HistoryView implements View {
+        private final SimpleWorld world;
+        private final long version;
+        
+        HistoryView(SimpleWorld world, long version) { this.world = world; this.version = version; }
+        
+        @Override public <O> O obj(Id<? extends O> id) { return world.lookup(id, version, false); }
+        @Override public <O> O old(Id<? extends O> id) { return world.lookup(id, version, true); }
+    }
     
     private static class SimpleEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
         PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
         
         private final SimpleWorld world;
-        private final I self;
+        private I self;
         
         private Supplier<Boolean> _pre;
         private Supplier<O> _app;
@@ -79,11 +606,13 @@ public class SimpleWorld implements World<SimpleWorld> {
         
         public SimpleEnv(SimpleWorld world, I self) { this.world = world; this.self = self; }
         
+        void clear() { self = null; _pre = null; _app = null; _eff = null; _pst = null; }
+        
         @Override public I self() { return self; }
-        @Override public <O2> O2 obj(Id<? extends O2> id) { return world.obj(id).value(); }
-        @Override public <O2> O2 old(Id<? extends O2> id) { return world.old(id).value(); }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return world.lookup(world.obj, id); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return world.previous(id); }
         @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
-            return world.send(id, msg).value();
+            return world.dispatch(id, msg);
         }
         
         @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
@@ -96,4 +625,26 @@ public class SimpleWorld implements World<SimpleWorld> {
         @Override public Supplier<E> eff() { return _eff; }
         @Override public Supplier<Boolean> pst() { return _pst; }
     }
+    
+    /**
+     * A mutable Value that is reused between sends
+     *
+     * @param <V> the Value type
+     */
+    private static final class SimpleValue<V> implements Value<SimpleWorld, V> {
+        private final SimpleWorld world;
+        private V value;
+        
+        SimpleValue(SimpleWorld world) { this.world = world; }
+        
+        @Override public SimpleWorld world() { return world; }
+        @Override public V value() { return value; }
+        @Override public SimpleWorld init() { return world.init(); }
+        @Override public <O> Value<SimpleWorld, O> obj(Id<? extends O> id) { return world.obj(id); }
+        @Override public <O> Value<SimpleWorld, O> old(Id<? extends O> id) { return world.old(id); }
+        @Override public <I extends Id<O>, O, E> Value<SimpleWorld, E> send(I id, Message<I, O, E> msg) {
+            return world.send(id, msg);
+        }
+        @Override public Value<SimpleWorld, List<Object>> send(Batch batch) { return world.send(batch); }
+    }
 }
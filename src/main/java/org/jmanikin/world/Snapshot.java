@@ -0,0 +1,297 @@
+package org.jmanikin.world;
+
+import org.jmanikin.codec.Codecs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A Snapshot is a read-only, memory-mapped file of encoded Id/Object pairs, that decodes an Object only when it is
+ * looked up. Opening a Snapshot only maps the file, so it takes constant time regardless of the number of Objects.</p>
+ *
+ * <p>The file consists of a header, all records and an open-addressing hash table:</p>
+ * <pre>
+ * header: int magic, int version, long count, long table, int slots
+ * record: int key length, key bytes, int value length, value bytes
+ * slot:   long record offset (0 = empty), int key hash, int unused
+ * </pre>
+ * <p>Keys are the encoded Ids, and are hashed and compared as bytes, so Ids are never decoded during a lookup.
+ * The file is mapped in segments of 1GB, and records never straddle a segment.</p>
+ */
+final class Snapshot {
+    /**
+     * Returned by get when there is no Object for an Id
+     */
+    static final Object ABSENT = new Object();
+    
+    private static final int MAGIC = 0x4A4D534E;   // JMSN
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int SLOT = 16;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT = 1L << SEGMENT_BITS;
+    
+    private final Codecs codecs;
+    private final MappedByteBuffer[] segments;
+    private final long count;
+    private final long table;
+    private final int slots;
+    
+    private Snapshot(Codecs codecs, MappedByteBuffer[] segments, long count, long table, int slots) {
+        this.codecs = codecs; this.segments = segments; this.count = count; this.table = table; this.slots = slots;
+    }
+    
+    /**
+     * Maps a Snapshot file
+     *
+     * @param path   the Snapshot file
+     * @param codecs the Codecs that have written the Snapshot
+     * @return the Snapshot
+     * @throws IOException when the file cannot be mapped, or is not a Snapshot
+     */
+    static Snapshot open(Path path, Codecs codecs) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) >>> SEGMENT_BITS)];
+            
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, size - start));
+            }
+            
+            if (size < HEADER || segments[0].getInt(0) != MAGIC || segments[0].getInt(4) != VERSION) {
+                throw new StreamCorruptedException(path + " is not a Snapshot");
+            }
+            
+            ByteBuffer header = segments[0];
+            return new Snapshot(codecs, segments, header.getLong(8), header.getLong(16), header.getInt(24));
+        }
+    }
+    
+    /**
+     * Returns the number of Objects
+     *
+     * @return the number of Objects
+     */
+    long count() { return count; }
+    
+    /**
+     * Returns the decoded Object of an Id, or ABSENT when there is no such Object
+     *
+     * @param id the Id
+     * @return the Object, or ABSENT
+     */
+    Object get(Object id) {
+        try {
+            byte[] key = encode(codecs, id);
+            int hash = hash(key);
+            
+            for (int slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+                long s = table + (long) slot * SLOT;
+                long record = segment(s).getLong(offset(s));
+                
+                if (record == 0) return ABSENT;
+                else if (segment(s).getInt(offset(s) + 8) == hash && matches(record, key)) {
+                    return decode(record + 4 + key.length);
+                }
+            }
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    /**
+     * Decodes all Id/Object pairs, in file order
+     *
+     * @param action the action to call for every pair
+     */
+    void forEach(BiConsumer<Object, Object> action) {
+        try {
+            long position = HEADER;
+            
+            while (position < table) {
+                if (SEGMENT - offset(position) < 4 || segment(position).getInt(offset(position)) == 0) {
+                    position = (position | (SEGMENT - 1)) + 1;   // padding up to the next segment
+                }
+                else {
+                    int keyLength = segment(position).getInt(offset(position));
+                    Object id = decode(position);
+                    long value = position + 4 + keyLength;
+                    action.accept(id, decode(value));
+                    position = value + 4 + segment(value).getInt(offset(value));
+                }
+            }
+        }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+    
+    private MappedByteBuffer segment(long position) { return segments[(int) (position >>> SEGMENT_BITS)]; }
+    private static int offset(long position) { return (int) (position & (SEGMENT - 1)); }
+    
+    private boolean matches(long record, byte[] key) {
+        ByteBuffer b = segment(record);
+        int o = offset(record);
+        
+        if (b.getInt(o) != key.length) return false;
+        for (int i = 0; i < key.length; i++) if (b.get(o + 4 + i) != key[i]) return false;
+        return true;
+    }
+    
+    // decodes a length-prefixed value
+    private Object decode(long position) throws IOException {
+        ByteBuffer b = segment(position).duplicate();
+        b.position(offset(position));
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return codecs.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+    
+    private static byte[] encode(Codecs codecs, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        codecs.write(value, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+    
+    // FNV-1a, followed by a finalizer, so that it is stable between processes (unlike hashCode)
+    private static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) h = (h ^ b) * 0x01000193;
+        h ^= h >>> 16; h *= 0x85EBCA6B; h ^= h >>> 13;
+        return h;
+    }
+    
+    /**
+     * <p>Writes Id/Object pairs to a Snapshot file.</p>
+     * <p>The pairs are written to a temporary file in the same directory, that only replaces the Snapshot file when it
+     * is committed. So the previous Snapshot survives a failed (or crashed) write, and stays valid for anyone that has
+     * it mapped.</p>
+     */
+    static final class Writer implements Closeable {
+        private final Codecs codecs;
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        
+        private long position = HEADER;
+        private long count = 0;
+        private long[] records = new long[1024];
+        private int[] hashes = new int[1024];
+        
+        private boolean committed = false;
+        
+        /**
+         * Starts writing a (new or replacement) Snapshot file
+         *
+         * @param path   the Snapshot file
+         * @param codecs the Codecs for Ids and Objects
+         * @throws IOException when the temporary file cannot be created
+         */
+        Writer(Path path, Codecs codecs) throws IOException {
+            this.codecs = codecs;
+            this.path = path.toAbsolutePath();
+            this.temp = Files.createTempFile(this.path.getParent(), this.path.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            this.out = new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+                @Override public void write(int b) throws IOException { write(new byte[]{ (byte) b }, 0, 1); }
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                }
+            }, 1 << 16));
+            
+            out.write(new byte[HEADER]);   // the header is written last
+        }
+        
+        /**
+         * Writes an Id/Object pair. Ids should be unique.
+         *
+         * @param id  the Id
+         * @param obj the Object
+         * @throws IOException when writing fails
+         */
+        void write(Object id, Object obj) throws IOException {
+            byte[] key = encode(codecs, id);
+            byte[] value = encode(codecs, obj);
+            long length = 8L + key.length + value.length;
+            
+            if (length > SEGMENT) throw new IOException("Record of " + length + " bytes is too large");
+            else if (offset(position) + length > SEGMENT) pad(SEGMENT - offset(position));
+            
+            if (count == records.length) {
+                records = Arrays.copyOf(records, records.length * 2);
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            
+            records[(int) count] = position;
+            hashes[(int) count] = hash(key);
+            count++;
+            
+            out.writeInt(key.length); out.write(key);
+            out.writeInt(value.length); out.write(value);
+            position += length;
+        }
+        
+        private void pad(long length) throws IOException {
+            for (long i = 0; i < length; i++) out.write(0);
+            position += length;
+        }
+        
+        /**
+         * Writes the hash table and header, forces the Snapshot to disk, and atomically replaces the Snapshot file
+         *
+         * @throws IOException when writing or replacing fails
+         */
+        void commit() throws IOException {
+            if (count > (1 << 29)) throw new IOException("Too many records: " + count);
+            
+            int slots = Integer.highestOneBit((int) Math.max(2, count * 2 - 1)) << 1;   // load factor <= 0.5
+            long[] table = new long[slots];
+            int[] tableHashes = new int[slots];
+            
+            for (int i = 0; i < count; i++) {
+                int slot = hashes[i] & (slots - 1);
+                while (table[slot] != 0) slot = (slot + 1) & (slots - 1);
+                table[slot] = records[i];
+                tableHashes[slot] = hashes[i];
+            }
+            
+            pad((SLOT - (position % SLOT)) % SLOT);
+            long start = position;
+            
+            for (int i = 0; i < slots; i++) {
+                out.writeLong(table[i]);
+                out.writeInt(tableHashes[i]);
+                out.writeInt(0);
+            }
+            out.flush();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(start).putInt(slots).rewind();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            
+            channel.force(true);
+            channel.close();
+            
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+        
+        /**
+         * Discards the temporary file, unless the Snapshot has been committed
+         *
+         * @throws IOException when closing fails
+         */
+        @Override public void close() throws IOException {
+            try { channel.close(); }
+            finally { if (!committed) Files.deleteIfExists(temp); }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>A StmWorld provides a (mutable!) World implementation that can be shared between multiple Threads.</p>
+ * <p>Each top-level send runs in its own (optimistic) transaction: all reads and writes, including the ones made by
+ * nested sends, are tracked in a private read and write set. At commit, the write set is locked and the versions of
+ * the read set are validated. On conflict the transaction is discarded, and the Message is transparently sent again.</p>
+ * <p>Transactions that touch disjoint Objects never wait on each other.</p>
+ *
+ * <p>Because Messages can be sent more than once, they should not have side effects outside of their World.</p>
+ */
+public class StmWorld implements World<StmWorld> {
+    private final ConcurrentHashMap<Object, Ref> refs = new ConcurrentHashMap<>();
+    private final AtomicLong order = new AtomicLong();
+    
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    
+    private volatile Contracts contracts = new Contracts();
+    
+    /**
+     * Sets the Contracts policy, that determines which pre- and post-conditions are checked
+     *
+     * @param contracts the Contracts policy
+     * @return this StmWorld
+     */
+    public StmWorld contracts(Contracts contracts) { this.contracts = contracts; return this; }
+    
+    /**
+     * Returns the Contracts policy
+     *
+     * @return the Contracts policy
+     */
+    public Contracts contracts() { return contracts; }
+    
+    /**
+     * Returns the number of committed top-level sends
+     *
+     * @return the number of commits
+     */
+    public long commits() { return commits.sum(); }
+    
+    /**
+     * Returns the number of times a top-level send was retried, because of a conflict
+     *
+     * @return the number of retries
+     */
+    public long retries() { return retries.sum(); }
+    
+    /**
+     * Returns the Ref of an Object that is about to be written. Reads don't create Refs, so reads of pristine Objects
+     * don't retain anything.
+     */
+    private Ref ref(Object id) {
+        Ref r = refs.get(id);
+        return r != null ? r : refs.computeIfAbsent(id, k -> new Ref(order.incrementAndGet()));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O obj(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.obj : id.init(); }
+    
+    @SuppressWarnings("unchecked")
+    private static <O> O old(Cell cell, Id<? extends O> id) { return cell != null ? (O) cell.old : id.init(); }
+    
+    @Override
+    public <O> Value<StmWorld, O> obj(Id<? extends O> id) {
+        Ref r = refs.get(id);
+        return new Value.ValueImpl<>(this, obj(r != null ? r.cell : null, id));
+    }
+    
+    @Override
+    public <O> Value<StmWorld, O> old(Id<? extends O> id) {
+        Ref r = refs.get(id);
+        return new Value.ValueImpl<>(this, old(r != null ? r.cell : null, id));
+    }
+    
+    @Override
+    public <I extends Id<O>, O, E> Value<StmWorld, E> send(I id, Message<I, O, E> message) {
+        return new Value.ValueImpl<>(this, atomically(txn -> dispatch(txn, id, message)));
+    }
+    
+    /**
+     * Sends all Messages of a Batch in a single transaction, with a single validation and commit
+     */
+    @Override
+    public Value<StmWorld, List<Object>> send(Batch batch) {
+        return new Value.ValueImpl<>(this, atomically(txn -> {
+            Object[] effects = new Object[batch.size()];
+            for (int i = 0; i < effects.length; i++) effects[i] = dispatch(txn, batch.id(i), batch.msg(i));
+            return Batch.effects(effects);
+        }));
+    }
+    
+    private <E> E atomically(Function<Txn, E> body) {
+        while (true) {
+            Txn txn = new Txn();
+            E eff;
+            
+            try { eff = body.apply(txn); }
+            catch (RuntimeException e) {
+                // the failure could have been caused by an inconsistent read
+                if (txn.validate()) throw e;
+                else { retry(); continue; }
+            }
+            
+            if (txn.commit()) { commits.increment(); return eff; }
+            else retry();
+        }
+    }
+    
+    private void retry() { retries.increment(); Thread.yield(); }
+    
+    private <I extends Id<O>, O, E> E dispatch(Txn txn, I id, Message<I, O, E> message) {
+        StmEnv<I, O, E> env = new StmEnv<>(this, txn, id);
+        try {
+            O oldObj = obj(txn.read(id), id);
+            
+            Msg<I, O, E> msg = message.msg(env);
+            Contracts.Level level = contracts.level(message);
+            
+            if (contracts.pre(level) && !msg.pre().get()) throw contracts.failed("Pre-condition failed");
+            else {
+                int mark = txn.mark();
+                
+                try {
+                    txn.write(id, msg.app().get(), oldObj);
+                    E eff = msg.eff().get();
+                    txn.write(id, txn.read(id).obj, oldObj);   // put it again because of recursive sends to self
+                    
+                    if (contracts.pst(level) && !msg.pst().get()) throw contracts.failed("Post-condition failed");
+                    else return eff;
+                }
+                catch (Exception e) {
+                    txn.rollback(mark);   // Rollback all writes, including nested sends
+                    throw e;
+                }
+            }
+        }
+        finally { message.release(env); }
+    }
+    
+    /**
+     * Provides StmWorlds to the {@link Worlds} registry
+     */
+    public static final class Provider implements WorldProvider<StmWorld> {
+        @Override public String name() { return "StmWorld"; }
+        @Override public Class<StmWorld> type() { return StmWorld.class; }
+        @Override public StmWorld create() { return new StmWorld(); }
+    }
+    
+    @Override public StmWorld init() { return new StmWorld().contracts(contracts); }
+    
+    /**
+     * An immutable, versioned Object state. A null Cell denotes the pristine state.
+     */
+    private static final class Cell {
+        final Object obj;
+        final Object old;
+        final long version;
+        
+        Cell(Object obj, Object old, long version) { this.obj = obj; this.old = old; this.version = version; }
+    }
+    
+    /**
+     * A reference to the current Cell of an Object, that is locked by a Txn during its commit.
+     */
+    private static final class Ref {
+        static final AtomicReferenceFieldUpdater<Ref, Txn> OWNER =
+            AtomicReferenceFieldUpdater.newUpdater(Ref.class, Txn.class, "owner");
+        static final Comparator<Ref> ORDER = Comparator.comparingLong(r -> r.order);
+        
+        final long order;
+        volatile Cell cell;
+        volatile Txn owner;
+        
+        Ref(long order) { this.order = order; }
+        
+        long version() { Cell c = cell; return c != null ? c.version : 0; }
+    }
+    
+    /**
+     * The read and write set of a top-level send. Reads of Objects without a Ref are tracked by their Id.
+     */
+    private final class Txn {
+        private final HashMap<Ref, Long> reads = new HashMap<>();
+        private final HashSet<Object> absent = new HashSet<>();
+        private final HashMap<Object, Cell> writes = new HashMap<>();
+        private final ArrayList<Object> undo = new ArrayList<>();
+        
+        Cell read(Object id) {
+            Cell w = writes.get(id);
+            if (w != null) return w;
+            
+            Ref ref = refs.get(id);
+            if (ref == null) { absent.add(id); return null; }
+            
+            Cell c = ref.cell;
+            reads.putIfAbsent(ref, c != null ? c.version : 0L);
+            return c;
+        }
+        
+        void write(Object id, Object obj, Object old) {
+            undo.add(id);
+            undo.add(writes.put(id, new Cell(obj, old, -1)));
+        }
+        
+        int mark() { return undo.size(); }
+        
+        void rollback(int mark) {
+            for (int i = undo.size() - 2; i >= mark; i -= 2) {
+                Object id = undo.get(i);
+                Cell previous = (Cell) undo.get(i + 1);
+                
+                if (previous == null) writes.remove(id);
+                else writes.put(id, previous);
+            }
+            undo.subList(mark, undo.size()).clear();
+        }
+        
+        boolean validate() {
+            for (Map.Entry<Ref, Long> read : reads.entrySet()) {
+                Ref ref = read.getKey();
+                Txn owner = ref.owner;
+                
+                if ((owner != null && owner != this) || ref.version() != read.getValue()) return false;
+            }
+            for (Object id : absent) {
+                Ref ref = refs.get(id);   // created by a (concurrent) commit in the meantime
+                if (ref != null && ((ref.owner != null && ref.owner != this) || ref.version() != 0)) return false;
+            }
+            return true;
+        }
+        
+        boolean commit() {
+            HashMap<Ref, Cell> cells = new HashMap<>();
+            for (Map.Entry<Object, Cell> write : writes.entrySet()) cells.put(ref(write.getKey()), write.getValue());
+            
+            Ref[] locks = cells.keySet().toArray(new Ref[0]);
+            Arrays.sort(locks, Ref.ORDER);   // lock in a global order to prevent deadlocks
+            
+            for (Ref ref : locks) { while (!Ref.OWNER.compareAndSet(ref, null, this)) Thread.yield(); }
+            
+            try {
+                if (!validate()) return false;
+                
+                for (Ref ref : locks) {
+                    Cell w = cells.get(ref);
+                    ref.cell = new Cell(w.obj, w.old, ref.version() + 1);
+                }
+                return true;
+            }
+            finally { for (Ref ref : locks) ref.owner = null; }
+        }
+    }
+    
+    private static class StmEnv<I extends Id<O>, O, E> implements Environment<I, O, E>,
+        PreCondition<I, O, E>, Apply<I, O, E>, Effect<I, O, E>, PostCondition<I, O, E>, Msg<I, O, E> {
+        
+        private final StmWorld world;
+        private final Txn txn;
+        private final I self;
+        
+        private Supplier<Boolean> _pre;
+        private Supplier<O> _app;
+        private Supplier<E> _eff;
+        private Supplier<Boolean> _pst;
+        
+        public StmEnv(StmWorld world, Txn txn, I self) { this.world = world; this.txn = txn; this.self = self; }
+        
+        @Override public I self() { return self; }
+        @Override public <O2> O2 obj(Id<? extends O2> id) { return StmWorld.obj(txn.read(id), id); }
+        @Override public <O2> O2 old(Id<? extends O2> id) { return StmWorld.old(txn.read(id), id); }
+        @Override public <I2 extends Id<O2>, O2, R2> R2 send(I2 id, Message<I2, O2, R2> msg) {
+            return world.dispatch(txn, id, msg);
+        }
+        
+        @Override public Apply<I, O, E> pre(Supplier<Boolean> pre) { _pre = pre; return this; }
+        @Override public Effect<I, O, E> app(Supplier<O> app) { _app = app; return this; }
+        @Override public PostCondition<I, O, E> eff(Supplier<E> eff) { _eff = eff; return this; }
+        @Override public Msg<I, O, E> pst(Supplier<Boolean> pst) { _pst = pst; return this; }
+        
+        @Override public Supplier<Boolean> pre() { return _pre; }
+        @Override public Supplier<O> app() { return _app; }
+        @Override public Supplier<E> eff() { return _eff; }
+        @Override public Supplier<Boolean> pst() { return _pst; }
+    }
+}
@@ -0,0 +1,73 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.LongId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A Store is a mutable map from Ids to (non-null) Objects. LongIds are kept in a {@link LongMap} per Id class,
+ * all other Ids are kept in a HashMap.</p>
+ */
+final class Store {
+    private static final LongMap PLAIN = new LongMap();   // marks Id classes that are not LongIds
+    
+    private final HashMap<Object, Object> objects = new HashMap<>();
+    private final HashMap<Class<?>, LongMap> maps = new HashMap<>();
+    private final HashMap<Class<?>, LongId<?>> prototypes = new HashMap<>();   // to recreate LongIds from keys
+    
+    // most Worlds have few Id classes, so cache the last one (an instanceof check per lookup is much slower)
+    private Class<?> lastClass = null;
+    private LongMap lastMap = PLAIN;
+    
+    Object get(Object id) {
+        LongMap m = id.getClass() == lastClass ? lastMap : map(id);
+        return m == PLAIN ? objects.get(id) : m.get(((LongId<?>) id).key());
+    }
+    
+    boolean containsKey(Object id) { return get(id) != null; }
+    
+    /**
+     * Maps an Id to a (non-null) Object
+     *
+     * @return the previous Object, or null
+     */
+    Object put(Object id, Object o) {
+        LongMap m = id.getClass() == lastClass ? lastMap : map(id);
+        return m == PLAIN ? objects.put(id, o) : m.put(((LongId<?>) id).key(), o);
+    }
+    
+    Object remove(Object id) {
+        LongMap m = id.getClass() == lastClass ? lastMap : map(id);
+        return m == PLAIN ? objects.remove(id) : m.remove(((LongId<?>) id).key());
+    }
+    
+    void forEach(BiConsumer<Object, Object> action) {
+        for (Map.Entry<Object, Object> e : objects.entrySet()) action.accept(e.getKey(), e.getValue());
+        
+        for (Map.Entry<Class<?>, LongId<?>> e : prototypes.entrySet()) {
+            LongId<?> prototype = e.getValue();
+            maps.get(e.getKey()).forEach((key, o) -> action.accept(prototype.withKey(key), o));
+        }
+    }
+    
+    private LongMap map(Object id) {
+        Class<?> type = id.getClass();
+        LongMap m = maps.get(type);
+        
+        if (m == null) {
+            if (id instanceof LongId) {
+                m = new LongMap();
+                prototypes.put(type, (LongId<?>) id);
+            }
+            else m = PLAIN;
+            
+            maps.put(type, m);
+        }
+        
+        lastClass = type;
+        lastMap = m;
+        return m;
+    }
+}
@@ -0,0 +1,208 @@
+package org.jmanikin.world;
+
+import org.jmanikin.core.World;
+import org.jmanikin.core.WorldProvider;
+import org.jmanikin.test.WorldConformanceTest;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * <p>The Worlds registry holds all {@link WorldProvider}s that are discovered with {@link ServiceLoader}.</p>
+ *
+ * <p>A World implementation is certified by running the conformance tests of {@link WorldConformanceTest} on it. That
+ * is done once at build time (in the test phase), and the result is stored as a certificate in {@value #CERTIFICATES},
+ * together with a checksum of all class files of the build that holds the World class. A World can also be certified
+ * on request, after which the result is cached. Loading a World class doesn't run the conformance tests.</p>
+ *
+ * <p>Example usage:</p>
+ *
+ * <pre>{@code
+ * WorldProvider<?> provider = Worlds.provider("SimpleWorld");
+ * if (!Worlds.certified(provider)) Worlds.certify(provider);
+ * }</pre>
+ */
+public final class Worlds {
+    /**
+     * The (class path) resource that holds the certificates that have been created at build time
+     */
+    public static final String CERTIFICATES = "META-INF/jmanikin/certificates.properties";
+    
+    private static final ConcurrentHashMap<String, Boolean> certified = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> checksums = new ConcurrentHashMap<>();   // per build
+    
+    private Worlds() { }
+    
+    // lazily loaded
+    private static final class Registry {
+        static final Map<String, WorldProvider<?>> providers = load();
+        static final Properties certificates = certificates();
+        
+        private static Map<String, WorldProvider<?>> load() {
+            Map<String, WorldProvider<?>> providers = new LinkedHashMap<>();
+            
+            for (WorldProvider<?> p : ServiceLoader.load(WorldProvider.class, Worlds.class.getClassLoader())) {
+                if (providers.putIfAbsent(p.name(), p) != null) {
+                    throw new IllegalStateException("Duplicate WorldProvider " + p.name());
+                }
+            }
+            return Collections.unmodifiableMap(providers);
+        }
+        
+        private static Properties certificates() {
+            Properties certificates = new Properties();
+            
+            try (InputStream in = Worlds.class.getClassLoader().getResourceAsStream(CERTIFICATES)) {
+                if (in != null) certificates.load(in);
+            }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+            
+            return certificates;
+        }
+    }
+    
+    /**
+     * Returns all WorldProviders
+     *
+     * @return the WorldProviders
+     */
+    public static Collection<WorldProvider<?>> providers() { return Registry.providers.values(); }
+    
+    /**
+     * Returns the WorldProvider with the given name
+     *
+     * @param name the name
+     * @return the WorldProvider
+     * @throws IllegalArgumentException when there is no such WorldProvider
+     */
+    public static WorldProvider<?> provider(String name) {
+        WorldProvider<?> provider = Registry.providers.get(name);
+        if (provider == null) throw new IllegalArgumentException("Unknown WorldProvider " + name);
+        return provider;
+    }
+    
+    /**
+     * Returns whether a World implementation has been certified, either at build time (and it hasn't changed since),
+     * or on request. Doesn't run the conformance tests.
+     *
+     * @param provider the WorldProvider
+     * @return whether the World implementation conforms
+     */
+    public static boolean certified(WorldProvider<?> provider) {
+        Boolean result = certified.get(provider.name());
+        if (result != null) return result;
+        
+        String checksum = Registry.certificates.getProperty(provider.name());
+        return checksum != null && checksum.equals(checksum(provider));
+    }
+    
+    /**
+     * Certifies a World implementation by running the conformance tests, once. The result is cached.
+     *
+     * @param provider the WorldProvider
+     * @return whether the World implementation conforms
+     */
+    public static boolean certify(WorldProvider<?> provider) {
+        return certified.computeIfAbsent(provider.name(), name -> check(provider));
+    }
+    
+    private static <W extends World<W>> boolean check(WorldProvider<W> provider) {
+        return WorldConformanceTest.check(provider.create());
+    }
+    
+    // a checksum of all class files of the build (directory or jar) that holds the World implementation, because a
+    // World also depends on the classes that it uses, and on the conformance tests themselves
+    private static String checksum(WorldProvider<?> provider) {
+        CodeSource source = provider.type().getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null) return "";
+        
+        return checksums.computeIfAbsent(source.getLocation().toString(), location -> {
+            try { return checksum(Paths.get(source.getLocation().toURI())); }
+            catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) { return ""; }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        });
+    }
+    
+    // hashes the names and contents of all class files, in name order
+    private static String checksum(Path build) throws IOException {
+        MessageDigest digest;
+        
+        try { digest = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        
+        if (Files.isDirectory(build)) {
+            TreeMap<String, Path> classes = new TreeMap<>();
+            
+            try (Stream<Path> files = Files.walk(build)) {
+                files.filter(f -> f.toString().endsWith(".class")).
+                    forEach(f -> classes.put(build.relativize(f).toString().replace(File.separatorChar, '/'), f));
+            }
+            for (Map.Entry<String, Path> c : classes.entrySet()) {
+                digest.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(c.getValue()));
+            }
+        }
+        else {
+            try (JarFile jar = new JarFile(build.toFile())) {
+                TreeMap<String, JarEntry> classes = new TreeMap<>();
+                
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                    JarEntry entry = e.nextElement();
+                    if (entry.getName().endsWith(".class")) classes.put(entry.getName(), entry);
+                }
+                for (Map.Entry<String, JarEntry> c : classes.entrySet()) {
+                    digest.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+                    
+                    try (InputStream in = jar.getInputStream(c.getValue())) {
+                        byte[] buffer = new byte[8192];
+                        for (int n; (n = in.read(buffer)) > 0; ) digest.update(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+    
+    /**
+     * Certifies all World implementations, and writes the certificates of the conforming ones to the given class
+     * output directory (at build time). Fails when any World implementation doesn't conform.
+     *
+     * @param args the class output directory
+     * @throws IOException when the certificates cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Properties certificates = new Properties();
+        List<String> failed = new ArrayList<>();
+        
+        for (WorldProvider<?> provider : providers()) {
+            if (certify(provider)) certificates.setProperty(provider.name(), checksum(provider));
+            else failed.add(provider.name());
+        }
+        
+        Path path = Paths.get(args.length > 0 ? args[0] : "target/classes").resolve(CERTIFICATES);
+        Files.createDirectories(path.getParent());
+        
+        try (OutputStream out = Files.newOutputStream(path)) {
+            certificates.store(out, "Certified World implementations");
+        }
+        
+        if (!failed.isEmpty()) throw new IllegalStateException("Not conforming: " + failed);
+        System.out.println("Certified " + certificates.stringPropertyNames());
+    }
+}